@@ -11,7 +11,7 @@ import java.util.Date;
  */
 @ToString
 public class Command {
-    public enum Status {OK, FAILED, NOT_LOGGED_IN}
+    public enum Status {OK, FAILED, NOT_LOGGED_IN, QUEUED}
 
     @Getter @Setter private String siteName;
     @Getter @Setter private String issueId;
@@ -23,6 +23,14 @@ public class Command {
     @Getter @Setter private String group;
     private Date date;
     @Getter @Setter private boolean silent;
+    /**
+     * Set if the command failed in a way that may succeed when tried again, like when the server could not be reached.
+     */
+    @Getter @Setter private transient boolean retryable;
+    /**
+     * Id of the entry in the {@link YouTrackOutbox} if the command has been queued for retrying, otherwise 0.
+     */
+    @Getter @Setter private long outboxId;
 
     public Date getDate() {
         return new Date(date.getTime());
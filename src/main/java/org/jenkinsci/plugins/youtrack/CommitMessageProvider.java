@@ -0,0 +1,107 @@
+package org.jenkinsci.plugins.youtrack;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.AbstractBuild;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.scm.ChangeLogSet;
+import hudson.scm.SCM;
+import org.jenkinsci.plugins.gitclient.GitClient;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Provides the full commit messages of the changes in a build. A provider is used for one update of the issues of a
+ * build, so each message is looked up once by the comment and command passes.
+ * <p></p>
+ * For git the full message is taken from the change set parsed by the git plugin. Only if it is not available,
+ * the message is read with git, using one git client for the whole update. The client logs to the listener of that
+ * update, so the provider must not be kept for later updates, which may log elsewhere.
+ */
+public class CommitMessageProvider {
+    /**
+     * The messages by commit id.
+     */
+    private final Map<String, String> messages = new HashMap<String, String>();
+    /**
+     * The git client for the update, created when first needed.
+     */
+    private GitClient gitClient;
+
+    /**
+     * Gets the full commit message of a change. For other SCMs than git this is the message of the change log entry.
+     *
+     * @param scm         the SCM of the project.
+     * @param entry       the change log entry.
+     * @param listener    the build listener.
+     * @param environment the build environment.
+     * @param build       the build the entry belongs to.
+     * @return the message.
+     * @throws IllegalAccessException    if the git client could not be created.
+     * @throws InvocationTargetException if the git client could not be created.
+     */
+    public synchronized String getMessage(SCM scm, ChangeLogSet.Entry entry, TaskListener listener, EnvVars environment, AbstractBuild<?, ?> build) throws IllegalAccessException, InvocationTargetException {
+        if (scm == null || !scm.getClass().getSimpleName().equals("GitSCM")) {
+            return entry.getMsg();
+        }
+        String commitId = entry.getCommitId();
+        String message = commitId == null ? null : messages.get(commitId);
+        if (message == null) {
+            message = getComment(entry);
+            if (message == null) {
+                message = showRevision(scm, commitId, listener, environment, build);
+            }
+            if (commitId != null) {
+                messages.put(commitId, message);
+            }
+        }
+        return message;
+    }
+
+    /**
+     * Gets the full message from a git change set, which already contains it.
+     *
+     * @return the message, or null if the entry is not a git change set.
+     */
+    private static String getComment(ChangeLogSet.Entry entry) {
+        if (!entry.getClass().getSimpleName().equals("GitChangeSet")) {
+            return null;
+        }
+        try {
+            Method getComment = entry.getClass().getMethod("getComment");
+            Object comment = getComment.invoke(entry);
+            return comment instanceof String ? (String) comment : null;
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return null;
+        }
+    }
+
+    private String showRevision(SCM scm, String commitId, TaskListener listener, EnvVars environment, AbstractBuild<?, ?> build) throws IllegalAccessException, InvocationTargetException {
+        try {
+            if (gitClient == null) {
+                Method createClient = scm.getClass().getMethod("createClient", TaskListener.class, EnvVars.class, Run.class, FilePath.class);
+                gitClient = (GitClient) createClient.invoke(scm, listener, environment, build, build.getWorkspace());
+            }
+            List<String> stringList = gitClient.showRevision(gitClient.revParse(commitId));
+            StringBuilder message = new StringBuilder();
+            for (String line : stringList) {
+                if (line.startsWith("   ")) {
+                    String substring = line.substring(4);
+                    message.append(substring).append("\n");
+                }
+            }
+            return message.toString();
+        } catch (SecurityException e) {
+            throw new RuntimeException(e);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
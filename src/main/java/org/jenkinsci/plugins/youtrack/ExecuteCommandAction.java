@@ -8,7 +8,6 @@ import hudson.model.AbstractProject;
 import hudson.model.AutoCompletionCandidates;
 import hudson.model.BuildListener;
 import hudson.scm.ChangeLogSet;
-import hudson.scm.SCM;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import lombok.Getter;
@@ -21,19 +20,17 @@ import org.jenkinsci.plugins.youtrack.youtrackapi.User;
 import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServer;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
-import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * This is command for executing arbitrary commands on issues.
@@ -46,6 +43,10 @@ public class ExecuteCommandAction extends Builder {
     @Getter @Setter private String issueInText;
     @Getter @Setter private String comment;
     @Getter @Setter private String commentVisibility;
+    /**
+     * Maximum number of issues to apply the command to, 0 for no limit.
+     */
+    @Getter private int maxIssues;
 
     @DataBoundConstructor
     public ExecuteCommandAction(String command, String search, String issueInText, String comment, String commentVisibility) {
@@ -56,6 +57,11 @@ public class ExecuteCommandAction extends Builder {
         this.commentVisibility = commentVisibility;
     }
 
+    @DataBoundSetter
+    public void setMaxIssues(int maxIssues) {
+        this.maxIssues = maxIssues;
+    }
+
     @Override
     public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
         YouTrackSite youTrackSite = getYouTrackSite(build);
@@ -78,18 +84,28 @@ public class ExecuteCommandAction extends Builder {
                     String commandToExecute = environment.expand(command);
                     String expandedIssueInText = environment.expand(issueInText);
 
-                    Set<Issue> issues = new HashSet<>();
+                    Set<Issue> issues = new LinkedHashSet<>();
+                    boolean limitReached = false;
                     if (StringUtils.isNotBlank(searchQuery)) {
-                        issues.addAll(youTrackServer.search(user, searchQuery));
+                        YouTrackServer.PagedSearch searchResult = youTrackServer.searchPaged(user, searchQuery);
+                        limitReached = addIssues(issues, searchResult);
+                        if (searchResult.isFailed()) {
+                            youTrackSite.failed(build);
+                            listener.getLogger().println("FAILED: searching for issues with: " + searchQuery);
+                        }
                     }
-                    if (StringUtils.isNotBlank(expandedIssueInText)) {
-                        issues.addAll(findIssuesInText(build, environment, expandedIssueInText));
+                    if (StringUtils.isNotBlank(expandedIssueInText) && !limitReached) {
+                        limitReached = addIssues(issues, findIssuesInText(build, environment, expandedIssueInText));
+                    }
+                    if (limitReached) {
+                        listener.getLogger().println("Found more than " + maxIssues + " issues, only applying command to the first " + maxIssues);
                     }
-                    List<Command> appliedCommands = new ArrayList<Command>();
                     String expandedComment = environment.expand(comment);
-                    for (Issue issue : issues) {
-                        Command appliedCommand = youTrackServer.applyCommand(youTrackSite.getName(), user, issue, commandToExecute, expandedComment, commentVisibility, null, true);
-                        appliedCommands.add(appliedCommand);
+                    List<Command> appliedCommands = new ArrayList<Command>();
+                    if (!issues.isEmpty()) {
+                        appliedCommands = youTrackServer.applyCommand(youTrackSite.getName(), user, new ArrayList<Issue>(issues), commandToExecute, expandedComment, commentVisibility, null, true);
+                    }
+                    for (Command appliedCommand : appliedCommands) {
                         if (appliedCommand.getStatus() != Command.Status.OK) {
                             youTrackSite.failed(build);
                         }
@@ -123,20 +139,8 @@ public class ExecuteCommandAction extends Builder {
     String createChangesString(AbstractBuild<?, ?> build, BuildListener listener) throws InvocationTargetException, IllegalAccessException {
         StringBuilder stringBuilder = new StringBuilder();
         ChangeLogSet<? extends ChangeLogSet.Entry> changeSet = build.getChangeSet();
-        EnvVars environment = null;
-        try {
-            environment = build.getEnvironment(listener);
-        } catch (IOException | InterruptedException e) {
-            LOGGER.log(Level.SEVERE, e.getMessage(),e);
-        }
         if (changeSet != null) {
             for (ChangeLogSet.Entry entry : changeSet) {
-                AbstractProject<?, ?> project = build.getProject();
-                SCM scm = null;
-                if (project != null) {
-                    scm = project.getScm();
-                }
-                String message = YoutrackIssueUpdater.getMessage(scm,entry, listener, environment, build);
                 stringBuilder.append(entry.getMsg());
                 stringBuilder.append("\n\n");
             }
@@ -145,7 +149,7 @@ public class ExecuteCommandAction extends Builder {
     }
 
     YouTrackServer getYouTrackServer(YouTrackSite youTrackSite) {
-        return new YouTrackServer(youTrackSite.getUrl());
+        return youTrackSite.createServer();
     }
 
     YouTrackSite getYouTrackSite(AbstractBuild<?, ?> build) {
@@ -161,16 +165,26 @@ public class ExecuteCommandAction extends Builder {
         return new ArrayList<Issue>();
     }
 
+    /**
+     * Adds issues until the maximum number of issues is reached. The issues are only iterated as far as needed, so a
+     * paged search stops fetching pages at the limit.
+     *
+     * @return true if there were more issues than allowed.
+     */
+    private boolean addIssues(Set<Issue> issues, Iterable<Issue> issuesToAdd) {
+        for (Issue issue : issuesToAdd) {
+            if (maxIssues > 0 && issues.size() >= maxIssues && !issues.contains(issue)) {
+                return true;
+            }
+            issues.add(issue);
+        }
+        return false;
+    }
+
     private List<Issue> findIssuesIds(List<String> projects, String issueText) {
         ArrayList<Issue> issues = new ArrayList<Issue>();
-        String projectIds = StringUtils.join(projects, "|");
-        Pattern projectPattern = Pattern.compile("((" + projectIds + ")-" + "(\\d+)" + ")");
-        Matcher matcher = projectPattern.matcher(issueText);
-        while (matcher.find()) {
-            if (matcher.groupCount() >= 1) {
-                String issueId = matcher.group(0);
-                issues.add(new Issue(issueId));
-            }
+        for (IssueReferenceScanner.IssueReference reference : IssueReferenceScanner.forShortNames(projects).scan(issueText, false)) {
+            issues.add(new Issue(reference.getIssueId()));
         }
         return issues;
     }
@@ -203,9 +217,9 @@ public class ExecuteCommandAction extends Builder {
             YouTrackSite youTrackSite = YouTrackSite.get(project);
             AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
             if (youTrackSite != null) {
-                YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
+                YouTrackServer youTrackServer = youTrackSite.createServer();
                 User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-                if (user != null) {
+                if (user != null && user.isLoggedIn()) {
                     List<Suggestion> suggestions = youTrackServer.searchSuggestions(user, value);
                     for (Suggestion suggestion : suggestions) {
                         if (suggestion.getCompletionStart() == 0) {
@@ -0,0 +1,126 @@
+package org.jenkinsci.plugins.youtrack;
+
+import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackTransport;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks for issues on threads shared by all builds using a server, with a limit on the number of issues handled
+ * at the same time by all of them together. Tasks for different issues run in parallel, while tasks for the same issue
+ * run one after another in the order they were given.
+ */
+public class IssueCommandDispatcher {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(IssueCommandDispatcher.class.getName());
+
+    private final Executor executor;
+    /**
+     * One permit for each issue that may be handled at the same time, null to run all tasks in the calling thread.
+     */
+    private final Semaphore permits;
+
+    /**
+     * Constructs a dispatcher using the threads and permits of a server.
+     *
+     * @param transport the transport of the server.
+     */
+    public IssueCommandDispatcher(YouTrackTransport transport) {
+        this(transport.getCommandExecutor(), transport.getMaxParallelCommands() > 1 ? transport.getCommandPermits() : null);
+    }
+
+    /**
+     * Constructs a dispatcher.
+     *
+     * @param executor the threads to run the tasks on.
+     * @param permits  one permit for each issue that may be handled at the same time, shared with other dispatchers
+     *                 with the same limit. Null runs all tasks in the calling thread.
+     */
+    public IssueCommandDispatcher(Executor executor, Semaphore permits) {
+        this.executor = executor;
+        this.permits = permits;
+    }
+
+    /**
+     * Runs the tasks and waits until all of them have finished. If the calling thread is interrupted, the tasks not
+     * yet started are skipped and the interrupt flag is set again.
+     *
+     * @param tasks the tasks, in the order they should run for each issue.
+     */
+    public void dispatch(List<? extends Task> tasks) {
+        Map<String, List<Task>> tasksByIssue = new LinkedHashMap<String, List<Task>>();
+        for (Task task : tasks) {
+            List<Task> issueTasks = tasksByIssue.get(task.getIssueId());
+            if (issueTasks == null) {
+                issueTasks = new ArrayList<Task>();
+                tasksByIssue.put(task.getIssueId(), issueTasks);
+            }
+            issueTasks.add(task);
+        }
+
+        if (permits == null) {
+            for (Task task : tasks) {
+                run(task);
+            }
+            return;
+        }
+
+        final Semaphore issuePermits = permits;
+        final CountDownLatch finished = new CountDownLatch(tasksByIssue.size());
+        try {
+            for (final List<Task> issueTasks : tasksByIssue.values()) {
+                // Waits while other builds use all permits of the server.
+                issuePermits.acquire();
+                try {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                for (Task task : issueTasks) {
+                                    IssueCommandDispatcher.run(task);
+                                }
+                            } finally {
+                                issuePermits.release();
+                                finished.countDown();
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    issuePermits.release();
+                    finished.countDown();
+                    LOGGER.log(Level.WARNING, "Could not run commands for issue " + issueTasks.get(0).getIssueId(), e);
+                }
+            }
+            finished.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void run(Task task) {
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not run command for issue " + task.getIssueId(), e);
+        }
+    }
+
+    /**
+     * A task for an issue.
+     */
+    public interface Task extends Runnable {
+        /**
+         * @return the id of the issue the task is for.
+         */
+        String getIssueId();
+    }
+}
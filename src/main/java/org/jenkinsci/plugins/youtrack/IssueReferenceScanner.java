@@ -0,0 +1,210 @@
+package org.jenkinsci.plugins.youtrack;
+
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Finds issue references like <code>PROJECT-123</code> in a text. The project short names are put into a trie once,
+ * so a text is scanned in a single pass no matter how many projects there are.
+ * <p></p>
+ * Scanners are cached per set of short names, get them with {@link #forShortNames(java.util.Collection)}.
+ */
+public class IssueReferenceScanner {
+    /**
+     * Number of short name sets to keep scanners for.
+     */
+    private static final int CACHE_SIZE = 16;
+
+    /**
+     * Scanners by their sorted short names, least recently used first.
+     */
+    private static final Map<List<String>, IssueReferenceScanner> SCANNERS = new LinkedHashMap<List<String>, IssueReferenceScanner>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<String>, IssueReferenceScanner> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    /**
+     * Root of the trie of short names.
+     */
+    private final Node root = new Node();
+
+    private IssueReferenceScanner(Collection<String> shortNames) {
+        for (String shortName : shortNames) {
+            Node node = root;
+            for (int i = 0; i < shortName.length(); i++) {
+                node = node.getOrAddChild(shortName.charAt(i));
+            }
+            node.shortName = shortName;
+        }
+    }
+
+    /**
+     * Gets the scanner for the given short names, building it if it is not cached.
+     *
+     * @param shortNames the project short names to look for.
+     * @return the scanner.
+     */
+    public static IssueReferenceScanner forShortNames(Collection<String> shortNames) {
+        TreeSet<String> sortedShortNames = new TreeSet<String>();
+        for (String shortName : shortNames) {
+            if (shortName != null && shortName.length() > 0) {
+                sortedShortNames.add(shortName);
+            }
+        }
+        List<String> key = Collections.unmodifiableList(new ArrayList<String>(sortedShortNames));
+        synchronized (SCANNERS) {
+            IssueReferenceScanner scanner = SCANNERS.get(key);
+            if (scanner == null) {
+                scanner = new IssueReferenceScanner(key);
+                SCANNERS.put(key, scanner);
+            }
+            return scanner;
+        }
+    }
+
+    /**
+     * Finds the issue references in the text. References are returned in the order they occur in the text, and do not
+     * overlap.
+     *
+     * @param text      the text to scan.
+     * @param wholeWord if true, a reference must be at the start of the text or follow a character that is not a letter,
+     *                  digit or underscore. If false, references are also found inside words.
+     * @return the references found.
+     */
+    public List<IssueReference> scan(CharSequence text, boolean wholeWord) {
+        List<IssueReference> references = new ArrayList<IssueReference>();
+        if (text == null) {
+            return references;
+        }
+        int length = text.length();
+        int position = 0;
+        while (position < length) {
+            if (wholeWord && position > 0 && isWordCharacter(text.charAt(position - 1))) {
+                position++;
+                continue;
+            }
+            int end = -1;
+            Node node = root;
+            for (int i = position; i < length && node != null; i++) {
+                node = node.getChild(text.charAt(i));
+                if (node != null && node.shortName != null) {
+                    int numberEnd = getNumberEnd(text, i + 1);
+                    if (numberEnd != -1) {
+                        references.add(new IssueReference(node.shortName, text.subSequence(i + 2, numberEnd).toString(), position, numberEnd));
+                        end = Math.max(end, numberEnd);
+                    }
+                }
+            }
+            position = end == -1 ? position + 1 : end;
+        }
+        return references;
+    }
+
+    /**
+     * Gets the end of the <code>-123</code> part of a reference.
+     *
+     * @param text  the text.
+     * @param start the index of the dash.
+     * @return the index after the last digit, or -1 if there is no dash followed by digits.
+     */
+    private static int getNumberEnd(CharSequence text, int start) {
+        int length = text.length();
+        if (start >= length || text.charAt(start) != '-') {
+            return -1;
+        }
+        int end = start + 1;
+        while (end < length && isDigit(text.charAt(end))) {
+            end++;
+        }
+        return end == start + 1 ? -1 : end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /**
+     * Same as <code>\w</code> in a regular expression.
+     */
+    private static boolean isWordCharacter(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    /**
+     * A reference to an issue found in a text.
+     */
+    public static class IssueReference {
+        /**
+         * The short name of the project.
+         */
+        @Getter private final String shortName;
+        /**
+         * The issue id, e.g. <code>PROJECT-123</code>.
+         */
+        @Getter private final String issueId;
+        /**
+         * Index of the first character of the reference.
+         */
+        @Getter private final int start;
+        /**
+         * Index after the last character of the reference.
+         */
+        @Getter private final int end;
+
+        IssueReference(String shortName, String number, int start, int end) {
+            this.shortName = shortName;
+            this.issueId = shortName + "-" + number;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return issueId + "@" + start;
+        }
+    }
+
+    /**
+     * Node of the trie, children are kept in arrays sorted by character.
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private String shortName;
+
+        private Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        private Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            Node child = new Node();
+            newKeys[insertAt] = c;
+            newChildren[insertAt] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
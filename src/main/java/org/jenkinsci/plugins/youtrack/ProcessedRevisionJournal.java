@@ -0,0 +1,232 @@
+package org.jenkinsci.plugins.youtrack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Journal of entries added to a {@link ProcessedRevisionTable} since the table was last written to disk. Each record
+ * is the key, build number and minute followed by their CRC32, so a record torn by a crash is detected and dropped when replaying.
+ * <p></p>
+ * Appends are committed in groups: while one thread writes and syncs a batch, the keys appended by other threads are
+ * collected and written together in the next batch, with one write and one sync.
+ */
+public class ProcessedRevisionJournal implements Closeable {
+    private static final int RECORD_LENGTH = ProcessedRevisionTable.KEY_LENGTH + 12;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final boolean sync;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchWritten = lock.newCondition();
+    /**
+     * Records waiting for the next batch. Guarded by lock.
+     */
+    private Batch pending = new Batch();
+    /**
+     * Set while a thread writes a batch. Guarded by lock.
+     */
+    private boolean writing;
+    private long records;
+
+    /**
+     * Opens the journal, creating it if it does not exist.
+     *
+     * @param file the journal file.
+     * @param sync whether to sync each batch to disk before returning from {@link #append}.
+     * @throws IOException if the journal could not be opened.
+     */
+    public ProcessedRevisionJournal(File file, boolean sync) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.channel = this.file.getChannel();
+        this.sync = sync;
+    }
+
+    /**
+     * Reads the complete records of the journal, and cuts off the journal after the last one.
+     *
+     * @param visitor visits the entries of the records in the order they were appended.
+     * @return the number of records.
+     * @throws IOException if the journal could not be read.
+     */
+    public long replay(ProcessedRevisionTable.EntryVisitor visitor) throws IOException {
+        lock.lock();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(RECORD_LENGTH * 1024);
+            byte[] key = new byte[ProcessedRevisionTable.KEY_LENGTH];
+            CRC32 crc = new CRC32();
+            long position = 0;
+            long count = 0;
+            channel.position(0);
+            boolean valid = true;
+            while (valid && channel.read(buffer) > 0) {
+                buffer.flip();
+                while (buffer.remaining() >= RECORD_LENGTH) {
+                    crc.reset();
+                    crc.update(buffer.array(), buffer.position(), RECORD_LENGTH - 4);
+                    buffer.get(key);
+                    int buildNumber = buffer.getInt();
+                    int minute = buffer.getInt();
+                    if ((int) crc.getValue() != buffer.getInt()) {
+                        valid = false;
+                        break;
+                    }
+                    visitor.visit(key, buildNumber, minute);
+                    position += RECORD_LENGTH;
+                    count++;
+                }
+                buffer.compact();
+            }
+            channel.truncate(position);
+            channel.position(position);
+            records = count;
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends an entry and waits until it has been written, together with the entries appended concurrently.
+     *
+     * @param key         the key.
+     * @param buildNumber the number of the build that processed the revision.
+     * @param minute      the minute the revision was processed in.
+     * @throws IOException if the entry could not be written.
+     */
+    public void append(byte[] key, int buildNumber, int minute) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(RECORD_LENGTH);
+        record.put(key).putInt(buildNumber).putInt(minute);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 0, RECORD_LENGTH - 4);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        lock.lock();
+        try {
+            Batch batch = pending;
+            batch.records.add(record);
+            while (!batch.written) {
+                if (writing) {
+                    batchWritten.awaitUninterruptibly();
+                    continue;
+                }
+                writeBatch();
+            }
+            if (batch.failure != null) {
+                throw new IOException("Could not write to processed revisions journal", batch.failure);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the pending records. Called with the lock held, which is released while writing.
+     */
+    private void writeBatch() {
+        Batch batch = pending;
+        pending = new Batch();
+        writing = true;
+        IOException error = null;
+        lock.unlock();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(batch.records.size() * RECORD_LENGTH);
+            for (ByteBuffer record : batch.records) {
+                buffer.put(record);
+            }
+            buffer.flip();
+            write(buffer);
+        } catch (IOException e) {
+            error = e;
+        } finally {
+            lock.lock();
+        }
+        if (error == null) {
+            records += batch.records.size();
+        }
+        batch.failure = error;
+        batch.written = true;
+        writing = false;
+        batchWritten.signalAll();
+    }
+
+    /**
+     * Writes and, if enabled, syncs one batch. Called without holding the lock.
+     */
+    void write(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (sync) {
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Empties the journal, after the table has been written to disk. Waits for a batch being written to finish.
+     *
+     * @throws IOException if the journal could not be emptied.
+     */
+    public void clear() throws IOException {
+        lock.lock();
+        try {
+            while (writing) {
+                batchWritten.awaitUninterruptibly();
+            }
+            channel.truncate(0);
+            channel.position(0);
+            if (sync) {
+                channel.force(false);
+            }
+            records = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of records in the journal.
+     */
+    public long getRecords() {
+        lock.lock();
+        try {
+            return records;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            while (writing) {
+                batchWritten.awaitUninterruptibly();
+            }
+            file.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records written with one write, and the outcome reported to the threads that appended them.
+     */
+    private static class Batch {
+        private final List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+        /**
+         * Guarded by the lock of the journal.
+         */
+        private boolean written;
+        private IOException failure;
+    }
+}
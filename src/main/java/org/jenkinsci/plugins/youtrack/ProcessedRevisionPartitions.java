@@ -0,0 +1,222 @@
+package org.jenkinsci.plugins.youtrack;
+
+import hudson.Util;
+import hudson.model.AbstractProject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The commit ids processed by the YouTrack plugin, partitioned by site, or by job for sites with
+ * {@link YouTrackSite#isRevisionHistoryPerJob()}. A job partition lives in the directory of the job, so it moves with
+ * the job when it is renamed, and is removed with it when it is deleted.
+ * <p></p>
+ * Revisions being processed are claimed per site, so of the builds of all jobs using a site that see a commit at the
+ * same time only one applies its commands, also when the site keeps processed revisions per job.
+ * <p></p>
+ * The ids processed before the ids were partitioned are looked up when an id is not in a partition, until all sites
+ * remove ids by age and the ids are older than that.
+ */
+public class ProcessedRevisionPartitions {
+    private static final Logger LOGGER = Logger.getLogger(ProcessedRevisionPartitions.class.getName());
+    /**
+     * Name of the directory of a partition in the directory of a job, and of the ids before partitioning in the
+     * Jenkins home.
+     */
+    public static final String DIRECTORY_NAME = "youtrack-revisions";
+    /**
+     * Name of the directory of the site partitions in the Jenkins home.
+     */
+    public static final String SITES_DIRECTORY_NAME = "youtrack-site-revisions";
+    /**
+     * Name of the text file of ids used by earlier versions.
+     */
+    public static final String LEGACY_FILE_NAME = "youtrack-processed";
+    /**
+     * Created when the ids before partitioning are first opened, to know how old they are.
+     */
+    private static final String RETIRED_FILE_NAME = "retired";
+
+    private final File rootDir;
+    /**
+     * The open partitions, by job or site. Guarded by this.
+     */
+    private final Map<String, YoutrackProcessedRevisionsSaver> partitions = new HashMap<String, YoutrackProcessedRevisionsSaver>();
+    /**
+     * The claims of the revisions being processed, by site name. Guarded by this.
+     */
+    private final Map<String, ConcurrentMap<String, Boolean>> claims = new HashMap<String, ConcurrentMap<String, Boolean>>();
+    /**
+     * The ids before partitioning, null if there are none. Guarded by this.
+     */
+    private YoutrackProcessedRevisionsSaver legacy;
+
+    /**
+     * @param rootDir the Jenkins home.
+     */
+    public ProcessedRevisionPartitions(File rootDir) {
+        this.rootDir = rootDir;
+        File legacyDirectory = new File(rootDir, DIRECTORY_NAME);
+        File legacyFile = new File(rootDir, LEGACY_FILE_NAME);
+        if (legacyDirectory.isDirectory() || legacyFile.exists()) {
+            legacy = new YoutrackProcessedRevisionsSaver(legacyDirectory, legacyFile);
+            File retired = new File(legacyDirectory, RETIRED_FILE_NAME);
+            try {
+                if (retired.createNewFile()) {
+                    LOGGER.log(Level.INFO, "Processed revisions are now kept per site or job, earlier ones are still looked up in " + legacyDirectory);
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not create " + retired, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the partition for builds of the project with the site, opening it if it is not open.
+     *
+     * @param project the project.
+     * @param site    the site of the project.
+     * @return the partition.
+     */
+    public synchronized YoutrackProcessedRevisionsSaver get(AbstractProject<?, ?> project, YouTrackSite site) {
+        String name;
+        File directory;
+        if (site.isRevisionHistoryPerJob()) {
+            name = getJobKey(project.getFullName());
+            directory = new File(project.getRootDir(), DIRECTORY_NAME);
+        } else {
+            name = getSiteKey(site.getName());
+            directory = new File(new File(rootDir, SITES_DIRECTORY_NAME), Util.rawEncode(site.getName()));
+        }
+        YoutrackProcessedRevisionsSaver partition = partitions.get(name);
+        if (partition == null) {
+            ConcurrentMap<String, Boolean> siteClaims = claims.get(site.getName());
+            if (siteClaims == null) {
+                siteClaims = new ConcurrentHashMap<String, Boolean>();
+                claims.put(site.getName(), siteClaims);
+            }
+            partition = new YoutrackProcessedRevisionsSaver(directory, new File(directory, LEGACY_FILE_NAME), siteClaims);
+            partition.setInherited(legacy);
+            partitions.put(name, partition);
+        }
+        return partition;
+    }
+
+    /**
+     * Removes ids from the partition according to the retention settings of the site, if it has not been done for a
+     * while, and deletes the ids before partitioning once they are too old for all sites.
+     *
+     * @param partition       the partition.
+     * @param site            the site.
+     * @param lastBuildNumber the number of the last build of the project.
+     */
+    public void compactIfDue(YoutrackProcessedRevisionsSaver partition, YouTrackSite site, int lastBuildNumber) {
+        // Build numbers of different jobs cannot be compared.
+        int maxBuilds = site.isRevisionHistoryPerJob() ? site.getRevisionRetentionBuilds() : 0;
+        partition.compactIfDue(site.getRevisionRetentionDays(), maxBuilds, lastBuildNumber);
+        deleteLegacyIfExpired();
+    }
+
+    private synchronized void deleteLegacyIfExpired() {
+        if (legacy == null) {
+            return;
+        }
+        int maxAgeDays = 0;
+        for (YouTrackSite site : YouTrackProjectProperty.DESCRIPTOR.getSites()) {
+            if (site.getRevisionRetentionDays() <= 0) {
+                return;
+            }
+            maxAgeDays = Math.max(maxAgeDays, site.getRevisionRetentionDays());
+        }
+        File directory = legacy.getDirectory();
+        long retiredAt = new File(directory, RETIRED_FILE_NAME).lastModified();
+        if (retiredAt == 0 || System.currentTimeMillis() - retiredAt < TimeUnit.DAYS.toMillis(maxAgeDays)) {
+            return;
+        }
+        for (YoutrackProcessedRevisionsSaver partition : partitions.values()) {
+            partition.setInherited(null);
+        }
+        legacy.close();
+        legacy = null;
+        try {
+            Util.deleteRecursive(directory);
+            LOGGER.log(Level.INFO, "Deleted processed revisions from before they were partitioned, in " + directory);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not delete " + directory, e);
+        }
+        File migratedFile = new File(rootDir, LEGACY_FILE_NAME + ".migrated");
+        if (migratedFile.exists() && !migratedFile.delete()) {
+            LOGGER.log(Level.FINE, "Could not delete " + migratedFile);
+        }
+    }
+
+    /**
+     * Closes the partition of a job, when it has been renamed or deleted.
+     *
+     * @param fullName the full name of the job.
+     */
+    public synchronized void closeJob(String fullName) {
+        YoutrackProcessedRevisionsSaver partition = partitions.remove(getJobKey(fullName));
+        if (partition != null) {
+            partition.close();
+        }
+    }
+
+    /**
+     * Closes the partitions of the jobs in a folder, when it has been renamed or deleted.
+     *
+     * @param fullName the full name of the folder.
+     */
+    public synchronized void closeFolder(String fullName) {
+        String prefix = getJobKey(fullName + "/");
+        for (Iterator<Map.Entry<String, YoutrackProcessedRevisionsSaver>> iterator = partitions.entrySet().iterator(); iterator.hasNext(); ) {
+            Map.Entry<String, YoutrackProcessedRevisionsSaver> entry = iterator.next();
+            if (entry.getKey().startsWith(prefix)) {
+                entry.getValue().close();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static String getJobKey(String fullName) {
+        return "job:" + fullName;
+    }
+
+    private static String getSiteKey(String siteName) {
+        return "site:" + siteName;
+    }
+
+    /**
+     * Closes all partitions.
+     */
+    public synchronized void close() {
+        for (YoutrackProcessedRevisionsSaver partition : partitions.values()) {
+            partition.close();
+        }
+        partitions.clear();
+        if (legacy != null) {
+            legacy.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long revisions = 0;
+        for (YoutrackProcessedRevisionsSaver partition : partitions.values()) {
+            revisions += partition.getSize();
+        }
+        String result = partitions.size() + " open partitions with " + revisions + " revisions";
+        if (legacy != null) {
+            result += ", from before partitioning: " + legacy;
+        }
+        return result;
+    }
+}
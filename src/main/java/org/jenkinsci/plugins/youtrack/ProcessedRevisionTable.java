@@ -0,0 +1,544 @@
+package org.jenkinsci.plugins.youtrack;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Set of revision ids stored as 20 byte keys in an open addressing hash table, which is memory mapped from a file.
+ * Git and Mercurial revision ids are stored as their binary SHA-1, other revision ids as the SHA-1 of the id. Each key
+ * is stored with the number of the build and the minute it was added in, so old revisions can be removed.
+ * <p></p>
+ * Opening the table does not read it, so opening takes the same time however many revisions it holds, and the
+ * revisions do not take up heap. When the table gets too full, it is copied to a new file with twice the capacity, and
+ * when revisions are removed, the remaining ones are copied to a new file. The files are numbered, and the complete
+ * file with the highest number is used when opening, so a table is never replaced while it is mapped.
+ * <p></p>
+ * Lookups may be done concurrently, but not while the table is changed.
+ */
+public class ProcessedRevisionTable implements Closeable {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(ProcessedRevisionTable.class.getName());
+    /**
+     * Length of the keys in bytes.
+     */
+    public static final int KEY_LENGTH = 20;
+
+    private static final int MAGIC = 0x59545052;
+    private static final int VERSION = 2;
+    /**
+     * Version 1 slots only had the key.
+     */
+    private static final int VERSION_1 = 1;
+    private static final int HEADER_LENGTH = 32;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int SIZE_OFFSET = 12;
+    private static final int ZERO_KEY_OFFSET = 16;
+    private static final int ZERO_KEY_BUILD_OFFSET = 20;
+    private static final int ZERO_KEY_MINUTE_OFFSET = 24;
+    /**
+     * Slots hold the key, the build number and the minute.
+     */
+    private static final int SLOT_LENGTH = KEY_LENGTH + 8;
+    private static final int INITIAL_CAPACITY = 1024;
+    /**
+     * The table is grown when more than this part of the slots are used.
+     */
+    private static final double MAX_LOAD = 0.6;
+    private static final Pattern FILE_NAME = Pattern.compile("revisions-(\\d+)\\.table");
+
+    private final File directory;
+    private File file;
+    private long generation;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int size;
+    /**
+     * The all zero key marks an empty slot, so it is kept in the header.
+     */
+    private boolean containsZeroKey;
+
+    /**
+     * Opens the table in the directory, creating it if it does not exist.
+     *
+     * @param directory the directory of the table.
+     * @throws IOException if the table could not be opened or created.
+     */
+    public ProcessedRevisionTable(File directory) throws IOException {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        File existing = findLatest();
+        if (existing != null) {
+            map(existing);
+        } else {
+            File newFile = getFile(1);
+            complete(create(newFile, INITIAL_CAPACITY));
+            map(newFile);
+        }
+        deleteOthers();
+    }
+
+    /**
+     * Converts a revision id to a key.
+     *
+     * @param revisionId the revision id.
+     * @return the key.
+     */
+    public static byte[] toKey(String revisionId) {
+        if (revisionId.length() == KEY_LENGTH * 2) {
+            byte[] key = new byte[KEY_LENGTH];
+            int i = 0;
+            while (i < KEY_LENGTH) {
+                int high = Character.digit(revisionId.charAt(i * 2), 16);
+                int low = Character.digit(revisionId.charAt(i * 2 + 1), 16);
+                if (high < 0 || low < 0) {
+                    break;
+                }
+                key[i++] = (byte) (high << 4 | low);
+            }
+            if (i == KEY_LENGTH) {
+                return key;
+            }
+        }
+        try {
+            return MessageDigest.getInstance("SHA-1").digest(revisionId.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param key the key.
+     * @return true if the table contains the key.
+     */
+    public boolean contains(byte[] key) {
+        if (isZero(key)) {
+            return containsZeroKey;
+        }
+        return !isEmpty(findSlot(key));
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key         the key.
+     * @param buildNumber the number of the build that processed the revision, 0 if not known.
+     * @param minute      the minute the revision was processed in, counted from the epoch.
+     * @return true if the key was added, false if it was already in the table.
+     * @throws IOException if the table had to grow and could not.
+     */
+    public boolean add(byte[] key, int buildNumber, int minute) throws IOException {
+        if (isZero(key)) {
+            if (containsZeroKey) {
+                return false;
+            }
+            containsZeroKey = true;
+            buffer.putInt(ZERO_KEY_BUILD_OFFSET, buildNumber);
+            buffer.putInt(ZERO_KEY_MINUTE_OFFSET, minute);
+            buffer.putInt(ZERO_KEY_OFFSET, 1);
+            return true;
+        }
+        int slot = findSlot(key);
+        if (!isEmpty(slot)) {
+            return false;
+        }
+        if (size + 1 > capacity * MAX_LOAD) {
+            rewrite(capacity * 2, null);
+            slot = findSlot(key);
+        }
+        put(buffer, slot, key, buildNumber, minute);
+        size++;
+        buffer.putInt(SIZE_OFFSET, size);
+        return true;
+    }
+
+    /**
+     * @return the number of keys.
+     */
+    public int size() {
+        return size + (containsZeroKey ? 1 : 0);
+    }
+
+    /**
+     * @return the number of slots.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Visits all entries.
+     *
+     * @param visitor the visitor, the key array is reused between calls.
+     */
+    public void forEach(EntryVisitor visitor) {
+        byte[] key = new byte[KEY_LENGTH];
+        if (containsZeroKey) {
+            visitor.visit(key, buffer.getInt(ZERO_KEY_BUILD_OFFSET), buffer.getInt(ZERO_KEY_MINUTE_OFFSET));
+        }
+        for (int slot = 0; slot < capacity; slot++) {
+            if (!isEmpty(slot)) {
+                int offset = slotOffset(slot);
+                for (int i = 0; i < KEY_LENGTH; i++) {
+                    key[i] = buffer.get(offset + i);
+                }
+                visitor.visit(key, buffer.getInt(offset + KEY_LENGTH), buffer.getInt(offset + KEY_LENGTH + 4));
+            }
+        }
+    }
+
+    /**
+     * Removes the entries the filter does not retain, by copying the others to a new file. The new file is as small
+     * as the remaining entries allow.
+     *
+     * @param filter the filter.
+     * @return the number of removed entries.
+     * @throws IOException if the new file could not be written.
+     */
+    public int retain(EntryFilter filter) throws IOException {
+        int removed = 0;
+        if (containsZeroKey && !filter.retain(buffer.getInt(ZERO_KEY_BUILD_OFFSET), buffer.getInt(ZERO_KEY_MINUTE_OFFSET))) {
+            removed++;
+        }
+        for (int slot = 0; slot < capacity; slot++) {
+            if (!isEmpty(slot)) {
+                int offset = slotOffset(slot);
+                if (!filter.retain(buffer.getInt(offset + KEY_LENGTH), buffer.getInt(offset + KEY_LENGTH + 4))) {
+                    removed++;
+                }
+            }
+        }
+        if (removed > 0) {
+            int remaining = size() - removed;
+            int newCapacity = INITIAL_CAPACITY;
+            while (remaining > newCapacity * MAX_LOAD / 2) {
+                newCapacity *= 2;
+            }
+            rewrite(newCapacity, filter);
+        }
+        return removed;
+    }
+
+    /**
+     * Visits the entries of a table.
+     */
+    public interface EntryVisitor {
+        /**
+         * @param key         the key.
+         * @param buildNumber the number of the build that processed the revision, 0 if not known.
+         * @param minute      the minute the revision was processed in, counted from the epoch.
+         */
+        void visit(byte[] key, int buildNumber, int minute);
+    }
+
+    /**
+     * Decides which entries to keep.
+     */
+    public interface EntryFilter {
+        /**
+         * @param buildNumber the number of the build that processed the revision, 0 if not known.
+         * @param minute      the minute the revision was processed in, counted from the epoch.
+         * @return true to keep the entry.
+         */
+        boolean retain(int buildNumber, int minute);
+    }
+
+    /**
+     * Writes the changes to disk.
+     */
+    public void flush() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() {
+        if (buffer != null) {
+            flush();
+            buffer = null;
+        }
+    }
+
+    /**
+     * Finds the slot of the key, or the empty slot where it would be added.
+     */
+    private int findSlot(byte[] key) {
+        int mask = capacity - 1;
+        int slot = hash(key) & mask;
+        while (!isEmpty(slot) && !matches(slot, key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(byte[] key) {
+        // Mixes all bytes, as revision ids that look like SHA-1 hashes are stored as is.
+        int h = 0;
+        for (byte b : key) {
+            h = h * 31 + b;
+        }
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private boolean isEmpty(int slot) {
+        return isEmpty(buffer, slot);
+    }
+
+    private boolean matches(int slot, byte[] key) {
+        int offset = slotOffset(slot);
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            if (buffer.get(offset + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(byte[] key) {
+        for (byte b : key) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int slotOffset(int slot) {
+        return HEADER_LENGTH + slot * SLOT_LENGTH;
+    }
+
+    private static void put(MappedByteBuffer buffer, int slot, byte[] key, int buildNumber, int minute) {
+        int offset = slotOffset(slot);
+        for (int i = 0; i < KEY_LENGTH; i++) {
+            buffer.put(offset + i, key[i]);
+        }
+        buffer.putInt(offset + KEY_LENGTH, buildNumber);
+        buffer.putInt(offset + KEY_LENGTH + 4, minute);
+    }
+
+    /**
+     * Copies the entries the filter retains to a new file with the capacity and switches to it.
+     *
+     * @param filter the filter, null to copy all entries.
+     */
+    private void rewrite(int newCapacity, EntryFilter filter) throws IOException {
+        if (newCapacity > (Integer.MAX_VALUE - HEADER_LENGTH) / SLOT_LENGTH) {
+            throw new IOException("Too many processed revisions");
+        }
+        File newFile = getFile(generation + 1);
+        MappedByteBuffer newBuffer = create(newFile, newCapacity);
+        int mask = newCapacity - 1;
+        int newSize = 0;
+        byte[] key = new byte[KEY_LENGTH];
+        for (int slot = 0; slot < capacity; slot++) {
+            if (isEmpty(slot)) {
+                continue;
+            }
+            int offset = slotOffset(slot);
+            int buildNumber = buffer.getInt(offset + KEY_LENGTH);
+            int minute = buffer.getInt(offset + KEY_LENGTH + 4);
+            if (filter != null && !filter.retain(buildNumber, minute)) {
+                continue;
+            }
+            for (int i = 0; i < KEY_LENGTH; i++) {
+                key[i] = buffer.get(offset + i);
+            }
+            int newSlot = hash(key) & mask;
+            while (!isEmpty(newBuffer, newSlot)) {
+                newSlot = (newSlot + 1) & mask;
+            }
+            put(newBuffer, newSlot, key, buildNumber, minute);
+            newSize++;
+        }
+        boolean newContainsZeroKey = containsZeroKey && (filter == null
+                || filter.retain(buffer.getInt(ZERO_KEY_BUILD_OFFSET), buffer.getInt(ZERO_KEY_MINUTE_OFFSET)));
+        newBuffer.putInt(SIZE_OFFSET, newSize);
+        if (newContainsZeroKey) {
+            newBuffer.putInt(ZERO_KEY_OFFSET, 1);
+            newBuffer.putInt(ZERO_KEY_BUILD_OFFSET, buffer.getInt(ZERO_KEY_BUILD_OFFSET));
+            newBuffer.putInt(ZERO_KEY_MINUTE_OFFSET, buffer.getInt(ZERO_KEY_MINUTE_OFFSET));
+        }
+        complete(newBuffer);
+        LOGGER.log(Level.FINE, "Rewrote processed revisions table with " + newSize + " revisions in " + newCapacity + " slots");
+
+        File oldFile = file;
+        buffer = newBuffer;
+        file = newFile;
+        generation++;
+        capacity = newCapacity;
+        size = newSize;
+        containsZeroKey = newContainsZeroKey;
+        if (!oldFile.delete()) {
+            // Still mapped on some platforms, it is deleted next time the table is opened.
+            LOGGER.log(Level.FINE, "Could not delete " + oldFile);
+        }
+    }
+
+    private static boolean isEmpty(MappedByteBuffer buffer, int slot) {
+        int offset = slotOffset(slot);
+        for (int i = 0; i < KEY_LENGTH; i += 4) {
+            if (buffer.getInt(offset + i) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a file for a table with the capacity, without magic. The caller completes it with {@link #complete}.
+     */
+    private static MappedByteBuffer create(File file, int capacity) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(0);
+            randomAccessFile.setLength(slotOffset(capacity));
+            MappedByteBuffer buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, slotOffset(capacity));
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            return buffer;
+        }
+    }
+
+    /**
+     * Marks a file as complete by writing the magic, after its contents have been written to disk.
+     */
+    private static void complete(MappedByteBuffer buffer) {
+        buffer.force();
+        buffer.putInt(MAGIC_OFFSET, MAGIC);
+        buffer.force();
+    }
+
+    private void map(File file) throws IOException {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            MappedByteBuffer mapped = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, randomAccessFile.length());
+            int version = mapped.getInt(VERSION_OFFSET);
+            if (version != VERSION && version != VERSION_1) {
+                throw new IOException("Unsupported version of " + file);
+            }
+            this.file = file;
+            this.generation = getGeneration(file);
+            this.buffer = mapped;
+            this.capacity = mapped.getInt(CAPACITY_OFFSET);
+            this.size = mapped.getInt(SIZE_OFFSET);
+            this.containsZeroKey = mapped.getInt(ZERO_KEY_OFFSET) != 0;
+            if (version == VERSION_1) {
+                upgrade();
+            }
+        }
+    }
+
+    /**
+     * Copies the keys of a version 1 table to a new file, as processed by an unknown build now.
+     */
+    private void upgrade() throws IOException {
+        int minute = (int) TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+        File newFile = getFile(generation + 1);
+        int newCapacity = capacity;
+        MappedByteBuffer newBuffer = create(newFile, newCapacity);
+        int mask = newCapacity - 1;
+        byte[] key = new byte[KEY_LENGTH];
+        for (int slot = 0; slot < capacity; slot++) {
+            int offset = HEADER_LENGTH + slot * KEY_LENGTH;
+            for (int i = 0; i < KEY_LENGTH; i++) {
+                key[i] = buffer.get(offset + i);
+            }
+            if (isZero(key)) {
+                continue;
+            }
+            int newSlot = hash(key) & mask;
+            while (!isEmpty(newBuffer, newSlot)) {
+                newSlot = (newSlot + 1) & mask;
+            }
+            put(newBuffer, newSlot, key, 0, minute);
+        }
+        newBuffer.putInt(SIZE_OFFSET, size);
+        if (containsZeroKey) {
+            newBuffer.putInt(ZERO_KEY_OFFSET, 1);
+            newBuffer.putInt(ZERO_KEY_MINUTE_OFFSET, minute);
+        }
+        complete(newBuffer);
+        LOGGER.log(Level.INFO, "Upgraded processed revisions table " + file);
+        file = newFile;
+        generation++;
+        buffer = newBuffer;
+    }
+
+    /**
+     * @return the complete table file with the highest number, null if there is none.
+     */
+    private File findLatest() throws IOException {
+        File latest = null;
+        long latestGeneration = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File candidate : files) {
+                if (!FILE_NAME.matcher(candidate.getName()).matches()) {
+                    continue;
+                }
+                long candidateGeneration = getGeneration(candidate);
+                if (candidateGeneration > latestGeneration && isComplete(candidate)) {
+                    latest = candidate;
+                    latestGeneration = candidateGeneration;
+                }
+            }
+        }
+        return latest;
+    }
+
+    private static boolean isComplete(File file) throws IOException {
+        if (file.length() < HEADER_LENGTH) {
+            return false;
+        }
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            if (randomAccessFile.readInt() != MAGIC) {
+                return false;
+            }
+            int version = randomAccessFile.readInt();
+            int capacity = randomAccessFile.readInt();
+            int slotLength = version == VERSION_1 ? KEY_LENGTH : SLOT_LENGTH;
+            return file.length() == HEADER_LENGTH + (long) capacity * slotLength;
+        }
+    }
+
+    private static long getGeneration(File file) {
+        Matcher matcher = FILE_NAME.matcher(file.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : 0;
+    }
+
+    /**
+     * Deletes the table files that are not used, like smaller tables left behind or incomplete larger ones.
+     */
+    private void deleteOthers() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File other : files) {
+                if (FILE_NAME.matcher(other.getName()).matches() && !other.equals(file) && !other.delete()) {
+                    LOGGER.log(Level.FINE, "Could not delete " + other);
+                }
+            }
+        }
+    }
+
+    private File getFile(long generation) {
+        return new File(directory, "revisions-" + generation + ".table");
+    }
+}
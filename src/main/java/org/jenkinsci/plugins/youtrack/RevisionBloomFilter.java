@@ -0,0 +1,190 @@
+package org.jenkinsci.plugins.youtrack;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter for the keys of a {@link ProcessedRevisionTable}. If the filter does not contain a key, the table does
+ * not contain it either, so most lookups of new revisions need neither a lock nor a table probe.
+ * <p></p>
+ * Lookups and additions are lock free and may be done concurrently.
+ */
+public class RevisionBloomFilter {
+    private static final int MAGIC = 0x59544246;
+    private static final int VERSION = 1;
+
+    private final AtomicLongArray bits;
+    private final long numBits;
+    private final int numHashes;
+    private final long expectedInsertions;
+    private final AtomicLong insertions = new AtomicLong();
+    private final AtomicLong bitCount = new AtomicLong();
+
+    private RevisionBloomFilter(long numBits, int numHashes, long expectedInsertions) {
+        this.numBits = numBits;
+        this.numHashes = numHashes;
+        this.expectedInsertions = expectedInsertions;
+        this.bits = new AtomicLongArray((int) ((numBits + 63) / 64));
+    }
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param expectedInsertions the number of keys the filter is sized for.
+     * @param falsePositiveRate  the false positive rate when the filter holds that many keys.
+     * @return the filter.
+     */
+    public static RevisionBloomFilter create(long expectedInsertions, double falsePositiveRate) {
+        long n = Math.max(1, expectedInsertions);
+        long numBits = (long) Math.ceil(-n * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        numBits = Math.max(64, (numBits + 63) / 64 * 64);
+        if (numBits > 64L * Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Bloom filter too large for " + expectedInsertions + " keys");
+        }
+        int numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+        return new RevisionBloomFilter(numBits, numHashes, n);
+    }
+
+    /**
+     * @param key the key.
+     * @return false if the key has definitely not been added, true if it may have been.
+     */
+    public boolean mightContain(byte[] key) {
+        long hash1 = hash(key, 0x9e3779b97f4a7c15L);
+        long hash2 = hash(key, 0xc2b2ae3d27d4eb4fL) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Adds a key.
+     *
+     * @param key the key.
+     */
+    public void put(byte[] key) {
+        long hash1 = hash(key, 0x9e3779b97f4a7c15L);
+        long hash2 = hash(key, 0xc2b2ae3d27d4eb4fL) | 1;
+        for (int i = 0; i < numHashes; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % numBits;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            while (true) {
+                long word = bits.get(index);
+                if ((word & mask) != 0) {
+                    break;
+                }
+                if (bits.compareAndSet(index, word, word | mask)) {
+                    bitCount.incrementAndGet();
+                    break;
+                }
+            }
+        }
+        insertions.incrementAndGet();
+    }
+
+    private static long hash(byte[] key, long seed) {
+        long h = seed;
+        for (byte b : key) {
+            h = (h ^ (b & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        return h ^ (h >>> 33);
+    }
+
+    /**
+     * @return the number of keys added.
+     */
+    public long getInsertions() {
+        return insertions.get();
+    }
+
+    /**
+     * @return the number of keys the filter is sized for.
+     */
+    public long getExpectedInsertions() {
+        return expectedInsertions;
+    }
+
+    /**
+     * @return the probability that {@link #mightContain} returns true for a key that has not been added, estimated
+     * from the bits that are set.
+     */
+    public double getFalsePositiveRate() {
+        return Math.pow((double) bitCount.get() / numBits, numHashes);
+    }
+
+    /**
+     * @return the size of the bits in bytes.
+     */
+    public long getMemorySize() {
+        return numBits / 8;
+    }
+
+    /**
+     * Writes the filter to a file.
+     *
+     * @param file the file.
+     * @throws IOException if the file could not be written.
+     */
+    public void writeTo(File file) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(numBits);
+            out.writeInt(numHashes);
+            out.writeLong(expectedInsertions);
+            out.writeLong(insertions.get());
+            for (int i = 0; i < bits.length(); i++) {
+                out.writeLong(bits.get(i));
+            }
+        }
+        if (file.exists() && !file.delete() || !tempFile.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    /**
+     * Reads a filter from a file.
+     *
+     * @param file the file.
+     * @return the filter.
+     * @throws IOException if the file could not be read or is not a filter.
+     */
+    public static RevisionBloomFilter readFrom(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a bloom filter: " + file);
+            }
+            long numBits = in.readLong();
+            int numHashes = in.readInt();
+            long expectedInsertions = in.readLong();
+            RevisionBloomFilter filter = new RevisionBloomFilter(numBits, numHashes, expectedInsertions);
+            filter.insertions.set(in.readLong());
+            long bitCount = 0;
+            for (int i = 0; i < filter.bits.length(); i++) {
+                long word = in.readLong();
+                filter.bits.set(i, word);
+                bitCount += Long.bitCount(word);
+            }
+            filter.bitCount.set(bitCount);
+            return filter;
+        }
+    }
+}
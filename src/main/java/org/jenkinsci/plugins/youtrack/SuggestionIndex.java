@@ -0,0 +1,226 @@
+package org.jenkinsci.plugins.youtrack;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of names, like projects, fields, groups or bundles, for auto completion. Names are found case insensitively
+ * by prefix with a trie, and by substring with an index of the trigrams in the names, so a lookup does not have to
+ * look at every name.
+ * <p></p>
+ * The index is immutable, and can be used from several threads.
+ */
+public class SuggestionIndex {
+    /**
+     * Length of the grams in the substring index.
+     */
+    private static final int GRAM_LENGTH = 3;
+
+    /**
+     * The names, in the order they were given.
+     */
+    private final String[] names;
+    /**
+     * The names in lower case.
+     */
+    private final String[] lowerCaseNames;
+    /**
+     * Root of the trie of the lower case names.
+     */
+    private final Node root = new Node();
+    /**
+     * Indexes of the names containing a gram, in ascending order, by gram.
+     */
+    private final Map<String, int[]> grams = new HashMap<String, int[]>();
+
+    /**
+     * @param names the names to index, duplicates and nulls are left out.
+     */
+    public SuggestionIndex(Collection<String> names) {
+        LinkedHashSet<String> distinctNames = new LinkedHashSet<String>();
+        for (String name : names) {
+            if (name != null) {
+                distinctNames.add(name);
+            }
+        }
+        this.names = distinctNames.toArray(new String[distinctNames.size()]);
+        this.lowerCaseNames = new String[this.names.length];
+
+        Map<String, List<Integer>> gramLists = new HashMap<String, List<Integer>>();
+        for (int index = 0; index < this.names.length; index++) {
+            String lowerCaseName = this.names[index].toLowerCase(Locale.ENGLISH);
+            lowerCaseNames[index] = lowerCaseName;
+
+            Node node = root;
+            node.add(index);
+            for (int i = 0; i < lowerCaseName.length(); i++) {
+                node = node.getOrAddChild(lowerCaseName.charAt(i));
+                node.add(index);
+            }
+
+            for (int i = 0; i + GRAM_LENGTH <= lowerCaseName.length(); i++) {
+                String gram = lowerCaseName.substring(i, i + GRAM_LENGTH);
+                List<Integer> list = gramLists.get(gram);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    gramLists.put(gram, list);
+                }
+                if (list.isEmpty() || list.get(list.size() - 1) != index) {
+                    list.add(index);
+                }
+            }
+        }
+        for (Map.Entry<String, List<Integer>> entry : gramLists.entrySet()) {
+            grams.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        root.trim();
+    }
+
+    /**
+     * Finds the names containing the value, ignoring case. Names starting with the value come first, the others
+     * follow, both in the order the names were given.
+     *
+     * @param value the value typed so far, null for all names.
+     * @return the names found.
+     */
+    public List<String> find(String value) {
+        String lowerCaseValue = value == null ? "" : value.toLowerCase(Locale.ENGLISH);
+        List<String> result = new ArrayList<String>();
+
+        Node node = root;
+        for (int i = 0; i < lowerCaseValue.length() && node != null; i++) {
+            node = node.getChild(lowerCaseValue.charAt(i));
+        }
+        int[] prefixMatches = node == null ? new int[0] : node.names;
+        for (int index : prefixMatches) {
+            result.add(names[index]);
+        }
+        if (result.size() == names.length) {
+            return result;
+        }
+
+        int[] candidates = getSubstringCandidates(lowerCaseValue);
+        for (int index : candidates) {
+            if (Arrays.binarySearch(prefixMatches, index) < 0 && lowerCaseNames[index].contains(lowerCaseValue)) {
+                result.add(names[index]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of names in the index.
+     */
+    public int getSize() {
+        return names.length;
+    }
+
+    /**
+     * Gets the indexes of the names that may contain the value, by intersecting the lists of the grams of the value.
+     * Values shorter than a gram are checked against all names.
+     */
+    private int[] getSubstringCandidates(String lowerCaseValue) {
+        if (lowerCaseValue.length() < GRAM_LENGTH) {
+            int[] all = new int[names.length];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] candidates = null;
+        for (int i = 0; i + GRAM_LENGTH <= lowerCaseValue.length(); i++) {
+            int[] list = grams.get(lowerCaseValue.substring(i, i + GRAM_LENGTH));
+            if (list == null) {
+                return new int[0];
+            }
+            candidates = candidates == null ? list : intersect(candidates, list);
+            if (candidates.length == 0) {
+                break;
+            }
+        }
+        return candidates;
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[size++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Node of the trie, children are kept in arrays sorted by character. Each node has the indexes of all names
+     * starting with its prefix, in ascending order.
+     */
+    private static class Node {
+        private char[] keys = new char[0];
+        private Node[] children = new Node[0];
+        private int[] names = new int[4];
+        private int size;
+
+        private void add(int index) {
+            if (size == names.length) {
+                names = Arrays.copyOf(names, size * 2);
+            }
+            names[size++] = index;
+        }
+
+        private void trim() {
+            names = Arrays.copyOf(names, size);
+            for (Node child : children) {
+                child.trim();
+            }
+        }
+
+        private Node getChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            return index < 0 ? null : children[index];
+        }
+
+        private Node getOrAddChild(char c) {
+            int index = Arrays.binarySearch(keys, c);
+            if (index >= 0) {
+                return children[index];
+            }
+            int insertAt = -index - 1;
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertAt);
+            System.arraycopy(children, 0, newChildren, 0, insertAt);
+            System.arraycopy(keys, insertAt, newKeys, insertAt + 1, keys.length - insertAt);
+            System.arraycopy(children, insertAt, newChildren, insertAt + 1, children.length - insertAt);
+            Node child = new Node();
+            newKeys[insertAt] = c;
+            newChildren[insertAt] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
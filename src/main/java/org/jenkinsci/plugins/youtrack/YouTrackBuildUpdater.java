@@ -99,14 +99,30 @@ public class YouTrackBuildUpdater extends Recorder {
     }
 
     @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+    public boolean perform(final AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
 
-        YouTrackSite youTrackSite = getYouTrackSite(build);
+        final YouTrackSite youTrackSite = getYouTrackSite(build);
         if (youTrackSite == null || !youTrackSite.isPluginEnabled()) {
             listener.getLogger().println("No YouTrack site configured");
             return true;
         }
 
+        // The result when this step runs, not the final result.
+        final Result result = build.getResult();
+        if (youTrackSite.isAsyncUpdates()) {
+            YouTrackWorkQueue.get().submit(build, listener, "updating build bundles and fixed issues", new YouTrackWorkQueue.Work() {
+                public void perform(BuildListener workListener) throws Exception {
+                    YouTrackSite site = getYouTrackSite(build);
+                    updateBuild(build, workListener, site != null ? site : youTrackSite, result);
+                }
+            });
+            return true;
+        }
+        updateBuild(build, listener, youTrackSite, result);
+        return true;
+    }
+
+    private void updateBuild(AbstractBuild<?, ?> build, BuildListener listener, YouTrackSite youTrackSite, Result result) throws InterruptedException, IOException {
 
         YouTrackSaveFixedIssues action = build.getAction(YouTrackSaveFixedIssues.class);
 
@@ -120,7 +136,7 @@ public class YouTrackBuildUpdater extends Recorder {
         if (onlyAddIfHasFixedIssues) {
             if (action == null || action.getIssueIds().isEmpty()) {
                 listener.getLogger().println("No build to add");
-                return true;
+                return;
             }
         }
 
@@ -129,7 +145,7 @@ public class YouTrackBuildUpdater extends Recorder {
         if (user == null || !user.isLoggedIn()) {
             listener.getLogger().println("FAILED: to log in to youtrack");
             youTrackSite.failed(build);
-            return true;
+            return;
         }
         EnvVars environment = build.getEnvironment(listener);
         String buildName;
@@ -162,6 +178,8 @@ public class YouTrackBuildUpdater extends Recorder {
                 Command addedBuild = youTrackServer.addBuildToBundle(youTrackSite.getName(), user, bundleName, buildName);
                 if (addedBuild.getStatus() == Command.Status.OK) {
                     listener.getLogger().println("Added build " + buildName + " to bundle: " + bundleName);
+                } else if (YouTrackOutbox.defer(build, youTrackSite, addedBuild, YouTrackOutbox.Entry.buildToBundle(bundleName, buildName))) {
+                    listener.getLogger().println("Queued adding build " + buildName + " to bundle: " + bundleName + " for retrying");
                 } else {
                     listener.getLogger().println("FAILED: adding build " + buildName + " to bundle: " + bundleName);
                     youTrackSite.failed(build);
@@ -175,7 +193,6 @@ public class YouTrackBuildUpdater extends Recorder {
             List<String> issueIds = action.getIssueIds();
 
 
-            Result result = build.getResult();
             if (result != null) {
 
 
@@ -185,15 +202,22 @@ public class YouTrackBuildUpdater extends Recorder {
 
                 if (stable || (isMarkFixedIfUnstable() && unstable)) {
 
+                    List<Issue> issues = new ArrayList<Issue>(issueIds.size());
                     for (String issueId : issueIds) {
-                        Issue issue = new Issue(issueId);
+                        issues.add(new Issue(issueId));
+                    }
 
-                        environment.put("YOUTRACK_BUILD_NAME", buildName);
+                    environment.put("YOUTRACK_BUILD_NAME", buildName);
 
-                        String commandValue = environment.expand(buildUpdateCommand);
-                        Command command = youTrackServer.applyCommand(youTrackSite.getName(), user, issue, commandValue, null, null, null, !runSilently);
+                    String commandValue = environment.expand(buildUpdateCommand);
+                    List<Command> commands = youTrackServer.applyCommand(youTrackSite.getName(), user, issues, commandValue, null, null, null, !runSilently);
+                    for (int i = 0; i < commands.size(); i++) {
+                        Command command = commands.get(i);
+                        String issueId = issueIds.get(i);
                         if (command.getStatus() == Command.Status.OK) {
                             listener.getLogger().println("Updated Fixed in build to " + buildName + " for " + issueId);
+                        } else if (YouTrackOutbox.defer(build, youTrackSite, command, YouTrackOutbox.Entry.command(issueId, commandValue, null, null, null, !runSilently))) {
+                            listener.getLogger().println("Queued updating Fixed in build to " + buildName + " for " + issueId + " for retrying");
                         } else {
                             youTrackSite.failed(build);
                             listener.getLogger().println("FAILED: updating Fixed in build to " + buildName + " for " + issueId);
@@ -204,12 +228,10 @@ public class YouTrackBuildUpdater extends Recorder {
             }
 
         }
-
-        return true;
     }
 
     YouTrackServer getYouTrackServer(YouTrackSite youTrackSite) {
-        return new YouTrackServer(youTrackSite.getUrl());
+        return youTrackSite.createServer();
     }
 
     YouTrackSite getYouTrackSite(AbstractBuild<?, ?> build) {
@@ -236,21 +258,19 @@ public class YouTrackBuildUpdater extends Recorder {
 
         @SuppressWarnings("UnusedDeclaration")
         public AutoCompletionCandidates doAutoCompleteBundleName(@AncestorInPath AbstractProject project, @QueryParameter String value) {
-            YouTrackSite youTrackSite = YouTrackSite.get(project);
-            AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
-            if (youTrackSite != null) {
-                YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
-                User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-                if (user != null) {
+            return YouTrackProjectProperty.findSuggestions(YouTrackSite.get(project), "buildBundles", new YouTrackProjectProperty.SuggestionLoader() {
+                public List<String> load(YouTrackServer youTrackServer, User user) {
                     List<BuildBundle> bundles = youTrackServer.getBuildBundles(user);
+                    if (bundles == null) {
+                        return null;
+                    }
+                    List<String> names = new ArrayList<String>(bundles.size());
                     for (BuildBundle bundle : bundles) {
-                        if (bundle.getName().toLowerCase().contains(value.toLowerCase())) {
-                            autoCompletionCandidates.add(bundle.getName());
-                        }
+                        names.add(bundle.getName());
                     }
+                    return names;
                 }
-            }
-            return autoCompletionCandidates;
+            }, value);
         }
 
         @SuppressWarnings("UnusedDeclaration")
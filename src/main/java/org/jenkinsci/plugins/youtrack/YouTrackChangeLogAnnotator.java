@@ -2,19 +2,23 @@ package org.jenkinsci.plugins.youtrack;
 
 import hudson.Extension;
 import hudson.MarkupText;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Hudson;
 import hudson.scm.ChangeLogAnnotator;
 import hudson.scm.ChangeLogSet;
 
-import java.util.List;
-import java.util.Random;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 @Extension
 public class YouTrackChangeLogAnnotator extends ChangeLogAnnotator {
+    /**
+     * The scanner for the short names of the last successful build of each project, as the annotator is called for
+     * every entry of a change log. Projects that are deleted are removed by the garbage collector.
+     */
+    private static final Map<AbstractProject<?, ?>, ProjectScanner> SCANNERS = new WeakHashMap<AbstractProject<?, ?>, ProjectScanner>();
 
     @Override
     public void annotate(AbstractBuild<?, ?> abstractBuild, ChangeLogSet.Entry entry, MarkupText markupText) {
@@ -24,45 +28,54 @@ public class YouTrackChangeLogAnnotator extends ChangeLogAnnotator {
         if (lastSuccessfulBuild != null) {
             YouTrackSaveProjectShortNamesAction action = lastSuccessfulBuild.getAction(YouTrackSaveProjectShortNamesAction.class);
             if (action != null) {
-                List<String> shortNames = action.getShortNames();
-
                 if (youTrackSite != null && youTrackSite.isPluginEnabled() && youTrackSite.isAnnotationsEnabled()) {
 
                     String msg = markupText.getText();
-                    int i = 0;
-                    Random random = new Random();
-                    for (String shortName : shortNames) {
-                        Pattern projectPattern = Pattern.compile("^(" + shortName + "-" + "(\\d+)" + ")|\\W(" + shortName + "-" + "(\\d+))");
-                        Matcher matcher = projectPattern.matcher(msg);
-                        while (matcher.find()) {
-                            if (matcher.groupCount() >= 1) {
-                                String group = matcher.group(2);
-                                int matchGroup = 1;
-                                if(group == null) {
-                                    group = matcher.group(4);
-                                    matchGroup = 3;
-                                }
-
-                                String issueId = shortName + "-" + group;
-                                String commitId = "_" + entry.getMsg().hashCode() + "_"  + i++ + "_" + random.nextInt();
-
-
-                                String issueUrl = getRootUrl() + project.getLastSuccessfulBuild().getUrl() + "youtrack/issue?id=" + issueId;
-
-
-                                String s = "<script>\n";
-                                String js =  "var tooltip = new YAHOO.widget.Tooltip(\"tt1\", {\n    context: \"" +commitId+ "\"\n});\n\nfunction updateData(cfg, data) {\n    var id = data.id;\n\n    var summaryField = data.summary;\n    var descriptionField = data.description;\n    var resolvedField = data.resolved;\n\n\n    var text;\n    var desc = \"\";\n    if(descriptionField) {\n        desc = descriptionField;\n    }\n\n    if (resolvedField == null) {\n        text = \"<h2>\" + id + \": \" + summaryField + \"</h2><p>\" + desc + \"</p>\";\n    } else {\n        text = \"<h2><del>\" + id + \": \" + summaryField + \"</del></h2><p>\" + desc + \"</p>\";\n    }\n    cfg.setProperty(\"text\", text)\n}\n\ntooltip.contextTriggerEvent.subscribe(\n    \n    \n    function (type, args) {\n        var context = args[0];\n        var cfg = this.cfg;\n        cfg.setProperty(\"text\", \"Loading data...\");\n        \n        var request = Q.ajax({\n            url:  \"" + issueUrl + "\",\n            dataType: \"json\"\n        });\n        \n        request.done(\n            function(data) {\n                updateData(cfg, data);}\n        );\n        \n    }\n);\n";
-
-                                s += js + "\n</script>";
-                                markupText.addMarkup(matcher.start(matchGroup), matcher.end(matchGroup), s + "<a title=\"test\" id=\"" + commitId + "\" href=\"" + youTrackSite.getUrl() + "/issue/" + issueId + "\">", "</a>");
-                            }
-                        }
+                    // The tooltips are added by youtrack-tooltips.js, included on every page by YouTrackPageDecorator.
+                    String actionUrl = Util.escape(getRootUrl() + lastSuccessfulBuild.getUrl() + "youtrack");
+                    for (IssueReferenceScanner.IssueReference reference : getScanner(project, action).scan(msg, true)) {
+                        String issueId = Util.escape(reference.getIssueId());
+                        markupText.addMarkup(reference.getStart(), reference.getEnd(), "<a href=\"" + Util.escape(youTrackSite.getUrl()) + "/issue/" + issueId
+                                + "\" data-youtrack-issue=\"" + issueId + "\" data-youtrack-url=\"" + actionUrl + "\">", "</a>");
                     }
                 }
             }
         }
     }
 
+    /**
+     * Gets the scanner for the short names saved by the action, reusing the scanner of the project if the short names
+     * have not changed since it was built. When a build with other short names becomes the last successful build, the
+     * scanner of the project is replaced.
+     */
+    static IssueReferenceScanner getScanner(AbstractProject<?, ?> project, YouTrackSaveProjectShortNamesAction action) {
+        String shortNames = action.getShortNamesText();
+        synchronized (SCANNERS) {
+            ProjectScanner projectScanner = SCANNERS.get(project);
+            if (projectScanner != null && projectScanner.shortNames.equals(shortNames)) {
+                return projectScanner.scanner;
+            }
+        }
+        IssueReferenceScanner scanner = IssueReferenceScanner.forShortNames(action.getShortNames());
+        synchronized (SCANNERS) {
+            SCANNERS.put(project, new ProjectScanner(shortNames, scanner));
+        }
+        return scanner;
+    }
+
+    /**
+     * A scanner with the short names it was built for.
+     */
+    private static class ProjectScanner {
+        private final String shortNames;
+        private final IssueReferenceScanner scanner;
+
+        private ProjectScanner(String shortNames, IssueReferenceScanner scanner) {
+            this.shortNames = shortNames;
+            this.scanner = scanner;
+        }
+    }
+
     String getRootUrl() {
         Hudson instance = Hudson.getInstance();
         if (instance != null) {
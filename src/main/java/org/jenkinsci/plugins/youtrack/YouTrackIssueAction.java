@@ -5,7 +5,9 @@ import hudson.model.AbstractProject;
 import hudson.model.Action;
 import org.jenkinsci.plugins.youtrack.youtrackapi.Issue;
 import org.jenkinsci.plugins.youtrack.youtrackapi.User;
+import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackIssueCache;
 import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServer;
+import org.apache.commons.lang.StringUtils;
 import org.jsoup.Jsoup;
 import org.jsoup.nodes.Document;
 import org.jsoup.nodes.Element;
@@ -15,7 +17,14 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * This is the action to get issue data from an YouTrack issue.
@@ -58,7 +67,8 @@ public class YouTrackIssueAction implements Action {
     }
 
     /**
-     * Generates a response containing issue data, but first logs in to YouTrack.
+     * Generates a response containing issue data, but first logs in to YouTrack. The data is cached for a while, and
+     * sent with an ETag so browsers can revalidate it.
      *
      * @return the response.
      */
@@ -75,37 +85,150 @@ public class YouTrackIssueAction implements Action {
                     return;
                 }
 
-                YouTrackServer youTrackServer = getYouTrackServer(youTrackSite);
-                User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-                if (user == null || !user.isLoggedIn()) {
-                    rsp.getWriter().write("Could not log in to YouTrack");
+                YouTrackIssueCache issueCache = getIssueCache(youTrackSite);
+                String cacheKey = getCacheKey(youTrackSite, id);
+                YouTrackIssueCache.Entry entry = issueCache.get(cacheKey);
+                if (entry == null) {
+                    YouTrackServer youTrackServer = getYouTrackServer(youTrackSite);
+                    User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
+                    if (user == null || !user.isLoggedIn()) {
+                        rsp.getWriter().write("Could not log in to YouTrack");
+                        return;
+                    }
+                    Issue issue = youTrackServer.getIssue(user, id, youTrackSite.getStateFieldName());
+                    if (issue == null) {
+                        rsp.sendError(HttpServletResponse.SC_NOT_FOUND, "Could not get issue from YouTrack");
+                        return;
+                    }
+
+                    fixImageUrls(issue, youTrackSite);
+
+                    Gson gson = new Gson();
+                    entry = issueCache.put(cacheKey, gson.toJson(issue));
+                }
+
+                rsp.setHeader("ETag", entry.getEtag());
+                rsp.setHeader("Cache-Control", "private, max-age=" + entry.getMaxAge());
+                if (entry.getEtag().equals(req.getHeader("If-None-Match"))) {
+                    rsp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
                     return;
                 }
-                Issue issue = youTrackServer.getIssue(user, id, youTrackSite.getStateFieldName());
+                rsp.setContentType("application/json;charset=UTF-8");
+                rsp.getWriter().write(entry.getJson());
+            }
+        };
+    }
+
+    /**
+     * Generates a response containing the data of several issues, as a JSON array, with one search in YouTrack for
+     * the issues that are not cached. The ids are given comma separated in the ids parameter, at most
+     * {@link YouTrackServer#ISSUE_QUERY_BATCH_SIZE} of them. Issues that do not exist are left out.
+     *
+     * @return the response.
+     */
+    @SuppressWarnings("UnusedDeclaration")
+    public HttpResponse doIssues() {
 
-                Document document = Jsoup.parse(issue.getDescription());
-                Elements imageElements = document.select("img");
-                for (Element imageElement : imageElements) {
-                    String src = imageElement.attr("src");
-                    if (!src.contains("://") && !src.startsWith("//")) {
-                        String url = youTrackSite.getUrl();
-                        String host = getDomainName(url);
+        return new HttpResponse() {
+            public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
 
-                        imageElement.attr("src",  host + src);
+                Set<String> ids = new LinkedHashSet<String>();
+                String idsParameter = req.getParameter("ids");
+                if (idsParameter != null) {
+                    for (String id : idsParameter.split(",")) {
+                        if (!id.trim().isEmpty() && ids.size() < YouTrackServer.ISSUE_QUERY_BATCH_SIZE) {
+                            ids.add(id.trim());
+                        }
                     }
                 }
+                YouTrackSite youTrackSite = getYouTrackSite();
+                if (youTrackSite == null || !youTrackSite.isPluginEnabled()) {
+                    rsp.getWriter().write("YouTrack integration not set up for this project");
+                    return;
+                }
 
-                issue.setDescription(document.html());
+                YouTrackIssueCache issueCache = getIssueCache(youTrackSite);
+                Map<String, String> jsonById = new LinkedHashMap<String, String>();
+                Set<String> missingIds = new LinkedHashSet<String>();
+                for (String id : ids) {
+                    YouTrackIssueCache.Entry entry = issueCache.get(getCacheKey(youTrackSite, id));
+                    if (entry != null) {
+                        jsonById.put(id, entry.getJson());
+                    } else {
+                        jsonById.put(id, null);
+                        missingIds.add(id);
+                    }
+                }
 
-                Gson gson = new Gson();
-                String json = gson.toJson(issue);
-                rsp.getWriter().write(json);
+                if (!missingIds.isEmpty()) {
+                    YouTrackServer youTrackServer = getYouTrackServer(youTrackSite);
+                    User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
+                    if (user == null || !user.isLoggedIn()) {
+                        rsp.getWriter().write("Could not log in to YouTrack");
+                        return;
+                    }
+                    List<Issue> issues = youTrackServer.getIssueDetails(user, missingIds, youTrackSite.getStateFieldName());
+                    if (issues == null) {
+                        rsp.sendError(HttpServletResponse.SC_BAD_GATEWAY, "Could not get issues from YouTrack");
+                        return;
+                    }
+                    Gson gson = new Gson();
+                    for (Issue issue : issues) {
+                        fixImageUrls(issue, youTrackSite);
+                        String json = gson.toJson(issue);
+                        issueCache.put(getCacheKey(youTrackSite, issue.getId()), json);
+                        jsonById.put(issue.getId(), json);
+                    }
+                }
+
+                List<String> found = new ArrayList<String>(jsonById.size());
+                for (String json : jsonById.values()) {
+                    if (json != null) {
+                        found.add(json);
+                    }
+                }
+                rsp.setContentType("application/json;charset=UTF-8");
+                rsp.getWriter().write("[" + StringUtils.join(found, ",") + "]");
             }
         };
     }
 
+    /**
+     * Makes the relative urls of images in the description of the issue absolute, so they are loaded from YouTrack.
+     */
+    private void fixImageUrls(Issue issue, YouTrackSite youTrackSite) {
+        if (issue.getDescription() == null) {
+            return;
+        }
+        Document document = Jsoup.parse(issue.getDescription());
+        Elements imageElements = document.select("img");
+        for (Element imageElement : imageElements) {
+            String src = imageElement.attr("src");
+            if (!src.contains("://") && !src.startsWith("//")) {
+                String url = youTrackSite.getUrl();
+                String host = getDomainName(url);
+
+                imageElement.attr("src",  host + src);
+            }
+        }
+
+        issue.setDescription(document.html());
+    }
+
+    /**
+     * The cache is shared by all sites with the same server, so the key includes the site and the user, who may not
+     * see the same issues or fields.
+     */
+    private static String getCacheKey(YouTrackSite youTrackSite, String issueId) {
+        return youTrackSite.getName() + "|" + youTrackSite.getUsername() + "|" + issueId + "|" + youTrackSite.getStateFieldName();
+    }
+
+    YouTrackIssueCache getIssueCache(YouTrackSite youTrackSite) {
+        return youTrackSite.getTransport().getIssueCache();
+    }
+
     YouTrackServer getYouTrackServer(YouTrackSite youTrackSite) {
-        return new YouTrackServer(youTrackSite.getUrl());
+        return youTrackSite.createServer();
     }
 
     YouTrackSite getYouTrackSite() {
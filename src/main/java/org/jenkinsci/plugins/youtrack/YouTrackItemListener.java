@@ -0,0 +1,37 @@
+package org.jenkinsci.plugins.youtrack;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.ItemGroup;
+import hudson.model.listeners.ItemListener;
+import jenkins.model.Jenkins;
+
+/**
+ * Closes the processed revisions of jobs that are renamed, moved or deleted. Their files are in the directory of the
+ * job, so they move or are deleted with it.
+ */
+@Extension
+public class YouTrackItemListener extends ItemListener {
+    @Override
+    public void onDeleted(Item item) {
+        close(item, item.getFullName());
+    }
+
+    @Override
+    public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+        close(item, oldFullName);
+    }
+
+    private void close(Item item, String fullName) {
+        Jenkins instance = Jenkins.getInstance();
+        YouTrackPlugin plugin = instance != null ? instance.getPlugin(YouTrackPlugin.class) : null;
+        ProcessedRevisionPartitions processedRevisions = plugin != null ? plugin.getProcessedRevisions() : null;
+        if (processedRevisions == null) {
+            return;
+        }
+        processedRevisions.closeJob(fullName);
+        if (item instanceof ItemGroup) {
+            processedRevisions.closeFolder(fullName);
+        }
+    }
+}
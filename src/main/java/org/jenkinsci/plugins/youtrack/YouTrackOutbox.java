@@ -0,0 +1,474 @@
+package org.jenkinsci.plugins.youtrack;
+
+import hudson.XmlFile;
+import hudson.model.AbstractBuild;
+import hudson.model.AbstractProject;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import lombok.Getter;
+import org.acegisecurity.context.SecurityContext;
+import org.acegisecurity.context.SecurityContextHolder;
+import org.jenkinsci.plugins.youtrack.youtrackapi.Issue;
+import org.jenkinsci.plugins.youtrack.youtrackapi.User;
+import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Persistent queue of commands, comments and builds to add to bundles that failed because YouTrack could not be
+ * reached. The entries are stored in a directory under the Jenkins home, so they survive restarts.
+ * <p></p>
+ * A background drainer sends the entries again in the order they were queued. When an entry for a site fails again,
+ * the remaining entries for that site wait, and the site is tried again with exponential backoff. When an entry is
+ * done, the command in the {@link YouTrackCommandAction} of the build it came from is updated.
+ */
+public class YouTrackOutbox {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(YouTrackOutbox.class.getName());
+    /**
+     * Name of the directory under the Jenkins home.
+     */
+    public static final String DIRECTORY_NAME = "youtrack-outbox";
+    /**
+     * Milliseconds before the first retry, doubled with each failure.
+     */
+    static final long INITIAL_DELAY = Long.getLong(YouTrackOutbox.class.getName() + ".initialDelay", TimeUnit.MINUTES.toMillis(1));
+    /**
+     * Maximum milliseconds between retries.
+     */
+    static final long MAX_DELAY = Long.getLong(YouTrackOutbox.class.getName() + ".maxDelay", TimeUnit.MINUTES.toMillis(30));
+    /**
+     * Milliseconds after which an entry is given up.
+     */
+    static final long MAX_AGE = Long.getLong(YouTrackOutbox.class.getName() + ".maxAge", TimeUnit.DAYS.toMillis(2));
+
+    private final File directory;
+    private final ScheduledExecutorService drainer = Executors.newSingleThreadScheduledExecutor(new NamingThreadFactory(new DaemonThreadFactory(), "YouTrack outbox"));
+    /**
+     * The entries by id, in the order they were queued. Guarded by this.
+     */
+    private final TreeMap<Long, Entry> entries = new TreeMap<Long, Entry>();
+    /**
+     * Backoff state by site name. Only used by the drainer thread.
+     */
+    private final Map<String, Backoff> backoffs = new HashMap<String, Backoff>();
+    private long nextId = 1;
+    private ScheduledFuture<?> scheduled;
+    private long scheduledTime;
+
+    public YouTrackOutbox(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            LOGGER.log(Level.SEVERE, "Could not create YouTrack outbox directory " + directory);
+        }
+        load();
+    }
+
+    /**
+     * @return the outbox of the plugin, null if Jenkins is not running.
+     */
+    public static YouTrackOutbox get() {
+        Jenkins instance = Jenkins.getInstance();
+        if (instance == null) {
+            return null;
+        }
+        YouTrackPlugin plugin = instance.getPlugin(YouTrackPlugin.class);
+        return plugin != null ? plugin.getOutbox() : null;
+    }
+
+    /**
+     * Queues a failed command for retrying, if the site retries failed commands and the command may succeed later.
+     * The command is then marked as queued, and is updated when it has been sent again.
+     *
+     * @param build        the build the command belongs to.
+     * @param youTrackSite the site.
+     * @param command      the failed command.
+     * @param entry        the entry for sending the command again.
+     * @return true if the command has been queued.
+     */
+    public static boolean defer(AbstractBuild<?, ?> build, YouTrackSite youTrackSite, Command command, Entry entry) {
+        if (!isDeferrable(youTrackSite, command)) {
+            return false;
+        }
+        YouTrackOutbox outbox = get();
+        if (outbox == null) {
+            return false;
+        }
+        entry.siteName = youTrackSite.getName();
+        entry.job = build.getProject().getFullName();
+        entry.buildNumber = build.getNumber();
+        entry.created = System.currentTimeMillis();
+        if (!outbox.add(entry)) {
+            return false;
+        }
+        command.setStatus(Command.Status.QUEUED);
+        command.setOutboxId(entry.id);
+        return true;
+    }
+
+    /**
+     * @return true if the site retries failed commands, and the command failed in a way that may succeed later.
+     */
+    static boolean isDeferrable(YouTrackSite youTrackSite, Command command) {
+        return youTrackSite.isRetryFailedCommands() && command.getStatus() != Command.Status.OK && isRetryable(command);
+    }
+
+    /**
+     * @return true if the command failed because YouTrack could not be reached or did not accept the login.
+     */
+    private static boolean isRetryable(Command command) {
+        return command.isRetryable() || command.getStatus() == Command.Status.NOT_LOGGED_IN;
+    }
+
+    /**
+     * @param failures the number of times in a row sending to the site failed, at least 1.
+     * @return the milliseconds to wait before trying the site again.
+     */
+    static long getRetryDelay(int failures) {
+        return Math.min(MAX_DELAY, INITIAL_DELAY << Math.min(failures - 1, 20));
+    }
+
+    private boolean add(Entry entry) {
+        synchronized (this) {
+            entry.id = nextId++;
+            try {
+                getFile(entry.id).write(entry);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not queue YouTrack command for retrying", e);
+                return false;
+            }
+            entries.put(entry.id, entry);
+        }
+        schedule(INITIAL_DELAY);
+        return true;
+    }
+
+    private void load() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            synchronized (this) {
+                for (File file : files) {
+                    if (!file.getName().endsWith(".xml")) {
+                        continue;
+                    }
+                    try {
+                        Entry entry = (Entry) new XmlFile(Jenkins.XSTREAM2, file).read();
+                        entries.put(entry.id, entry);
+                        nextId = Math.max(nextId, entry.id + 1);
+                    } catch (IOException | RuntimeException e) {
+                        LOGGER.log(Level.WARNING, "Could not load YouTrack outbox entry " + file, e);
+                    }
+                }
+            }
+        }
+        if (getSize() > 0) {
+            LOGGER.log(Level.INFO, "Found " + getSize() + " queued YouTrack commands");
+            schedule(INITIAL_DELAY);
+        }
+    }
+
+    private XmlFile getFile(long id) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(directory, String.format("%019d.xml", id)));
+    }
+
+    /**
+     * Schedules the drainer, unless it has already been scheduled to run earlier.
+     */
+    private synchronized void schedule(long delay) {
+        long time = System.currentTimeMillis() + delay;
+        if (scheduled != null && !scheduled.isDone() && scheduledTime <= time) {
+            return;
+        }
+        if (scheduled != null) {
+            scheduled.cancel(false);
+        }
+        scheduledTime = time;
+        scheduled = drainer.schedule(new Runnable() {
+            public void run() {
+                SecurityContext oldContext = ACL.impersonate(ACL.SYSTEM);
+                try {
+                    drain();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Could not send queued YouTrack commands", e);
+                    schedule(MAX_DELAY);
+                } finally {
+                    SecurityContextHolder.setContext(oldContext);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Sends the entries of the sites that are not backing off.
+     */
+    private void drain() {
+        List<Entry> pending;
+        synchronized (this) {
+            scheduled = null;
+            pending = new ArrayList<Entry>(entries.values());
+        }
+        long now = System.currentTimeMillis();
+        Map<String, User> users = new HashMap<String, User>();
+        Map<String, YouTrackServer> servers = new HashMap<String, YouTrackServer>();
+        Set<String> failedSites = new HashSet<String>();
+        for (Entry entry : pending) {
+            Backoff backoff = backoffs.get(entry.siteName);
+            if (failedSites.contains(entry.siteName) || (backoff != null && backoff.nextAttempt > now)) {
+                continue;
+            }
+            YouTrackSite youTrackSite = getSite(entry.siteName);
+            if (youTrackSite == null) {
+                complete(entry, Command.Status.FAILED, "YouTrack site " + entry.siteName + " is no longer configured");
+                continue;
+            }
+            if (entry.isExpired(now)) {
+                complete(entry, Command.Status.FAILED, "Gave up after " + entry.attempts + " attempts");
+                continue;
+            }
+
+            YouTrackServer server = servers.get(entry.siteName);
+            User user = users.get(entry.siteName);
+            if (server == null) {
+                server = youTrackSite.createServer();
+                user = server.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
+                servers.put(entry.siteName, server);
+                users.put(entry.siteName, user);
+            }
+
+            Command result = entry.send(server, user);
+            if (result.getStatus() == Command.Status.OK || !isRetryable(result)) {
+                backoffs.remove(entry.siteName);
+                complete(entry, result.getStatus(), result.getResponse());
+            } else {
+                entry.attempts++;
+                try {
+                    synchronized (this) {
+                        getFile(entry.id).write(entry);
+                    }
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not update YouTrack outbox entry " + entry.id, e);
+                }
+                if (backoff == null) {
+                    backoff = new Backoff();
+                    backoffs.put(entry.siteName, backoff);
+                }
+                backoff.failures++;
+                failedSites.add(entry.siteName);
+                long delay = getRetryDelay(backoff.failures);
+                backoff.nextAttempt = now + delay;
+                LOGGER.log(Level.INFO, "Could not send queued YouTrack command to " + entry.siteName + ", retrying in " + TimeUnit.MILLISECONDS.toSeconds(delay) + " seconds: " + result.getResponse());
+            }
+        }
+
+        long nextAttempt = Long.MAX_VALUE;
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                Backoff backoff = backoffs.get(entry.siteName);
+                nextAttempt = Math.min(nextAttempt, backoff != null ? backoff.nextAttempt : now);
+            }
+        }
+        if (nextAttempt != Long.MAX_VALUE) {
+            schedule(Math.max(0, nextAttempt - System.currentTimeMillis()));
+        }
+    }
+
+    private void complete(Entry entry, Command.Status status, String response) {
+        synchronized (this) {
+            entries.remove(entry.id);
+            if (!getFile(entry.id).getFile().delete()) {
+                LOGGER.log(Level.WARNING, "Could not delete YouTrack outbox entry " + entry.id);
+            }
+        }
+        if (status == Command.Status.OK) {
+            LOGGER.log(Level.INFO, "Sent queued YouTrack command for " + entry);
+        } else {
+            LOGGER.log(Level.WARNING, "Dropped queued YouTrack command for " + entry + ": " + response);
+        }
+        updateBuild(entry, status, response);
+    }
+
+    /**
+     * Updates the command in the build the entry came from.
+     */
+    private static void updateBuild(Entry entry, Command.Status status, String response) {
+        Jenkins instance = Jenkins.getInstance();
+        if (instance == null) {
+            return;
+        }
+        AbstractProject<?, ?> project = instance.getItemByFullName(entry.job, AbstractProject.class);
+        AbstractBuild<?, ?> build = project != null ? project.getBuildByNumber(entry.buildNumber) : null;
+        Command command = build != null ? findCommand(build, entry.id) : null;
+        if (command == null) {
+            return;
+        }
+        command.setStatus(status);
+        command.setResponse(response);
+        command.setDate(new Date());
+        try {
+            build.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save " + build.getFullDisplayName(), e);
+        }
+    }
+
+    /**
+     * Finds a queued command of a build. A build can have several command actions, e.g. one of the build step and
+     * one of the issue updater, so all of them are searched.
+     *
+     * @return the command, null if the build has none with the id.
+     */
+    static Command findCommand(AbstractBuild<?, ?> build, long outboxId) {
+        for (YouTrackCommandAction action : build.getActions(YouTrackCommandAction.class)) {
+            for (Command command : action.getCommands()) {
+                if (command.getOutboxId() == outboxId) {
+                    return command;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static YouTrackSite getSite(String siteName) {
+        for (YouTrackSite site : YouTrackProjectProperty.DESCRIPTOR.getSites()) {
+            if (site.getName() != null && site.getName().equals(siteName)) {
+                return site;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the number of queued entries.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * Stops the drainer. Queued entries stay on disk and are sent after the next start.
+     */
+    public void shutdown() {
+        drainer.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "outbox: " + getSize() + " queued";
+    }
+
+    private static class Backoff {
+        private int failures;
+        private long nextAttempt;
+    }
+
+    /**
+     * Something to send again to YouTrack.
+     */
+    public static class Entry {
+        enum Kind {COMMAND, COMMENT, BUILD_TO_BUNDLE}
+
+        @Getter private long id;
+        private Kind kind;
+        @Getter private String siteName;
+        @Getter private String job;
+        @Getter private int buildNumber;
+        private long created;
+        @Getter private int attempts;
+        private String issueId;
+        private String command;
+        private String comment;
+        private String group;
+        private String runAs;
+        private boolean notify;
+        private String bundleName;
+        private String buildName;
+
+        private Entry(Kind kind) {
+            this.kind = kind;
+        }
+
+        /**
+         * Creates an entry for applying a command to an issue.
+         */
+        public static Entry command(String issueId, String command, String comment, String group, User runAs, boolean notify) {
+            Entry entry = new Entry(Kind.COMMAND);
+            entry.issueId = issueId;
+            entry.command = command;
+            entry.comment = comment;
+            entry.group = group;
+            entry.runAs = runAs != null ? runAs.getUsername() : null;
+            entry.notify = notify;
+            return entry;
+        }
+
+        /**
+         * Creates an entry for commenting on an issue.
+         */
+        public static Entry comment(String issueId, String comment, String group, boolean silent) {
+            Entry entry = new Entry(Kind.COMMENT);
+            entry.issueId = issueId;
+            entry.comment = comment;
+            entry.group = group;
+            entry.notify = !silent;
+            return entry;
+        }
+
+        /**
+         * Creates an entry for adding a build to a bundle.
+         */
+        public static Entry buildToBundle(String bundleName, String buildName) {
+            Entry entry = new Entry(Kind.BUILD_TO_BUNDLE);
+            entry.bundleName = bundleName;
+            entry.buildName = buildName;
+            return entry;
+        }
+
+        /**
+         * @return true if the entry was queued too long ago to still be sent.
+         */
+        boolean isExpired(long now) {
+            return now - created > MAX_AGE;
+        }
+
+        private Command send(YouTrackServer server, User user) {
+            switch (kind) {
+                case COMMAND:
+                    User runAsUser = null;
+                    if (runAs != null) {
+                        runAsUser = new User();
+                        runAsUser.setUsername(runAs);
+                    }
+                    return server.applyCommand(siteName, user, new Issue(issueId), command, comment, group, runAsUser, notify);
+                case COMMENT:
+                    return server.comment(siteName, user, new Issue(issueId), comment, group, !notify);
+                default:
+                    return server.addBuildToBundle(siteName, user, bundleName, buildName);
+            }
+        }
+
+        @Override
+        public String toString() {
+            String target = kind == Kind.BUILD_TO_BUNDLE ? "bundle " + bundleName : issueId;
+            return target + " from " + job + " #" + buildNumber;
+        }
+    }
+}
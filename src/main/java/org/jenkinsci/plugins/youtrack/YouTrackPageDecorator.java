@@ -0,0 +1,15 @@
+package org.jenkinsci.plugins.youtrack;
+
+import hudson.Extension;
+import hudson.model.PageDecorator;
+
+/**
+ * Includes the script that shows issue tooltips for the links added by {@link YouTrackChangeLogAnnotator}. The script
+ * is a static resource, so browsers cache it instead of each link carrying its own script.
+ */
+@Extension
+public class YouTrackPageDecorator extends PageDecorator {
+    public YouTrackPageDecorator() {
+        super(YouTrackPageDecorator.class);
+    }
+}
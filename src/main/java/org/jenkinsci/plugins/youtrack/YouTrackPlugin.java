@@ -1,9 +1,13 @@
 package org.jenkinsci.plugins.youtrack;
 
 import hudson.Plugin;
+import jenkins.model.Jenkins;
 import org.apache.commons.beanutils.Converter;
+import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackTransport;
 import org.kohsuke.stapler.Stapler;
 
+import java.io.File;
+
 /**
  * Listens to SCM changes.
  */
@@ -12,7 +16,11 @@ public class YouTrackPlugin extends Plugin {
     /**
      * For saving which ids has been processed.
      */
-    private YoutrackProcessedRevisionsSaver revisionsSaver;
+    private transient ProcessedRevisionPartitions processedRevisions;
+    /**
+     * For retrying commands that failed because YouTrack could not be reached.
+     */
+    private transient YouTrackOutbox outbox;
 
 
     @Override
@@ -29,18 +37,42 @@ public class YouTrackPlugin extends Plugin {
         }, YoutrackBuildFailureMode.class);
         scmListener = new YouTrackSCMListener();
         scmListener.register();
+        // Starts sending the commands queued before the restart.
+        getOutbox();
     }
 
     @Override
     public void stop() throws Exception {
         scmListener.unregister();
+        synchronized (this) {
+            if (outbox != null) {
+                outbox.shutdown();
+            }
+            if (processedRevisions != null) {
+                processedRevisions.close();
+            }
+        }
+        YouTrackTransport.shutdownAll();
         super.stop();
     }
 
-    public synchronized YoutrackProcessedRevisionsSaver getRevisionsSaver() {
-        if (revisionsSaver == null) {
-            revisionsSaver = new YoutrackProcessedRevisionsSaver();
+    public synchronized ProcessedRevisionPartitions getProcessedRevisions() {
+        if (processedRevisions == null) {
+            Jenkins instance = Jenkins.getInstance();
+            if (instance != null) {
+                processedRevisions = new ProcessedRevisionPartitions(instance.getRootDir());
+            }
+        }
+        return processedRevisions;
+    }
+
+    public synchronized YouTrackOutbox getOutbox() {
+        if (outbox == null) {
+            Jenkins instance = Jenkins.getInstance();
+            if (instance != null) {
+                outbox = new YouTrackOutbox(new File(instance.getRootDir(), YouTrackOutbox.DIRECTORY_NAME));
+            }
         }
-        return revisionsSaver;
+        return outbox;
     }
 }
@@ -4,6 +4,7 @@ import hudson.Extension;
 import hudson.model.*;
 import hudson.util.CopyOnWriteList;
 import hudson.util.FormValidation;
+import jenkins.model.Jenkins;
 import lombok.Getter;
 import lombok.Setter;
 import net.sf.json.JSONObject;
@@ -20,11 +21,15 @@ import javax.servlet.ServletException;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * Associates a YouTrack server and enables the users to set integration settings.
  */
 public class YouTrackProjectProperty extends JobProperty<AbstractProject<?, ?>> {
+    private static final Logger LOGGER = Logger.getLogger(YouTrackProjectProperty.class.getName());
+
     /**
      * The name of the site.
      */
@@ -155,6 +160,16 @@ public class YouTrackProjectProperty extends JobProperty<AbstractProject<?, ?>>
             return sites.toArray(new YouTrackSite[0]);
         }
 
+        /**
+         * @return the processed revisions, for showing their statistics, null if not available.
+         */
+        @SuppressWarnings("UnusedDeclaration")
+        public ProcessedRevisionPartitions getProcessedRevisions() {
+            Jenkins instance = Jenkins.getInstance();
+            YouTrackPlugin plugin = instance != null ? instance.getPlugin(YouTrackPlugin.class) : null;
+            return plugin != null ? plugin.getProcessedRevisions() : null;
+        }
+
         @Override
         public JobProperty<?> newInstance(StaplerRequest req, JSONObject formData) throws FormException {
 
@@ -181,7 +196,18 @@ public class YouTrackProjectProperty extends JobProperty<AbstractProject<?, ?>>
         @Override
         public boolean configure(StaplerRequest req, JSONObject formData) {
 
-            sites.replaceBy(req.bindParametersToList(YouTrackSite.class, "youtrack."));
+            // Binds through the form structure, so unchecked checkboxes of one site do not shift values into the next,
+            // and the settings bound by setters are kept.
+            sites.replaceBy(req.bindJSONToList(YouTrackSite.class, formData.get("youtracksites")));
+            List<YouTrackTransport> transports = new ArrayList<YouTrackTransport>();
+            for (YouTrackSite site : sites) {
+                YouTrackTransport transport = site.getTransport();
+                // Users or passwords may have changed, so log in again with the new configuration.
+                transport.getSessions().invalidateAll();
+                transports.add(transport);
+            }
+            // Transports of changed urls or settings are no longer used by any site.
+            YouTrackTransport.retainOnly(transports);
             save();
             return true;
         }
@@ -193,23 +219,7 @@ public class YouTrackProjectProperty extends JobProperty<AbstractProject<?, ?>>
         }
 
         public AutoCompletionCandidates doAutoCompleteProject(@AncestorInPath AbstractProject project, @QueryParameter String value) {
-            YouTrackSite youTrackSite = YouTrackSite.get(project);
-            AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
-            if (youTrackSite != null) {
-                YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
-                User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-                if (user != null && user.isLoggedIn()) {
-                    List<Project> projects = youTrackServer.getProjects(user);
-                    for (Project youtrackProject : projects) {
-                        if (value == null || value.equals("")) {
-                            autoCompletionCandidates.add(value);
-                        } else if (youtrackProject.getShortName().toLowerCase().contains(value.toLowerCase())) {
-                            autoCompletionCandidates.add(youtrackProject.getShortName());
-                        }
-                    }
-                }
-            }
-            return autoCompletionCandidates;
+            return getProjects(project, value);
         }
 
         @SuppressWarnings("UnusedDeclaration")
@@ -249,6 +259,21 @@ public class YouTrackProjectProperty extends JobProperty<AbstractProject<?, ?>>
         }
 
 
+        @SuppressWarnings("UnusedDeclaration")
+        public FormValidation doInvalidateCache(@QueryParameter("youtrack.url") final String url) {
+            Jenkins instance = Jenkins.getInstance();
+            if (instance != null) {
+                instance.checkPermission(Jenkins.ADMINISTER);
+            }
+            for (YouTrackTransport transport : YouTrackTransport.getTransports(url)) {
+                transport.getMetadataCache().invalidateAll();
+                transport.getIssueCache().invalidateAll();
+                transport.getIntellisenseCache().invalidateAll();
+                transport.getSessions().invalidateAll();
+            }
+            return FormValidation.ok("Cache cleared");
+        }
+
         @SuppressWarnings("UnusedDeclaration")
         public AutoCompletionCandidates doAutoCompleteLinkVisibility(@AncestorInPath AbstractProject project, @QueryParameter String value) {
             return getPossibleGroups(project, value);
@@ -261,23 +286,19 @@ public class YouTrackProjectProperty extends JobProperty<AbstractProject<?, ?>>
 
         @SuppressWarnings("UnusedDeclaration")
         public AutoCompletionCandidates doAutoCompleteFixedValues(@AncestorInPath AbstractProject project, @QueryParameter String value) {
-            YouTrackSite youTrackSite = YouTrackSite.get(project);
-            AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
-            if (youTrackSite != null) {
-                YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
-                User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-                if (user != null) {
+            final YouTrackSite youTrackSite = YouTrackSite.get(project);
+            return findSuggestions(youTrackSite, "states|" + (youTrackSite != null ? youTrackSite.getStateFieldName() : null), new SuggestionLoader() {
+                public List<String> load(YouTrackServer youTrackServer, User user) {
                     StateBundle bundle = youTrackServer.getStateBundleForField(user, youTrackSite.getStateFieldName());
+                    List<String> names = new ArrayList<String>();
                     if (bundle != null) {
                         for (State state : bundle.getStates()) {
-                            if (state.getValue().toLowerCase().contains(value.toLowerCase())) {
-                                autoCompletionCandidates.add(state.getValue());
-                            }
+                            names.add(state.getValue());
                         }
                     }
+                    return names;
                 }
-            }
-            return autoCompletionCandidates;
+            }, value);
         }
 
         @SuppressWarnings("UnusedDeclaration")
@@ -287,55 +308,100 @@ public class YouTrackProjectProperty extends JobProperty<AbstractProject<?, ?>>
     }
 
     static AutoCompletionCandidates getProjects(@AncestorInPath AbstractProject project, @QueryParameter String value) {
-        YouTrackSite youTrackSite = YouTrackSite.get(project);
-        AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
-        if (youTrackSite != null) {
-            YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
-            User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-            if (user != null) {
+        return findSuggestions(YouTrackSite.get(project), "projects", new SuggestionLoader() {
+            public List<String> load(YouTrackServer youTrackServer, User user) {
                 List<Project> projects = youTrackServer.getProjects(user);
+                if (projects == null) {
+                    return null;
+                }
+                List<String> names = new ArrayList<String>(projects.size());
                 for (Project youtrackProject : projects) {
-                    if(youtrackProject.getShortName().toLowerCase().contains(value.toLowerCase())) {
-                        autoCompletionCandidates.add(youtrackProject.getShortName());
-                    }
+                    names.add(youtrackProject.getShortName());
                 }
+                return names;
             }
-        }
-        return autoCompletionCandidates;
+        }, value);
     }
 
     public static AutoCompletionCandidates getFields(@AncestorInPath AbstractProject project, @QueryParameter String value) {
-        YouTrackSite youTrackSite = YouTrackSite.get(project);
-        AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
-        if (youTrackSite != null) {
-            YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
-            User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-            if (user != null) {
+        return findSuggestions(YouTrackSite.get(project), "fields", new SuggestionLoader() {
+            public List<String> load(YouTrackServer youTrackServer, User user) {
                 List<Field> fields = youTrackServer.getFields(user);
+                if (fields == null) {
+                    return null;
+                }
+                List<String> names = new ArrayList<String>(fields.size());
                 for (Field field : fields) {
-                    if (field.getName().toLowerCase().contains(value.toLowerCase())) {
-                        autoCompletionCandidates.add(field.getName());
-                    }
+                    names.add(field.getName());
                 }
+                return names;
             }
-        }
-        return autoCompletionCandidates;
+        }, value);
     }
 
     public static AutoCompletionCandidates getPossibleGroups(AbstractProject project, String value) {
-        YouTrackSite youTrackSite = YouTrackSite.get(project);
-        AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
-        if (youTrackSite != null) {
-            YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
-            User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-            if (user != null) {
+        return findSuggestions(YouTrackSite.get(project), "groups", new SuggestionLoader() {
+            public List<String> load(YouTrackServer youTrackServer, User user) {
                 List<Group> groups = youTrackServer.getGroups(user);
+                if (groups == null) {
+                    return null;
+                }
+                List<String> names = new ArrayList<String>(groups.size());
                 for (Group group : groups) {
-                    if (group.getName().toLowerCase().contains(value.toLowerCase())) {
-                        autoCompletionCandidates.add(group.getName());
+                    names.add(group.getName());
+                }
+                return names;
+            }
+        }, value);
+    }
+
+    /**
+     * Loads the names to suggest from YouTrack.
+     */
+    interface SuggestionLoader {
+        /**
+         * @param youTrackServer the server.
+         * @param user           the logged in user.
+         * @return the names, null if they could not be loaded.
+         */
+        List<String> load(YouTrackServer youTrackServer, User user);
+    }
+
+    /**
+     * Finds the names containing the value, from an index of the names kept in the metadata cache of the site. YouTrack
+     * is only contacted when the index is not cached or is refreshed, so typing does not cause requests.
+     *
+     * @param youTrackSite the site, null for no suggestions.
+     * @param kind         what the names are, with everything they depend on, except the user.
+     * @param loader       loads the names when the index is built.
+     * @param value        the value typed so far.
+     * @return the suggestions.
+     */
+    static AutoCompletionCandidates findSuggestions(final YouTrackSite youTrackSite, final String kind, final SuggestionLoader loader, String value) {
+        AutoCompletionCandidates autoCompletionCandidates = new AutoCompletionCandidates();
+        if (youTrackSite == null) {
+            return autoCompletionCandidates;
+        }
+        try {
+            SuggestionIndex index = youTrackSite.getTransport().getMetadataCache().get("suggestions|" + kind + "|" + youTrackSite.getUsername(), new YouTrackMetadataCache.Loader<SuggestionIndex>() {
+                public SuggestionIndex load() throws IOException {
+                    YouTrackServer youTrackServer = youTrackSite.createServer();
+                    User user = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
+                    if (user == null || !user.isLoggedIn()) {
+                        throw new IOException("Could not log in to YouTrack");
+                    }
+                    List<String> names = loader.load(youTrackServer, user);
+                    if (names == null) {
+                        throw new IOException("Could not get " + kind + " from YouTrack");
                     }
+                    return new SuggestionIndex(names);
                 }
+            });
+            for (String name : index.find(value)) {
+                autoCompletionCandidates.add(name);
             }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not get suggestions for " + kind, e);
         }
         return autoCompletionCandidates;
     }
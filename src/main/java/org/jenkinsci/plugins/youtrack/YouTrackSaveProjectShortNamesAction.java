@@ -28,4 +28,11 @@ public class YouTrackSaveProjectShortNamesAction extends InvisibleAction {
     public List<String> getShortNames() {
         return Arrays.asList(Util.tokenize(shortNames, ","));
     }
+
+    /**
+     * @return the short names separated by commas, as saved.
+     */
+    String getShortNamesText() {
+        return shortNames != null ? shortNames : "";
+    }
 }
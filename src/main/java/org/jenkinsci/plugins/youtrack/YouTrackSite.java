@@ -7,9 +7,13 @@ import hudson.util.Secret;
 import lombok.Getter;
 import lombok.Setter;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.groovy.SecureGroovyScript;
+import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServer;
+import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackTransport;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class YouTrackSite {
     @Getter @Setter private String name;
@@ -32,6 +36,48 @@ public class YouTrackSite {
     @Getter @Setter private transient List<PrefixCommandPair> prefixCommandPairs;
     @Getter @Setter private boolean trackCommits;
     @Getter @Setter private YoutrackBuildFailureMode failureMode;
+    /**
+     * Timeout in seconds for connecting to the server, 0 for the default.
+     */
+    @Getter private int connectTimeout;
+    /**
+     * Timeout in seconds for reading a response from the server, 0 for the default.
+     */
+    @Getter private int readTimeout;
+    /**
+     * Maximum number of pooled connections to the server, 0 for the default.
+     */
+    @Getter private int maxConnections;
+    /**
+     * Maximum number of issues commands are applied to at the same time by all builds using sites with the same url and
+     * connection settings, 0 or 1 applies them one at a time in each build.
+     */
+    @Getter private int maxParallelCommands;
+    /**
+     * Minutes to cache projects, fields, groups and bundles, 0 for the default.
+     */
+    @Getter private int metadataCacheTtl;
+    /**
+     * Whether YouTrack work of builds is done on the controller work queue, so builds do not wait for YouTrack.
+     */
+    @Getter private boolean asyncUpdates;
+    /**
+     * Whether commands that failed because YouTrack could not be reached are queued in the {@link YouTrackOutbox}.
+     */
+    @Getter private boolean retryFailedCommands;
+    /**
+     * Whether processed revisions are kept per job, instead of for all jobs of the site together. Off by default, so
+     * a commit built by several jobs only has its commands applied once.
+     */
+    @Getter private boolean revisionHistoryPerJob;
+    /**
+     * Days to keep processed revisions for, 0 to keep them forever.
+     */
+    @Getter private int revisionRetentionDays;
+    /**
+     * Number of builds of a job to keep processed revisions for, 0 to keep them regardless of build.
+     */
+    @Getter private int revisionRetentionBuilds;
 
     @DataBoundConstructor
     public YouTrackSite(String name, String username, Secret password, String url) {
@@ -41,6 +87,56 @@ public class YouTrackSite {
         this.name = name;
     }
 
+    @DataBoundSetter
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    @DataBoundSetter
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxParallelCommands(int maxParallelCommands) {
+        this.maxParallelCommands = maxParallelCommands;
+    }
+
+    @DataBoundSetter
+    public void setMetadataCacheTtl(int metadataCacheTtl) {
+        this.metadataCacheTtl = metadataCacheTtl;
+    }
+
+    @DataBoundSetter
+    public void setAsyncUpdates(boolean asyncUpdates) {
+        this.asyncUpdates = asyncUpdates;
+    }
+
+    @DataBoundSetter
+    public void setRetryFailedCommands(boolean retryFailedCommands) {
+        this.retryFailedCommands = retryFailedCommands;
+    }
+
+    @DataBoundSetter
+    public void setRevisionHistoryPerJob(boolean revisionHistoryPerJob) {
+        this.revisionHistoryPerJob = revisionHistoryPerJob;
+    }
+
+    @DataBoundSetter
+    public void setRevisionRetentionDays(int revisionRetentionDays) {
+        this.revisionRetentionDays = revisionRetentionDays;
+    }
+
+    @DataBoundSetter
+    public void setRevisionRetentionBuilds(int revisionRetentionBuilds) {
+        this.revisionRetentionBuilds = revisionRetentionBuilds;
+    }
+
     public static YouTrackSite get(AbstractProject<?, ?> project) {
         YouTrackProjectProperty ypp = project.getProperty(YouTrackProjectProperty.class);
         if (ypp != null) {
@@ -58,20 +154,48 @@ public class YouTrackSite {
 
 
     /**
-     * Updates the result for build, depending on the failure mode.
+     * Creates a server object for this site, sending requests through the shared connection pool for the site.
+     *
+     * @return the server.
+     */
+    public YouTrackServer createServer() {
+        YouTrackTransport transport = getTransport();
+        return new YouTrackServer(url, transport);
+    }
+
+    /**
+     * Gets the shared transport for this site. Sites with the same url and connection settings share it, sites with
+     * other settings have their own.
+     *
+     * @return the transport.
+     */
+    public YouTrackTransport getTransport() {
+        return YouTrackTransport.forServer(url, connectTimeout * 1000, readTimeout * 1000, maxConnections,
+                TimeUnit.MINUTES.toMillis(metadataCacheTtl), maxParallelCommands);
+    }
+
+    /**
+     * Updates the result for build, depending on the failure mode. With asynchronous updates, builds that have
+     * already completed keep their result.
      * @param build the build to update the result for.
      */
     public void failed(AbstractBuild<?, ?> build) {
+        if (asyncUpdates && !build.isLogUpdated()) {
+            return;
+        }
         if (failureMode != null) {
-            switch (failureMode) {
-                case NONE:
-                    break;
-                case UNSTABLE:
-                    build.setResult(Result.UNSTABLE);
-                    break;
-                case FAILURE:
-                    build.setResult(Result.FAILURE);
-                    break;
+            // Commands may fail on several threads at once.
+            synchronized (build) {
+                switch (failureMode) {
+                    case NONE:
+                        break;
+                    case UNSTABLE:
+                        build.setResult(Result.UNSTABLE);
+                        break;
+                    case FAILURE:
+                        build.setResult(Result.FAILURE);
+                        break;
+                }
             }
         }
     }
@@ -0,0 +1,167 @@
+package org.jenkinsci.plugins.youtrack;
+
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.StreamBuildListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Queue on the controller for YouTrack work of builds, so builds do not wait for YouTrack.
+ * <p></p>
+ * The work for one build runs in the order it was queued, so the build updater sees the fixed issues saved by the
+ * issue updater. Work for different builds runs in parallel on a small thread pool. As the build log may already be
+ * closed when the work runs, the output is written to a separate log file in the build directory.
+ */
+public class YouTrackWorkQueue {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(YouTrackWorkQueue.class.getName());
+    /**
+     * Name of the log file in the build directory.
+     */
+    public static final String LOG_FILE_NAME = "youtrack.log";
+    /**
+     * Number of threads doing YouTrack work.
+     */
+    private static final int THREADS = Integer.getInteger(YouTrackWorkQueue.class.getName() + ".threads", 2);
+
+    private static final YouTrackWorkQueue INSTANCE = new YouTrackWorkQueue();
+
+    private final ExecutorService executor;
+    /**
+     * The work not yet started by build. A build has an entry while its work is being run.
+     */
+    private final Map<String, Queue<Runnable>> pending = new HashMap<String, Queue<Runnable>>();
+    private final AtomicInteger queued = new AtomicInteger();
+
+    YouTrackWorkQueue() {
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new NamingThreadFactory(new DaemonThreadFactory(), "YouTrack work queue"));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.executor = threadPoolExecutor;
+    }
+
+    /**
+     * @return the queue.
+     */
+    public static YouTrackWorkQueue get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Work for a build.
+     */
+    public interface Work {
+        /**
+         * Does the work.
+         *
+         * @param listener listener writing to the YouTrack log of the build.
+         * @throws Exception if the work failed, it is logged.
+         */
+        void perform(BuildListener listener) throws Exception;
+    }
+
+    /**
+     * Queues work for a build. The build is saved when the work is done, so actions added by it are kept.
+     *
+     * @param build       the build.
+     * @param listener    the build listener, to note that the work has been queued.
+     * @param description description of the work, for the logs.
+     * @param work        the work.
+     */
+    public void submit(final AbstractBuild<?, ?> build, BuildListener listener, final String description, final Work work) {
+        listener.getLogger().println("YouTrack: " + description + " queued, see " + LOG_FILE_NAME + " of the build for the result");
+        queued.incrementAndGet();
+        final String key = build.getProject().getFullName() + "#" + build.getNumber();
+        Runnable runnable = new Runnable() {
+            public void run() {
+                queued.decrementAndGet();
+                perform(build, description, work);
+            }
+        };
+        synchronized (pending) {
+            Queue<Runnable> buildWork = pending.get(key);
+            if (buildWork != null) {
+                buildWork.add(runnable);
+                return;
+            }
+            buildWork = new ArrayDeque<Runnable>();
+            buildWork.add(runnable);
+            pending.put(key, buildWork);
+        }
+        executor.execute(new Runnable() {
+            public void run() {
+                runAll(key);
+            }
+        });
+    }
+
+    private void runAll(String key) {
+        while (true) {
+            Runnable runnable;
+            synchronized (pending) {
+                Queue<Runnable> buildWork = pending.get(key);
+                runnable = buildWork.poll();
+                if (runnable == null) {
+                    pending.remove(key);
+                    return;
+                }
+            }
+            runnable.run();
+        }
+    }
+
+    private static void perform(AbstractBuild<?, ?> build, String description, Work work) {
+        File logFile = new File(build.getRootDir(), LOG_FILE_NAME);
+        StreamBuildListener listener = null;
+        try {
+            listener = new StreamBuildListener(new FileOutputStream(logFile, true), Charset.defaultCharset());
+            listener.getLogger().println("YouTrack: " + description);
+            work.perform(listener);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "YouTrack work failed for " + build.getFullDisplayName() + ": " + description, e);
+            if (listener != null) {
+                e.printStackTrace(listener.error("YouTrack: " + description + " failed"));
+            }
+        } finally {
+            if (listener != null) {
+                listener.getLogger().close();
+            }
+        }
+        try {
+            build.save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save " + build.getFullDisplayName(), e);
+        }
+    }
+
+    /**
+     * @return the number of queued work items not yet started.
+     */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    @Override
+    public String toString() {
+        return "work queue: " + getQueued() + " queued";
+    }
+}
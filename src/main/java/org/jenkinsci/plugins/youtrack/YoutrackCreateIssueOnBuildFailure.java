@@ -69,54 +69,66 @@ public class YoutrackCreateIssueOnBuildFailure extends Notifier {
     }
 
     @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
-        YouTrackSite youTrackSite = getYouTrackSite(build);
+    public boolean perform(final AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+        final YouTrackSite youTrackSite = getYouTrackSite(build);
         if (youTrackSite == null) {
             listener.getLogger().println("No YouTrack site configured");
             return true;
         }
 
         if (shouldCreateIssue(build)) {
-            YouTrackServer server = getYouTrackServer(youTrackSite);
-            User user = server.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
-            if (user == null) {
-                listener.getLogger().println("Could not login user to YouTrack");
-                return true;
+            if (youTrackSite.isAsyncUpdates()) {
+                YouTrackWorkQueue.get().submit(build, listener, "creating issue for build failure", new YouTrackWorkQueue.Work() {
+                    public void perform(BuildListener workListener) throws Exception {
+                        createIssue(build, workListener, youTrackSite);
+                    }
+                });
+            } else {
+                createIssue(build, listener, youTrackSite);
             }
+        }
 
-            EnvVars environment = build.getEnvironment(listener);
-            String title = environment.expand(this.summary);
-            String description = environment.expand(this.description);
-            String command = environment.expand(this.command);
+        return true;
 
-            if (title == null || "".equals(title)) {
-                title = "Build failure in build " + build.getNumber();
-            } else {
-                title = environment.expand(title);
-            }
-            if (description == null || "".equals(description)) {
-                description = getAbsoluteUrl(build);
-            } else {
-                description = environment.expand(description);
-            }
+    }
 
-            File buildLog = null;
-            if (attachBuildLog) {
-                buildLog = build.getLogFile();
-            }
-            Command issue = server.createIssue(youTrackSite.getName(), user, project, title, description, command, buildLog);
-            YouTrackCommandAction youTrackCommandAction = build.getAction(YouTrackCommandAction.class);
-            if (youTrackCommandAction == null) {
-                youTrackCommandAction = new YouTrackCommandAction(build);
-                build.addAction(youTrackCommandAction);
-            }
-            youTrackCommandAction.addCommand(issue);
+    private void createIssue(AbstractBuild<?, ?> build, BuildListener listener, YouTrackSite youTrackSite) throws InterruptedException, IOException {
+        YouTrackServer server = getYouTrackServer(youTrackSite);
+        User user = server.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
+        if (user == null) {
+            listener.getLogger().println("Could not login user to YouTrack");
+            return;
+        }
+
+        EnvVars environment = build.getEnvironment(listener);
+        String title = environment.expand(this.summary);
+        String description = environment.expand(this.description);
+        String command = environment.expand(this.command);
 
-            listener.getLogger().println("Created new YouTrack issue " + issue.getIssueId());
+        if (title == null || "".equals(title)) {
+            title = "Build failure in build " + build.getNumber();
+        } else {
+            title = environment.expand(title);
+        }
+        if (description == null || "".equals(description)) {
+            description = getAbsoluteUrl(build);
+        } else {
+            description = environment.expand(description);
         }
 
-        return true;
+        File buildLog = null;
+        if (attachBuildLog) {
+            buildLog = build.getLogFile();
+        }
+        Command issue = server.createIssue(youTrackSite.getName(), user, project, title, description, command, buildLog);
+        YouTrackCommandAction youTrackCommandAction = build.getAction(YouTrackCommandAction.class);
+        if (youTrackCommandAction == null) {
+            youTrackCommandAction = new YouTrackCommandAction(build);
+            build.addAction(youTrackCommandAction);
+        }
+        youTrackCommandAction.addCommand(issue);
 
+        listener.getLogger().println("Created new YouTrack issue " + issue.getIssueId());
     }
 
     public String getAbsoluteUrl(AbstractBuild<?, ?> build) {
@@ -128,7 +140,7 @@ public class YoutrackCreateIssueOnBuildFailure extends Notifier {
     }
 
     YouTrackServer getYouTrackServer(YouTrackSite youTrackSite) {
-        return new YouTrackServer(youTrackSite.getUrl());
+        return youTrackSite.createServer();
     }
 
     YouTrackSite getYouTrackSite(AbstractBuild<?, ?> build) {
@@ -3,18 +3,15 @@ package org.jenkinsci.plugins.youtrack;
 import com.google.common.collect.ArrayListMultimap;
 import groovy.lang.Binding;
 import hudson.EnvVars;
-import hudson.FilePath;
 import hudson.model.AbstractBuild;
 import hudson.model.BuildListener;
-import hudson.model.Run;
-import hudson.model.TaskListener;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.SCM;
 import hudson.tasks.Mailer;
 import jenkins.model.Jenkins;
 import lombok.Data;
+import lombok.Getter;
 import org.apache.commons.lang.StringUtils;
-import org.jenkinsci.plugins.gitclient.GitClient;
 import org.jenkinsci.plugins.scriptsecurity.sandbox.groovy.SecureGroovyScript;
 import org.jenkinsci.plugins.youtrack.youtrackapi.Issue;
 import org.jenkinsci.plugins.youtrack.youtrackapi.Project;
@@ -23,7 +20,6 @@ import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServer;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -42,6 +38,49 @@ public class YoutrackIssueUpdater {
         private final U second;
     }
 
+    /**
+     * A command to apply to an issue. Running it applies the command and collects the result, so commands can be
+     * dispatched to other threads and the results merged in commit order afterwards.
+     */
+    class IssueCommand implements IssueCommandDispatcher.Task {
+        private final AbstractBuild<?, ?> build;
+        private final YouTrackSite youTrackSite;
+        private final YouTrackServer youTrackServer;
+        private final User user;
+        @Getter private final ChangeLogSet.Entry changeLogEntry;
+        @Getter private final String issueId;
+        private final String command;
+        private final String comment;
+        private final BuildListener listener;
+        private final boolean silent;
+        @Getter private final List<Command> commands = new ArrayList<Command>();
+        /**
+         * Set when the command has run, after the results have been collected.
+         */
+        @Getter private volatile boolean done;
+
+        IssueCommand(AbstractBuild<?, ?> build, YouTrackSite youTrackSite, YouTrackServer youTrackServer, User user, ChangeLogSet.Entry changeLogEntry, String issueId, String command, String comment, BuildListener listener, boolean silent) {
+            this.build = build;
+            this.youTrackSite = youTrackSite;
+            this.youTrackServer = youTrackServer;
+            this.user = user;
+            this.changeLogEntry = changeLogEntry;
+            this.issueId = issueId;
+            this.command = command;
+            this.comment = comment;
+            this.listener = listener;
+            this.silent = silent;
+        }
+
+        public void run() {
+            try {
+                applyCommandToIssue(build, youTrackSite, youTrackServer, user, changeLogEntry, issueId, command, comment, listener, commands, silent);
+            } finally {
+                done = true;
+            }
+        }
+    }
+
     /**
      * Converts list of commands to map.
      *
@@ -81,12 +120,30 @@ public class YoutrackIssueUpdater {
         return fixedValues;
     }
 
-    public void update(SCM scm, AbstractBuild<?, ?> build, BuildListener listener, ChangeLogSet<?> changeLogSet) throws InvocationTargetException, IllegalAccessException {
-        YouTrackSite youTrackSite = getYouTrackSite(build);
+    /**
+     * Updates the issues referenced by the changes of a build. If the site has asynchronous updates enabled, this is
+     * done on the {@link YouTrackWorkQueue} and the method returns immediately.
+     */
+    public void update(final SCM scm, final AbstractBuild<?, ?> build, BuildListener listener, final ChangeLogSet<?> changeLogSet) throws InvocationTargetException, IllegalAccessException {
+        final YouTrackSite youTrackSite = getYouTrackSite(build);
         if (youTrackSite == null || !youTrackSite.isPluginEnabled()) {
             return;
         }
 
+        if (youTrackSite.isAsyncUpdates()) {
+            YouTrackWorkQueue.get().submit(build, listener, "updating issues from changes", new YouTrackWorkQueue.Work() {
+                public void perform(BuildListener workListener) throws Exception {
+                    // The site settings are shared with other projects, so take them for this project again.
+                    YouTrackSite site = getYouTrackSite(build);
+                    update(scm, build, workListener, changeLogSet, site != null ? site : youTrackSite);
+                }
+            });
+            return;
+        }
+        update(scm, build, listener, changeLogSet, youTrackSite);
+    }
+
+    private void update(SCM scm, AbstractBuild<?, ?> build, BuildListener listener, ChangeLogSet<?> changeLogSet, YouTrackSite youTrackSite) throws InvocationTargetException, IllegalAccessException {
         Iterator<? extends ChangeLogSet.Entry> changeLogIterator = changeLogSet.iterator();
 
         YouTrackServer youTrackServer = getYouTrackServer(youTrackSite);
@@ -99,7 +156,7 @@ public class YoutrackIssueUpdater {
     }
 
     YouTrackServer getYouTrackServer(YouTrackSite youTrackSite) {
-        return new YouTrackServer(youTrackSite.getUrl());
+        return youTrackSite.createServer();
     }
 
     YouTrackSite getYouTrackSite(AbstractBuild<?, ?> build) {
@@ -140,6 +197,8 @@ public class YoutrackIssueUpdater {
 
         List<Issue> fixedIssues = new ArrayList<Issue>();
 
+        // Only for this update, as its git client logs to this listener.
+        CommitMessageProvider messageProvider = new CommitMessageProvider();
         EnvVars environment = null;
         try {
             environment = build.getEnvironment(listener);
@@ -151,7 +210,7 @@ public class YoutrackIssueUpdater {
         if (youTrackSite.isCommentEnabled()) {
             ArrayListMultimap<Issue, ChangeLogSet.Entry> relatedChanges = ArrayListMultimap.create();
             for (ChangeLogSet.Entry entry : changeLogEntries) {
-                String msg = getMessage(scm, entry, listener, environment, build);
+                String msg = messageProvider.getMessage(scm, entry, listener, environment, build);
 
                 List<Issue> issuesFromCommit = findIssuesFromCommit(msg, projects);
                 for (Issue issue : issuesFromCommit) {
@@ -169,41 +228,95 @@ public class YoutrackIssueUpdater {
         }
 
 
-        for ( ChangeLogSet.Entry entry : changeLogEntries) {
-            String msg = getMessage(scm, entry, listener, environment, build);
+        List<IssueCommand> issueCommands = new ArrayList<IssueCommand>();
+        ProcessedRevisionPartitions processedRevisions = null;
+        YoutrackProcessedRevisionsSaver revisionsSaver = null;
+        List<ChangeLogSet.Entry> claimedEntries = new ArrayList<ChangeLogSet.Entry>();
+        Set<ChangeLogSet.Entry> entriesWithCommands = new LinkedHashSet<ChangeLogSet.Entry>();
+        try {
+            for (ChangeLogSet.Entry entry : changeLogEntries) {
+                String msg = messageProvider.getMessage(scm, entry, listener, environment, build);
+
+                if (projects != null) {
+                    List<Project> youtrackProjects = new ArrayList<Project>(projects.size());
+                    Set<String> includedProjects = getIncludedProjects(projects, youTrackSite);
 
-            if (projects != null) {
-                List<Project> youtrackProjects = new ArrayList<Project>(projects.size());
-                Set<String> includedProjects = getIncludedProjects(projects, youTrackSite);
+                    for (Project project : projects) {
+                        if (includedProjects.contains(project.getShortName())) {
+                            youtrackProjects.add(project);
+                        }
+                    }
 
-                for (Project project : projects) {
-                    if (includedProjects.contains(project.getShortName())) {
-                        youtrackProjects.add(project);
+                    Jenkins instance = Jenkins.getInstance();
+                    YouTrackPlugin plugin = null;
+                    if (instance != null) {
+                        plugin = instance.getPlugin(YouTrackPlugin.class);
+                    }
+                    revisionsSaver = null;
+                    processedRevisions = plugin != null ? plugin.getProcessedRevisions() : null;
+                    if (processedRevisions != null) {
+                        revisionsSaver = processedRevisions.get(build.getProject(), youTrackSite);
+                    }
+                    if (!youTrackSite.isTrackCommits()) {
+                        issueCommands.addAll(parseCommands(build, listener, youTrackSite, youTrackServer, user, youtrackProjects, entry, msg));
+                    } else if (revisionsSaver != null && revisionsSaver.tryClaim(entry.getCommitId())) {
+                        // Claimed, so builds running at the same time do not apply the commands of the commit as well.
+                        claimedEntries.add(entry);
+                        issueCommands.addAll(parseCommands(build, listener, youTrackSite, youTrackServer, user, youtrackProjects, entry, msg));
                     }
                 }
 
-                Jenkins instance = Jenkins.getInstance();
-                YouTrackPlugin plugin = null;
-                if (instance != null) {
-                    plugin = instance.getPlugin(YouTrackPlugin.class);
-                }
-                YoutrackProcessedRevisionsSaver revisionsSaver = null;
-                if (plugin != null) {
-                    revisionsSaver = plugin.getRevisionsSaver();
+            }
+
+            //Get the states of the issues, then apply the commands, and get the states again,
+            //to know whether the issues have been marked as fixed, instead of trying to
+            //interpret the commands. This means however that there is a possibility for
+            //the user to change state between the before and the after call, so the after
+            //state can be affected by something else than the commands.
+            Set<String> commandIssueIds = new LinkedHashSet<String>();
+            for (IssueCommand issueCommand : issueCommands) {
+                commandIssueIds.add(issueCommand.getIssueId());
+            }
+            String stateFieldName = getStateFieldName(youTrackSite);
+            Map<String, Issue> issuesBefore = Collections.emptyMap();
+            if (!commandIssueIds.isEmpty()) {
+                issuesBefore = getIssueStates(youTrackServer, user, commandIssueIds, stateFieldName);
+            }
+
+            new IssueCommandDispatcher(youTrackSite.getTransport()).dispatch(issueCommands);
+
+            if (!commandIssueIds.isEmpty()) {
+                Map<String, Issue> issuesAfter = getIssueStates(youTrackServer, user, commandIssueIds, stateFieldName);
+                Set<String> fixedValues = getFixedValues(youTrackSite);
+                for (String issueId : commandIssueIds) {
+                    Issue before = issuesBefore.get(issueId);
+                    Issue after = issuesAfter.get(issueId);
+                    if (before != null && after != null && !fixedValues.contains(before.getState()) && fixedValues.contains(after.getState())) {
+                        fixedIssues.add(after);
+                    }
                 }
-                if ((youTrackSite.isTrackCommits() && (revisionsSaver != null && !revisionsSaver.isProcessed(entry.getCommitId()))) || !youTrackSite.isTrackCommits()) {
-                    List<Command> commandList = executeCommandsIfEnabled(build, listener, youTrackSite, youTrackServer, user, youtrackProjects, fixedIssues, entry, msg);
-                    for (Command command : commandList) {
+            }
+
+            for (IssueCommand issueCommand : issueCommands) {
+                if (issueCommand.isDone()) {
+                    for (Command command : issueCommand.getCommands()) {
                         commandAction.addCommand(command);
                     }
-                    if (youTrackSite.isTrackCommits() && !commandList.isEmpty()) {
-                        if (revisionsSaver != null) {
-                            revisionsSaver.addProcessed(entry.getCommitId());
-                        }
+                    if (!issueCommand.getCommands().isEmpty()) {
+                        entriesWithCommands.add(issueCommand.getChangeLogEntry());
                     }
                 }
             }
-
+        } finally {
+            // Released after the processed commits have been added, so no other build can claim them in between.
+            if (revisionsSaver != null) {
+                for (ChangeLogSet.Entry entry : claimedEntries) {
+                    revisionsSaver.releaseClaim(entry.getCommitId(), entriesWithCommands.contains(entry), build.getNumber());
+                }
+            }
+        }
+        if (youTrackSite.isTrackCommits() && revisionsSaver != null) {
+            processedRevisions.compactIfDue(revisionsSaver, youTrackSite, build.getNumber());
         }
 
         int numCommands = commandAction.getNumCommands();
@@ -217,33 +330,7 @@ public class YoutrackIssueUpdater {
 
 
     public static String getMessage(SCM scm, ChangeLogSet.Entry next, BuildListener listener, EnvVars environment, AbstractBuild<?, ?> build) throws IllegalAccessException, InvocationTargetException {
-        String msg;
-        if (scm != null && scm.getClass().getSimpleName().equals("GitSCM")) {
-            try {
-                Method createClient = scm.getClass().getMethod("createClient", TaskListener.class, EnvVars.class, Run.class, FilePath.class);
-                GitClient gitClient = (GitClient) createClient.invoke(scm, listener, environment, build, build.getWorkspace());
-                List<String> stringList = gitClient.showRevision(gitClient.revParse(next.getCommitId()));
-                StringBuilder message = new StringBuilder();
-                for (String line : stringList) {
-                    if (line.startsWith("   ")) {
-                        String substring = line.substring(4);
-                        message.append(substring).append("\n");
-                    }
-                }
-
-                msg = message.toString();
-            } catch (SecurityException e) {
-                throw new RuntimeException(e);
-            } catch (NoSuchMethodException e) {
-                throw new RuntimeException(e);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-
-            }
-        } else {
-            msg = next.getMsg();
-        }
-        return msg;
+        return new CommitMessageProvider().getMessage(scm, next, listener, environment, build);
     }
 
 
@@ -268,7 +355,7 @@ public class YoutrackIssueUpdater {
     }
 
     /**
-     * Executes the commands if execute commands is enabled;
+     * Finds the commands in a commit message, if execute commands is enabled.
      *
      *
      * @param build
@@ -277,13 +364,12 @@ public class YoutrackIssueUpdater {
      * @param youTrackServer YouTrack server.
      * @param user           user.
      * @param projects       projects.
-     * @param fixedIssues    list to fill with fixed issues.
      * @param changeLogEntry the ChangeLogEntry.
      * @param msg            the message to parse.
-     * @return the list of commands tried to be executed.
+     * @return the commands to execute, in the order they appear in the message.
      */
-    List<Command> executeCommandsIfEnabled(AbstractBuild<?, ?> build, BuildListener listener, YouTrackSite youTrackSite, YouTrackServer youTrackServer, User user, List<Project> projects, List<Issue> fixedIssues, ChangeLogSet.Entry changeLogEntry, String msg) {
-        List<Command> commands = new ArrayList<Command>();
+    List<IssueCommand> parseCommands(AbstractBuild<?, ?> build, BuildListener listener, YouTrackSite youTrackSite, YouTrackServer youTrackServer, User user, List<Project> projects, ChangeLogSet.Entry changeLogEntry, String msg) {
+        List<IssueCommand> commands = new ArrayList<IssueCommand>();
         if (youTrackSite.isCommandsEnabled()) {
             Map<String, String> prefixCommands = getPrefixCommands(youTrackSite);
 
@@ -367,11 +453,11 @@ public class YoutrackIssueUpdater {
 //            LOGGER.error(e, e);
                 }
         
-                        applyCommandToIssue(build, youTrackSite, youTrackServer, user, fixedIssues, changeLogEntry, issueAndCommand.getFirst(), extraPrefixCommand, null, listener, commands, isSilent);
+                        commands.add(new IssueCommand(build, youTrackSite, youTrackServer, user, changeLogEntry, issueAndCommand.getFirst(), extraPrefixCommand, null, listener, isSilent));
                     }
 
                     if (issueAndCommand.getSecond() != null && !issueAndCommand.getSecond().equals("")) {
-                        applyCommandToIssue(build, youTrackSite, youTrackServer, user, fixedIssues, changeLogEntry, issueAndCommand.getFirst(), issueAndCommand.getSecond(), comment, listener, commands, isSilent);
+                        commands.add(new IssueCommand(build, youTrackSite, youTrackServer, user, changeLogEntry, issueAndCommand.getFirst(), issueAndCommand.getSecond(), comment, listener, isSilent));
                     }
                 }
             }
@@ -396,7 +482,7 @@ public class YoutrackIssueUpdater {
         return new Pair<String, String>(issueId, command);
     }
 
-    private void applyCommandToIssue(AbstractBuild<?, ?> build, YouTrackSite youTrackSite, YouTrackServer youTrackServer, User user, List<Issue> fixedIssues, ChangeLogSet.Entry next, String issueId, String command, String comment, BuildListener listener, List<Command> commands, boolean silent) {
+    private void applyCommandToIssue(AbstractBuild<?, ?> build, YouTrackSite youTrackSite, YouTrackServer youTrackServer, User user, ChangeLogSet.Entry next, String issueId, String command, String comment, BuildListener listener, List<Command> commands, boolean silent) {
         User userByEmail = null;
         if (youTrackSite.isRunAsEnabled()) {
             String address = next.getAuthor().getProperty(Mailer.UserProperty.class).getAddress();
@@ -407,53 +493,59 @@ public class YoutrackIssueUpdater {
             }
         }
 
-        String stateFieldName = "State";
-        if (youTrackSite.getStateFieldName() != null && !youTrackSite.getStateFieldName().equals("")) {
-            stateFieldName = youTrackSite.getStateFieldName();
-        }
-
-        //Get the issue state, then apply command, and get the issue state again.
-        //to know whether the command has been marked as fixed, instead of trying to
-        //interpret the command. This means however that there is a possibility for
-        //the user to change state between the before and the after call, so the after
-        //state can be affected by something else than the command.
-        Issue before = youTrackServer.getIssue(user, issueId, stateFieldName);
         boolean isSilent = youTrackSite.isSilentCommands() || silent;
         Command cmd = youTrackServer.applyCommand(youTrackSite.getName(), user, new Issue(issueId), command, comment, null, userByEmail, !isSilent);
         if (cmd.getStatus() == Command.Status.OK) {
             listener.getLogger().println("Applied command: " + command + " to issue: " + issueId);
+        } else if (YouTrackOutbox.defer(build, youTrackSite, cmd, YouTrackOutbox.Entry.command(issueId, command, comment, null, userByEmail, !isSilent))) {
+            listener.getLogger().println("Queued command: " + command + " to issue: " + issueId + " for retrying: " + cmd.getResponse());
         } else {
             listener.getLogger().println("FAILED: Applying command: " + command + " to issue: " + issueId);
             youTrackSite.failed(build);
         }
         commands.add(cmd);
-        Issue after = youTrackServer.getIssue(user, issueId, stateFieldName);
+    }
 
-        Set<String> fixedValues = getFixedValues(youTrackSite);
+    private static String getStateFieldName(YouTrackSite youTrackSite) {
+        String stateFieldName = "State";
+        if (youTrackSite.getStateFieldName() != null && !youTrackSite.getStateFieldName().equals("")) {
+            stateFieldName = youTrackSite.getStateFieldName();
+        }
+        return stateFieldName;
+    }
 
-        if (before != null && after != null && !fixedValues.contains(before.getState()) && fixedValues.contains(after.getState())) {
-            fixedIssues.add(after);
+    /**
+     * Gets the issues with their states, using one search request for all of them. If the search fails, the issues
+     * are fetched one by one.
+     *
+     * @return the issues by id, issues that could not be fetched are left out.
+     */
+    private static Map<String, Issue> getIssueStates(YouTrackServer youTrackServer, User user, Collection<String> issueIds, String stateFieldName) {
+        Map<String, Issue> issuesById = new HashMap<String, Issue>();
+        List<Issue> issues = youTrackServer.getIssues(user, issueIds, stateFieldName);
+        if (issues == null) {
+            issues = new ArrayList<Issue>();
+            for (String issueId : issueIds) {
+                Issue issue = youTrackServer.getIssue(user, issueId, stateFieldName);
+                if (issue != null) {
+                    issues.add(issue);
+                }
+            }
+        }
+        for (Issue issue : issues) {
+            issuesById.put(issue.getId(), issue);
         }
+        return issuesById;
     }
 
     private List<Issue> findIssuesFromCommit(String msg, List<Project> projects) {
+        List<String> shortNames = new ArrayList<String>(projects.size());
+        for (Project project : projects) {
+            shortNames.add(project.getShortName());
+        }
         List<Issue> issues = new ArrayList<Issue>();
-        for (Project project1 : projects) {
-            String shortName = project1.getShortName();
-            Pattern projectPattern = Pattern.compile("^(" + shortName + "-" + "(\\d+)" + ")|\\W(" + shortName + "-" + "(\\d+))");
-            Matcher matcher = projectPattern.matcher(msg);
-            while (matcher.find()) {
-                if (matcher.groupCount() >= 1) {
-                    String id = matcher.group(2);
-                    if (id == null) {
-                        id = matcher.group(4);
-                    }
-
-
-                    String issueId = shortName + "-" + id;
-                    issues.add(new Issue(issueId));
-                }
-            }
+        for (IssueReferenceScanner.IssueReference reference : IssueReferenceScanner.forShortNames(shortNames).scan(msg, true)) {
+            issues.add(new Issue(reference.getIssueId()));
         }
         return issues;
     }
@@ -493,6 +585,8 @@ public class YoutrackIssueUpdater {
             commands.add(comment);
             if (comment.getStatus() == Command.Status.OK) {
                 listener.getLogger().println("Commented on " + relatedIssue.getId());
+            } else if (YouTrackOutbox.defer(build, youTrackSite, comment, YouTrackOutbox.Entry.comment(relatedIssue.getId(), commentText, youTrackSite.getLinkVisibility(), youTrackSite.isSilentLinks()))) {
+                listener.getLogger().println("Queued comment on " + relatedIssue.getId() + " for retrying: " + comment.getResponse());
             } else {
                 listener.getLogger().println("FAILED: Commented on " + relatedIssue.getId());
                 youTrackSite.failed(build);
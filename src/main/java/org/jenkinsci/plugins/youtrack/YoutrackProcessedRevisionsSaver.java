@@ -1,68 +1,547 @@
 package org.jenkinsci.plugins.youtrack;
 
-import jenkins.model.Jenkins;
-
 import java.io.*;
 import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This is a class to persist the commit ids processed by the YouTrack plugin for Jenkins
+ * <p></p>
+ * The ids of one partition of {@link ProcessedRevisionPartitions} are kept in a {@link ProcessedRevisionTable} in the
+ * directory of the partition, with the build number and time they were processed at, so they can be removed by
+ * {@link #compact}. Ids from the text file used by earlier versions are moved to the table once.
+ * <p></p>
+ * A {@link RevisionBloomFilter} in front of the table answers most lookups of new revisions without a lock. It is
+ * saved next to the table when closing and deleted again when it is loaded, so it is only used after a clean close.
+ * Otherwise it is rebuilt from the table.
+ * <p></p>
+ * Added ids are also appended to a {@link ProcessedRevisionJournal}, so they survive a crash before the table is
+ * written to disk. Concurrent builds share one journal write, and the journal is replayed into the table on startup.
+ * <p></p>
+ * Lookups share a read lock, so builds only wait for each other while an id is added. {@link #tryClaim} lets exactly one
+ * of several concurrent builds process a revision. The claims can be shared with other partitions, so builds of
+ * different jobs see each other's claims too.
  */
 public class YoutrackProcessedRevisionsSaver {
-    private Logger LOGGER = Logger.getLogger(YoutrackProcessedRevisionsSaver.class.getName());
+    private static final Logger LOGGER = Logger.getLogger(YoutrackProcessedRevisionsSaver.class.getName());
+    private static final String BLOOM_FILTER_FILE_NAME = "processed.bloom";
+    /**
+     * False positive rate of the bloom filter when it is full. It is sized for twice the revisions it holds.
+     */
+    private static final double BLOOM_FALSE_POSITIVE_RATE = Double.parseDouble(System.getProperty(YoutrackProcessedRevisionsSaver.class.getName() + ".bloomFalsePositiveRate", "0.01"));
+    private static final long MIN_BLOOM_INSERTIONS = 10000;
+    private static final String JOURNAL_FILE_NAME = "processed.journal";
+    /**
+     * Whether to sync the journal to disk before an id counts as added. Without it, ids added just before a power
+     * failure may be processed again.
+     */
+    private static final boolean SYNC_JOURNAL = Boolean.parseBoolean(System.getProperty(YoutrackProcessedRevisionsSaver.class.getName() + ".fsync", "true"));
+    /**
+     * Number of journal records after which the table is written to disk and the journal emptied.
+     */
+    private static final long CHECKPOINT_RECORDS = Long.getLong(YoutrackProcessedRevisionsSaver.class.getName() + ".checkpointRecords", 10000);
+    /**
+     * Minimum time between two compactions by {@link #compactIfDue}.
+     */
+    private static final long COMPACTION_INTERVAL = TimeUnit.HOURS.toMillis(Long.getLong(YoutrackProcessedRevisionsSaver.class.getName() + ".compactionIntervalHours", 24));
+
+    /**
+     * Guards the table and the journal. Lookups take the read lock, changes the write lock.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private ProcessedRevisionTable table;
+    private ProcessedRevisionJournal journal;
+    private File directory;
+    /**
+     * Contains at least the keys of the table. Replaced when it is full.
+     */
+    private volatile RevisionBloomFilter bloomFilter;
+    private final AtomicLong lookups = new AtomicLong();
+    private final AtomicLong bloomFilterHits = new AtomicLong();
+    private final AtomicLong falsePositives = new AtomicLong();
+    /**
+     * Used if the table could not be opened, so ids are at least not processed twice until restart.
+     */
+    private Set<String> fallbackIds;
+    /**
+     * Ids processed before the ids were partitioned, looked up when an id is not in this partition.
+     */
+    private volatile YoutrackProcessedRevisionsSaver inherited;
+    /**
+     * Ids being processed by a build, which has claimed them with {@link #tryClaim}, possibly shared with other
+     * partitions.
+     */
+    private final ConcurrentMap<String, Boolean> claims;
+    private final AtomicLong nextCompaction = new AtomicLong();
+
+    /**
+     * Opens the ids in the directory.
+     *
+     * @param directory  the directory of the table.
+     * @param legacyFile the text file of earlier versions to move to the table, if it exists.
+     */
+    public YoutrackProcessedRevisionsSaver(File directory, File legacyFile) {
+        this(directory, legacyFile, new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Opens the ids in the directory, with claims shared with other partitions.
+     *
+     * @param directory  the directory of the table.
+     * @param legacyFile the text file of earlier versions to move to the table, if it exists.
+     * @param claims     the ids being processed by builds using any of the partitions sharing the claims.
+     */
+    public YoutrackProcessedRevisionsSaver(File directory, File legacyFile, ConcurrentMap<String, Boolean> claims) {
+        this.claims = claims;
+        open(directory, legacyFile);
+    }
+
+    private void open(File directory, File legacyFile) {
+        this.directory = directory;
+        try {
+            table = new ProcessedRevisionTable(directory);
+            if (legacyFile.exists()) {
+                migrate(legacyFile);
+            }
+            journal = new ProcessedRevisionJournal(new File(directory, JOURNAL_FILE_NAME), SYNC_JOURNAL);
+            replayJournal();
+            loadBloomFilter();
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not open youtrack processed revisions in " + directory, e);
+            if (journal != null) {
+                try {
+                    journal.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (table != null) {
+                table.close();
+            }
+            journal = null;
+            table = null;
+            fallbackIds = newFallbackIds();
+        }
+    }
 
-    public Set<String> processedIds;
-    private File file;
+    private static Set<String> newFallbackIds() {
+        return Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Moves the ids of the text file to the table, and renames the file so this is done only once.
+     */
+    private void migrate(File legacyFile) throws IOException {
+        int count = 0;
+        try (BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(new FileInputStream(legacyFile), StandardCharsets.UTF_8))) {
+            String l;
+            while ((l = bufferedReader.readLine()) != null) {
+                if (!l.isEmpty()) {
+                    table.add(ProcessedRevisionTable.toKey(l), 0, currentMinute());
+                    count++;
+                }
+            }
+        }
+        table.flush();
+        File migratedFile = new File(legacyFile.getPath() + ".migrated");
+        if (!legacyFile.renameTo(migratedFile)) {
+            LOGGER.log(Level.WARNING, "Could not rename " + legacyFile + " after migrating it");
+        }
+        LOGGER.log(Level.INFO, "Migrated " + count + " processed revisions from " + legacyFile);
+    }
+
+    /**
+     * Adds the ids of the journal that did not reach the table before Jenkins stopped.
+     */
+    private void replayJournal() throws IOException {
+        final IOException[] failure = new IOException[1];
+        long records = journal.replay(new ProcessedRevisionTable.EntryVisitor() {
+            public void visit(byte[] key, int buildNumber, int minute) {
+                try {
+                    table.add(key, buildNumber, minute);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        if (records > 0) {
+            LOGGER.log(Level.INFO, "Replayed " + records + " processed revisions from journal");
+            table.flush();
+            journal.clear();
+        }
+    }
+
+    private void loadBloomFilter() {
+        File file = new File(directory, BLOOM_FILTER_FILE_NAME);
+        if (file.exists()) {
+            RevisionBloomFilter loaded = null;
+            try {
+                loaded = RevisionBloomFilter.readFrom(file);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not load processed revisions bloom filter, rebuilding it", e);
+            }
+            // The saved filter misses ids added after loading it, so only a clean close may leave one behind for the
+            // next start. Otherwise a crash after a compaction could keep a filter with enough insertions, but
+            // without the ids added since.
+            if (!file.delete()) {
+                LOGGER.log(Level.WARNING, "Could not delete processed revisions bloom filter " + file + ", rebuilding it");
+                loaded = null;
+            }
+            // A filter that was not saved after the last additions, e.g. after a crash, would miss revisions.
+            if (loaded != null && loaded.getInsertions() >= table.size()) {
+                bloomFilter = loaded;
+                return;
+            }
+            if (loaded != null) {
+                LOGGER.log(Level.INFO, "Processed revisions bloom filter is out of date, rebuilding it");
+            }
+        }
+        rebuildBloomFilter();
+    }
+
+    /**
+     * Creates a new bloom filter for twice the revisions in the table, and fills it from the table.
+     */
+    private void rebuildBloomFilter() {
+        final RevisionBloomFilter newFilter = RevisionBloomFilter.create(Math.max(MIN_BLOOM_INSERTIONS, 2L * table.size()), BLOOM_FALSE_POSITIVE_RATE);
+        table.forEach(new ProcessedRevisionTable.EntryVisitor() {
+            public void visit(byte[] key, int buildNumber, int minute) {
+                newFilter.put(key);
+            }
+        });
+        bloomFilter = newFilter;
+    }
+
+    private static int currentMinute() {
+        return (int) TimeUnit.MILLISECONDS.toMinutes(System.currentTimeMillis());
+    }
+
+    /**
+     * @param inherited ids processed before the ids were partitioned, looked up when an id is not in this partition.
+     */
+    public void setInherited(YoutrackProcessedRevisionsSaver inherited) {
+        this.inherited = inherited;
+    }
+
+    public boolean isProcessed(String revisionId) {
+        if (revisionId == null) {
+            return false;
+        }
+        if (isProcessed(revisionId, ProcessedRevisionTable.toKey(revisionId))) {
+            return true;
+        }
+        YoutrackProcessedRevisionsSaver currentInherited = inherited;
+        return currentInherited != null && currentInherited.isProcessed(revisionId);
+    }
+
+    private boolean isProcessed(String revisionId, byte[] key) {
+        RevisionBloomFilter filter = bloomFilter;
+        if (filter != null) {
+            lookups.incrementAndGet();
+            if (!filter.mightContain(key)) {
+                return false;
+            }
+            bloomFilterHits.incrementAndGet();
+        }
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            if (table == null) {
+                return fallbackIds.contains(revisionId);
+            }
+            boolean processed = table.contains(key);
+            if (!processed && filter != null) {
+                falsePositives.incrementAndGet();
+            }
+            return processed;
+        } finally {
+            readLock.unlock();
+        }
+    }
 
-    public YoutrackProcessedRevisionsSaver() {
-        Jenkins instance = Jenkins.getInstance();
-        if (instance != null) {
-            file = new File(instance.getRootDir(), "youtrack-processed");
-            load();
+    /**
+     * Claims an id for processing by the calling build. Of several builds claiming the same id at the same time, only
+     * one gets it, and it cannot be claimed again until the claim is released.
+     *
+     * @param revisionId the id.
+     * @return true if the id has not been processed and is now claimed, false if it has been processed or is claimed
+     * by another build.
+     */
+    public boolean tryClaim(String revisionId) {
+        if (revisionId == null || isProcessed(revisionId)) {
+            return false;
+        }
+        if (claims.putIfAbsent(revisionId, Boolean.TRUE) != null) {
+            return false;
         }
+        // Another build may have processed it and released its claim since the first check.
+        if (isProcessed(revisionId)) {
+            claims.remove(revisionId);
+            return false;
+        }
+        return true;
+    }
 
+    /**
+     * Releases a claim from {@link #tryClaim}.
+     *
+     * @param revisionId  the id.
+     * @param processed   whether the id was processed, so it is added before the claim is released.
+     * @param buildNumber the number of the build that processed it.
+     */
+    public void releaseClaim(String revisionId, boolean processed, int buildNumber) {
+        if (revisionId == null) {
+            return;
+        }
+        try {
+            if (processed) {
+                addProcessed(revisionId, buildNumber);
+            }
+        } finally {
+            claims.remove(revisionId);
+        }
     }
 
-    private void load() {
-        processedIds = new HashSet<String>();
-        if (!file.exists()) {
+    /**
+     * Adds an id, and returns when it has been written to the journal.
+     *
+     * @param revisionId  the id.
+     * @param buildNumber the number of the build that processed it.
+     */
+    public void addProcessed(String revisionId, int buildNumber) {
+        if (revisionId == null) {
+            return;
+        }
+        byte[] key = ProcessedRevisionTable.toKey(revisionId);
+        int minute = currentMinute();
+        ProcessedRevisionJournal currentJournal;
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (table == null) {
+                fallbackIds.add(revisionId);
+                return;
+            }
             try {
-                boolean newFile = file.createNewFile();
-                if (!newFile) {
-                    LOGGER.log(Level.SEVERE, "Could not create youtrack processed file");
+                if (!table.add(key, buildNumber, minute)) {
+                    return;
                 }
             } catch (IOException e) {
-                LOGGER.log(Level.SEVERE, "Could not create youtrack processed file", e);
-            }
-        } else {
-            try(FileInputStream fileInputStream = new FileInputStream(file)) {
-                try(BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(fileInputStream, StandardCharsets.UTF_8))) {
-                    String l;
-                    while ((l = bufferedReader.readLine()) != null) {
-                        processedIds.add(l);
+                LOGGER.log(Level.SEVERE, "Could not write to youtrack processed revisions", e);
+                return;
+            }
+            if (bloomFilter.getInsertions() >= bloomFilter.getExpectedInsertions()) {
+                rebuildBloomFilter();
+            } else {
+                bloomFilter.put(key);
+            }
+            currentJournal = journal;
+        } finally {
+            writeLock.unlock();
+        }
+        // Written without holding the lock, so ids added by other builds meanwhile go into the same write.
+        try {
+            currentJournal.append(key, buildNumber, minute);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Could not write to youtrack processed revisions journal", e);
+        }
+        if (currentJournal.getRecords() >= CHECKPOINT_RECORDS) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Writes the table to disk and empties the journal. The ids of journal writes still in progress are already in
+     * the table, so they are not lost.
+     */
+    private void checkpoint() {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (table == null || journal.getRecords() < CHECKPOINT_RECORDS) {
+                return;
+            }
+            table.flush();
+            journal.clear();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not empty youtrack processed revisions journal", e);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Removes the ids processed longer ago than the age, or by builds older than the number of builds. Ids from earlier
+     * versions, which have no build number, are only removed by age.
+     *
+     * @param maxAgeDays      the number of days to keep ids for, 0 to keep them regardless of age.
+     * @param maxBuilds       the number of builds to keep ids for, 0 to keep them regardless of build.
+     * @param lastBuildNumber the number of the last build.
+     * @return the number of removed ids.
+     */
+    public int compact(int maxAgeDays, final int maxBuilds, final int lastBuildNumber) {
+        if (maxAgeDays <= 0 && maxBuilds <= 0) {
+            return 0;
+        }
+        final int minMinute = maxAgeDays > 0 ? currentMinute() - (int) TimeUnit.DAYS.toMinutes(maxAgeDays) : Integer.MIN_VALUE;
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (table == null) {
+                return 0;
+            }
+            int removed = table.retain(new ProcessedRevisionTable.EntryFilter() {
+                public boolean retain(int buildNumber, int minute) {
+                    if (minute < minMinute) {
+                        return false;
                     }
+                    return maxBuilds <= 0 || buildNumber == 0 || buildNumber > lastBuildNumber - maxBuilds;
                 }
-            } catch (IOException e) {
-                LOGGER.log(Level.SEVERE, "Could not load youtrack processed file", e);
+            });
+            if (removed > 0) {
+                // The table was written to disk, and a bloom filter cannot forget the removed ids.
+                journal.clear();
+                rebuildBloomFilter();
+                LOGGER.log(Level.FINE, "Removed " + removed + " processed revisions from " + directory);
             }
+            return removed;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not compact youtrack processed revisions in " + directory, e);
+            return 0;
+        } finally {
+            writeLock.unlock();
         }
+    }
 
+    /**
+     * Calls {@link #compact} if it has not been called for this partition for a while.
+     *
+     * @param maxAgeDays      the number of days to keep ids for, 0 to keep them regardless of age.
+     * @param maxBuilds       the number of builds to keep ids for, 0 to keep them regardless of build.
+     * @param lastBuildNumber the number of the last build.
+     */
+    public void compactIfDue(int maxAgeDays, int maxBuilds, int lastBuildNumber) {
+        long now = System.currentTimeMillis();
+        long next = nextCompaction.get();
+        if (now < next || !nextCompaction.compareAndSet(next, now + COMPACTION_INTERVAL)) {
+            return;
+        }
+        compact(maxAgeDays, maxBuilds, lastBuildNumber);
     }
 
-    public synchronized boolean isProcessed(String revisionId) {
-        return processedIds.contains(revisionId);
+    /**
+     * @return the directory of the ids.
+     */
+    public File getDirectory() {
+        return directory;
     }
 
-    public synchronized void addProcessed(String revisionId) {
-        processedIds.add(revisionId);
-        try(PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8))) {
-            printWriter.append(revisionId).append("\n");
-        } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Could not write to youtrack processed file", e);
+    /**
+     * @return the number of processed revisions.
+     */
+    public int getSize() {
+        Lock readLock = lock.readLock();
+        readLock.lock();
+        try {
+            return table != null ? table.size() : fallbackIds.size();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of ids claimed by builds that are processing them, in all partitions sharing the claims.
+     */
+    public int getClaims() {
+        return claims.size();
+    }
+
+    /**
+     * @return the false positive rate of the bloom filter, estimated from its bits.
+     */
+    public double getBloomFilterFalsePositiveRate() {
+        RevisionBloomFilter filter = bloomFilter;
+        return filter != null ? filter.getFalsePositiveRate() : 0;
+    }
+
+    /**
+     * @return the memory used by the bloom filter in bytes.
+     */
+    public long getBloomFilterMemorySize() {
+        RevisionBloomFilter filter = bloomFilter;
+        return filter != null ? filter.getMemorySize() : 0;
+    }
+
+    /**
+     * @return the number of lookups the bloom filter was asked for.
+     */
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    /**
+     * @return the number of lookups that the bloom filter could not answer, so the table was probed.
+     */
+    public long getBloomFilterHits() {
+        return bloomFilterHits.get();
+    }
+
+    /**
+     * @return the number of lookups the bloom filter could not answer, but the revision had not been processed.
+     */
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    @Override
+    public String toString() {
+        return getSize() + " revisions, bloom filter " + getBloomFilterMemorySize() / 1024 + " KB with "
+                + String.format("%.2f", getBloomFilterFalsePositiveRate() * 100) + "% false positive rate, "
+                + getLookups() + " lookups, " + getBloomFilterHits() + " probed, " + getFalsePositives() + " false positives, "
+                + getClaims() + " claimed";
+    }
+
+    /**
+     * Writes the processed revisions to disk and closes the table.
+     */
+    public void close() {
+        Lock writeLock = lock.writeLock();
+        writeLock.lock();
+        try {
+            if (table == null) {
+                return;
+            }
+            try {
+                bloomFilter.writeTo(new File(directory, BLOOM_FILTER_FILE_NAME));
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not save processed revisions bloom filter", e);
+            }
+            bloomFilter = null;
+            table.flush();
+            try {
+                journal.clear();
+                journal.close();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not close youtrack processed revisions journal", e);
+            }
+            journal = null;
+            table.close();
+            table = null;
+            fallbackIds = newFallbackIds();
+        } finally {
+            writeLock.unlock();
         }
     }
 }
@@ -65,7 +65,7 @@ public class YouTrackTestAction extends TestAction {
     public void doCreateIssue(StaplerRequest req, StaplerResponse resp)
             throws ServletException, IOException {
         YouTrackSite youTrackSite = YouTrackSite.get(data.getBuild().getProject());
-        YouTrackServer youTrackServer = new YouTrackServer(youTrackSite.getUrl());
+        YouTrackServer youTrackServer = youTrackSite.createServer();
         User mainUser = youTrackServer.login(youTrackSite.getUsername(), youTrackSite.getPassword().getPlainText());
 
         Command issue = youTrackServer.createIssue(youTrackSite.getName(), mainUser, youTrackSite.getProject(), "Test case: " + id, careResult.getErrorStackTrace(), null, null);
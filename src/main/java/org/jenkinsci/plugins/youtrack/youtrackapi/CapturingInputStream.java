@@ -0,0 +1,77 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stream that keeps a copy of the first bytes read from another stream, to show them when the stream turns out not to
+ * be what was expected. Bytes after the limit are passed on without being kept.
+ */
+class CapturingInputStream extends FilterInputStream {
+    private final byte[] captured;
+    private int size;
+    /**
+     * True if bytes after the limit were read.
+     */
+    private boolean truncated;
+
+    /**
+     * @param in    the stream to read from.
+     * @param limit the maximum number of bytes to keep.
+     */
+    CapturingInputStream(InputStream in, int limit) {
+        super(in);
+        this.captured = new byte[limit];
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b != -1) {
+            capture(new byte[]{(byte) b}, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int count = super.read(b, off, len);
+        if (count > 0) {
+            capture(b, off, count);
+        }
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        // Skipped bytes are read, so they are kept like the others.
+        byte[] buffer = new byte[(int) Math.min(n, 4096)];
+        int count = read(buffer, 0, buffer.length);
+        return Math.max(count, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void capture(byte[] b, int off, int len) {
+        int copied = Math.min(len, captured.length - size);
+        System.arraycopy(b, off, captured, size, copied);
+        size += copied;
+        if (copied < len) {
+            truncated = true;
+        }
+    }
+
+    /**
+     * @return the bytes kept, as UTF-8 text, ending with "..." if more was read.
+     */
+    String getCaptured() {
+        String text = new String(Arrays.copyOf(captured, size), StandardCharsets.UTF_8);
+        return truncated ? text + "..." : text;
+    }
+}
@@ -149,6 +149,30 @@ public class Issue {
         }
     }
 
+    /**
+     * Parses a list of issues, e.g. from a search including the state field. It only parses the fields
+     * {@link IssueHandler} parses.
+     */
+    public static class IssueListHandler extends IssueHandler {
+        /**
+         * The issues parsed.
+         */
+        @Getter
+        private List<Issue> issueList = new ArrayList<Issue>();
+
+        public IssueListHandler(String stateFieldName) {
+            super(stateFieldName);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            super.endElement(uri, localName, qName);
+            if (qName.equals("issue") && getIssue() != null) {
+                issueList.add(getIssue());
+            }
+        }
+    }
+
     public static class IssueSearchHandler extends DefaultHandler {
         @Getter
         private List<Issue> issueList = new ArrayList<Issue>();
@@ -0,0 +1,341 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import org.apache.commons.lang.StringUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client for the JSON API under <code>/api</code> of newer YouTrack versions. Requests ask only for the fields that
+ * are used, with <code>fields=</code>, and responses are read with a streaming parser instead of being built into a
+ * tree.
+ */
+class JsonYouTrackClient implements YouTrackClient {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(JsonYouTrackClient.class.getName());
+    /**
+     * Fields of an issue with only its state.
+     */
+    private static final String ISSUE_STATE_FIELDS = "idReadable,customFields(name,value(name))";
+    /**
+     * Fields of an issue shown in tooltips.
+     */
+    private static final String ISSUE_DETAIL_FIELDS = "idReadable,summary,wikifiedDescription,resolved,customFields(name,value(name))";
+    /**
+     * Number of projects fetched per request.
+     */
+    private static final int PROJECT_PAGE_SIZE = 500;
+
+    private final String serverUrl;
+    private final YouTrackTransport transport;
+
+    JsonYouTrackClient(String serverUrl, YouTrackTransport transport) {
+        this.serverUrl = serverUrl;
+        this.transport = transport;
+    }
+
+    public Issue getIssue(User user, String issueId, String stateField) {
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/api/issues/" + encode(issueId) + "?fields=" + encode(ISSUE_DETAIL_FIELDS), user)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                try (JsonReader reader = newReader(response.getBody())) {
+                    return readIssue(reader, stateField);
+                }
+            }
+            LOGGER.log(Level.FINE, "Could not get issue " + issueId + ": " + getErrorMessage(response.getBody()));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not get issue", e);
+        }
+        return null;
+    }
+
+    public List<Issue> getIssues(User user, Collection<String> issueIds, String stateField, boolean details) {
+        String fields = details ? ISSUE_DETAIL_FIELDS : ISSUE_STATE_FIELDS;
+        List<String> ids = new ArrayList<String>(issueIds);
+        List<Issue> issues = new ArrayList<Issue>(ids.size());
+        for (int start = 0; start < ids.size(); start += YouTrackServer.ISSUE_QUERY_BATCH_SIZE) {
+            List<String> batch = ids.subList(start, Math.min(start + YouTrackServer.ISSUE_QUERY_BATCH_SIZE, ids.size()));
+            String query = "issue id: " + StringUtils.join(batch, ", ");
+            String url = serverUrl + "/api/issues?query=" + encode(query) + "&fields=" + encode(fields)
+                    + "&customFields=" + encode(stateField) + "&$top=" + batch.size();
+            try (YouTrackTransport.Response response = transport.get(url, user)) {
+                if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                    LOGGER.log(Level.WARNING, "Could not get issues: " + getErrorMessage(response.getBody()));
+                    return null;
+                }
+                try (JsonReader reader = newReader(response.getBody())) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        issues.add(readIssue(reader, stateField));
+                    }
+                    reader.endArray();
+                }
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not get issues", e);
+                return null;
+            }
+        }
+        return issues;
+    }
+
+    public List<Project> getProjects(User user) throws IOException {
+        List<Project> projects = new ArrayList<Project>();
+        for (int skip = 0; ; skip += PROJECT_PAGE_SIZE) {
+            String url = serverUrl + "/api/admin/projects?fields=shortName&$skip=" + skip + "&$top=" + PROJECT_PAGE_SIZE;
+            int count = 0;
+            try (YouTrackTransport.Response response = transport.get(url, user)) {
+                if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("YouTrack returned status " + response.getStatus() + ": " + getErrorMessage(response.getBody()));
+                }
+                try (JsonReader reader = newReader(response.getBody())) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        Project project = new Project();
+                        reader.beginObject();
+                        while (reader.hasNext()) {
+                            if (reader.nextName().equals("shortName")) {
+                                project.setShortName(readString(reader));
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endObject();
+                        projects.add(project);
+                        count++;
+                    }
+                    reader.endArray();
+                }
+            } catch (RuntimeException e) {
+                throw new IOException(e);
+            }
+            if (count < PROJECT_PAGE_SIZE) {
+                return projects;
+            }
+        }
+    }
+
+    /**
+     * Reads the version from the response of <code>/api/config?fields=version</code>.
+     *
+     * @param body the response body.
+     * @return the version, null if there is none.
+     * @throws IOException if the response could not be read.
+     */
+    static String readVersion(InputStream body) throws IOException {
+        try (JsonReader reader = newReader(body)) {
+            String version = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (reader.nextName().equals("version")) {
+                    version = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return version;
+        } catch (RuntimeException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Reads the groups from the response of <code>/api/groups?fields=id,name</code>.
+     *
+     * @param body the response body.
+     * @return the ids of the groups by name.
+     * @throws IOException if the response could not be read.
+     */
+    static Map<String, String> readGroupIds(InputStream body) throws IOException {
+        try (JsonReader reader = newReader(body)) {
+            Map<String, String> groupIds = new HashMap<String, String>();
+            reader.beginArray();
+            while (reader.hasNext()) {
+                String id = null;
+                String name = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String property = reader.nextName();
+                    if (property.equals("id")) {
+                        id = readString(reader);
+                    } else if (property.equals("name")) {
+                        name = readString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                if (id != null && name != null) {
+                    groupIds.put(name, id);
+                }
+            }
+            reader.endArray();
+            return groupIds;
+        } catch (RuntimeException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static Issue readIssue(JsonReader reader, String stateField) throws IOException {
+        Issue issue = new Issue(null);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("idReadable")) {
+                issue.setId(readString(reader));
+            } else if (name.equals("summary")) {
+                issue.setSummary(readString(reader));
+            } else if (name.equals("wikifiedDescription")) {
+                issue.setDescription(readString(reader));
+            } else if (name.equals("resolved")) {
+                issue.setResolved(readString(reader));
+            } else if (name.equals("customFields")) {
+                issue.setState(readCustomField(reader, stateField));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return issue;
+    }
+
+    /**
+     * Reads the custom fields of an issue.
+     *
+     * @return the value of the field with the given name, null if there is none.
+     */
+    private static String readCustomField(JsonReader reader, String fieldName) throws IOException {
+        String result = null;
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        reader.beginArray();
+        while (reader.hasNext()) {
+            String name = null;
+            String value = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String property = reader.nextName();
+                if (property.equals("name")) {
+                    name = readString(reader);
+                } else if (property.equals("value")) {
+                    value = readFieldValue(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (name != null && name.equals(fieldName)) {
+                result = value;
+            }
+        }
+        reader.endArray();
+        return result;
+    }
+
+    /**
+     * Reads the value of a custom field, the name of a bundle element, the names of several elements separated by
+     * commas, or a simple value.
+     */
+    private static String readFieldValue(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_OBJECT:
+                String name = null;
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (reader.nextName().equals("name")) {
+                        name = readString(reader);
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+                return name;
+            case BEGIN_ARRAY:
+                List<String> names = new ArrayList<String>();
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String value = readFieldValue(reader);
+                    if (value != null) {
+                        names.add(value);
+                    }
+                }
+                reader.endArray();
+                return StringUtils.join(names, ", ");
+            default:
+                return readString(reader);
+        }
+    }
+
+    /**
+     * Reads a string, number or boolean as a string.
+     */
+    private static String readString(JsonReader reader) throws IOException {
+        switch (reader.peek()) {
+            case NULL:
+                reader.nextNull();
+                return null;
+            case BOOLEAN:
+                return String.valueOf(reader.nextBoolean());
+            case STRING:
+            case NUMBER:
+                return reader.nextString();
+            default:
+                reader.skipValue();
+                return null;
+        }
+    }
+
+    /**
+     * Gets the message of an error response, only the start of the body is kept if it is not a YouTrack error.
+     */
+    private static String getErrorMessage(InputStream body) throws IOException {
+        CapturingInputStream capturingStream = new CapturingInputStream(body, YouTrackServer.ERROR_CAPTURE_LIMIT);
+        try (JsonReader reader = newReader(capturingStream)) {
+            String error = null;
+            String description = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("error")) {
+                    error = readString(reader);
+                } else if (name.equals("error_description")) {
+                    description = readString(reader);
+                } else {
+                    reader.skipValue();
+                }
+            }
+            return description != null ? description : error;
+        } catch (IOException | RuntimeException e) {
+            return capturingStream.getCaptured();
+        }
+    }
+
+    private static JsonReader newReader(InputStream body) {
+        return new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -29,7 +29,17 @@ public class User {
     /**
      * The set of cookies if this user has a session.
      */
-    @Getter private transient List<String> cookies = new ArrayList<String>();
+    @Getter private transient volatile List<String> cookies = new ArrayList<String>();
+
+    /**
+     * Replaces the session cookies, e.g. when the session has been renewed.
+     * The list is swapped as a whole, so threads using this user concurrently see either the old or the new session.
+     *
+     * @param cookies the new cookies.
+     */
+    void replaceCookies(List<String> cookies) {
+        this.cookies = new ArrayList<String>(cookies);
+    }
 
     /**
      * Handler for parsing user query if will find the first user
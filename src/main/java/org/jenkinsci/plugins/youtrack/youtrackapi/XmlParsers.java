@@ -0,0 +1,96 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Parses the XML responses of YouTrack with SAX parsers that are reused, instead of looking up a parser factory and
+ * creating a parser for every request.
+ * <p></p>
+ * The factory is looked up once. Each thread keeps one parser, which is reset after each use. A parser already in use
+ * by the thread, when a handler parses another document, is not shared; a new parser is used for the nested document.
+ */
+final class XmlParsers {
+    /**
+     * The factory, looked up once as the lookup goes through the service loader.
+     */
+    private static final SAXParserFactory FACTORY = SAXParserFactory.newInstance();
+
+    /**
+     * The parser of each thread.
+     */
+    private static final ThreadLocal<PooledParser> PARSERS = new ThreadLocal<PooledParser>();
+
+    private XmlParsers() {
+    }
+
+    /**
+     * Parses a document from a stream.
+     *
+     * @param inputStream the document.
+     * @param handler     the handler to pass the document to.
+     * @throws IOException                  if the document could not be read.
+     * @throws ParserConfigurationException if no parser could be created.
+     * @throws SAXException                 if the document could not be parsed.
+     */
+    static void parse(InputStream inputStream, DefaultHandler handler) throws IOException, ParserConfigurationException, SAXException {
+        parse(new InputSource(inputStream), handler);
+    }
+
+    /**
+     * Parses a document.
+     *
+     * @param inputSource the document.
+     * @param handler     the handler to pass the document to.
+     * @throws IOException                  if the document could not be read.
+     * @throws ParserConfigurationException if no parser could be created.
+     * @throws SAXException                 if the document could not be parsed.
+     */
+    static void parse(InputSource inputSource, DefaultHandler handler) throws IOException, ParserConfigurationException, SAXException {
+        PooledParser pooledParser = PARSERS.get();
+        if (pooledParser == null) {
+            pooledParser = new PooledParser(newParser());
+            PARSERS.set(pooledParser);
+        }
+        if (pooledParser.inUse) {
+            newParser().parse(inputSource, handler);
+            return;
+        }
+        pooledParser.inUse = true;
+        try {
+            pooledParser.parser.parse(inputSource, handler);
+        } finally {
+            pooledParser.inUse = false;
+            try {
+                pooledParser.parser.reset();
+            } catch (UnsupportedOperationException e) {
+                PARSERS.remove();
+            }
+        }
+    }
+
+    private static SAXParser newParser() throws ParserConfigurationException, SAXException {
+        synchronized (FACTORY) {
+            return FACTORY.newSAXParser();
+        }
+    }
+
+    /**
+     * A parser of a thread, with whether it is parsing a document.
+     */
+    private static class PooledParser {
+        private final SAXParser parser;
+        private boolean inUse;
+
+        private PooledParser(SAXParser parser) {
+            this.parser = parser;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.apache.commons.lang.StringUtils;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Client for the XML API under <code>/rest</code>, supported by all YouTrack versions before the JSON API replaced it.
+ */
+class XmlYouTrackClient implements YouTrackClient {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(XmlYouTrackClient.class.getName());
+
+    private final String serverUrl;
+    private final YouTrackTransport transport;
+
+    XmlYouTrackClient(String serverUrl, YouTrackTransport transport) {
+        this.serverUrl = serverUrl;
+        this.transport = transport;
+    }
+
+    public Issue getIssue(User user, String issueId, String stateField) {
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/issue/" + issueId + "?wikifyDescription=true", user)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                try {
+                    Issue.IssueHandler issueHandler = new Issue.IssueHandler(stateField);
+                    XmlParsers.parse(response.getBody(), issueHandler);
+                    return issueHandler.getIssue();
+                } catch (ParserConfigurationException | SAXException e) {
+                    LOGGER.log(Level.WARNING, "Could not get issue", e);
+                }
+            }
+
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not get issue", e);
+        }
+        return null;
+    }
+
+    public List<Issue> getIssues(User user, Collection<String> issueIds, String stateField, boolean details) {
+        StringBuilder with = new StringBuilder();
+        if (details) {
+            with.append("&wikifyDescription=true");
+        }
+        try {
+            if (details) {
+                for (String field : new String[]{"summary", "description", "resolved"}) {
+                    with.append("&with=").append(field);
+                }
+            }
+            with.append("&with=").append(URLEncoder.encode(stateField, "UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        List<String> ids = new ArrayList<String>(issueIds);
+        List<Issue> issues = new ArrayList<Issue>(ids.size());
+        for (int start = 0; start < ids.size(); start += YouTrackServer.ISSUE_QUERY_BATCH_SIZE) {
+            List<String> batch = ids.subList(start, Math.min(start + YouTrackServer.ISSUE_QUERY_BATCH_SIZE, ids.size()));
+            String filter = "issue id: " + StringUtils.join(batch, ", ");
+            try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/issue?filter=" + URLEncoder.encode(filter, "UTF-8") + with + "&max=" + batch.size(), user)) {
+                if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+                    LOGGER.log(Level.WARNING, "Could not get issues: " + YouTrackServer.getErrorMessage(response.getBody()));
+                    return null;
+                }
+                Issue.IssueListHandler issueListHandler = new Issue.IssueListHandler(stateField);
+                XmlParsers.parse(response.getBody(), issueListHandler);
+                issues.addAll(issueListHandler.getIssueList());
+            } catch (IOException | ParserConfigurationException | SAXException e) {
+                LOGGER.log(Level.WARNING, "Could not get issues", e);
+                return null;
+            }
+        }
+        return issues;
+    }
+
+    public List<Project> getProjects(User user) throws IOException {
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/project/all", user)) {
+            YouTrackServer.checkStatus(response);
+            Project.ProjectListHandler dh = new Project.ProjectListHandler();
+            XmlParsers.parse(response.getBody(), dh);
+            return dh.getProjects();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
+        }
+    }
+}
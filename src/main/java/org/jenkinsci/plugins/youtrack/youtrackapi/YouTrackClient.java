@@ -0,0 +1,45 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The requests made most often, for builds and tooltips, sent to the REST API that the server supports best: the XML
+ * API under <code>/rest</code> of older servers, or the JSON API under <code>/api</code> of newer ones, which returns
+ * only the fields asked for. Other requests use the XML API on all servers.
+ * <p></p>
+ * Get the client for a server with {@link YouTrackServer#getClient()}.
+ */
+public interface YouTrackClient {
+    /**
+     * Gets an issue with its summary, description as HTML, resolved date and state.
+     *
+     * @param user       the user to get the issue with.
+     * @param issueId    the id of the issue.
+     * @param stateField the name of the state field.
+     * @return the issue, null if it could not be fetched.
+     */
+    Issue getIssue(User user, String issueId, String stateField);
+
+    /**
+     * Gets several issues, with one request per {@link YouTrackServer#ISSUE_QUERY_BATCH_SIZE} issues.
+     *
+     * @param user       the user to get the issues with.
+     * @param issueIds   the ids of the issues.
+     * @param stateField the name of the state field.
+     * @param details    true to also get the summary, description as HTML and resolved date, false for only the
+     *                   state.
+     * @return the issues found, issues that do not exist are left out. Null if a request failed.
+     */
+    List<Issue> getIssues(User user, Collection<String> issueIds, String stateField, boolean details);
+
+    /**
+     * Gets the projects the user can see, with their short names.
+     *
+     * @param user the user to get the projects for.
+     * @return the projects.
+     * @throws IOException if the projects could not be fetched.
+     */
+    List<Project> getProjects(User user) throws IOException;
+}
@@ -0,0 +1,190 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache for the search suggestions of a YouTrack server, so people typing queries in job configurations do not cause
+ * a request for every keystroke.
+ * <p></p>
+ * Suggestions are kept by user and query for a short time, and the least recently used ones are removed when there
+ * are more than the maximum number of entries. When suggestions for the same user and query are requested while they
+ * are being loaded, the requests wait for that load instead of loading them again.
+ */
+public class YouTrackIntellisenseCache {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(YouTrackIntellisenseCache.class.getName());
+    /**
+     * Default time to live of the entries in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = Long.getLong(YouTrackIntellisenseCache.class.getName() + ".timeToLive", TimeUnit.SECONDS.toMillis(30));
+    /**
+     * Default maximum number of entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = Integer.getInteger(YouTrackIntellisenseCache.class.getName() + ".maxEntries", 500);
+
+    /**
+     * The entries by key, least recently used first. Guarded by itself.
+     */
+    private final Map<String, Entry> entries;
+    private final long timeToLive;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong merged = new AtomicLong();
+
+    public YouTrackIntellisenseCache() {
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param timeToLive time to live of the entries in milliseconds.
+     * @param maxEntries the maximum number of entries.
+     */
+    public YouTrackIntellisenseCache(long timeToLive, final int maxEntries) {
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the suggestions, waiting for them if they are being loaded, or loading them if they are not cached or have
+     * expired.
+     *
+     * @param key    the key of the suggestions, it must include the user and the query.
+     * @param loader loads the suggestions.
+     * @return the suggestions, shared with other callers, or null if they could not be loaded.
+     */
+    public List<Suggestion> get(String key, YouTrackMetadataCache.Loader<List<Suggestion>> loader) {
+        Entry entry;
+        boolean load = false;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && entry.isValid(System.currentTimeMillis(), timeToLive)) {
+                if (entry.isDone()) {
+                    hits.incrementAndGet();
+                } else {
+                    merged.incrementAndGet();
+                }
+            } else {
+                entry = new Entry();
+                entries.put(key, entry);
+                load = true;
+                misses.incrementAndGet();
+            }
+        }
+        if (!load) {
+            return entry.await();
+        }
+
+        List<Suggestion> suggestions = null;
+        try {
+            suggestions = loader.load();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not get search suggestions", e);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not get search suggestions", e);
+        } finally {
+            entry.complete(suggestions);
+            if (suggestions == null) {
+                synchronized (entries) {
+                    if (entries.get(key) == entry) {
+                        entries.remove(key);
+                    }
+                }
+            }
+        }
+        return suggestions;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * @return the number of suggestions found in the cache and not expired.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of suggestions that had to be loaded.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of requests that waited for suggestions being loaded for another request.
+     */
+    public long getMerged() {
+        return merged.get();
+    }
+
+    /**
+     * @return the number of cached entries.
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "search suggestions cache: " + getSize() + " entries, " + getHits() + " hits, " + getMisses() + " misses, "
+                + getMerged() + " merged";
+    }
+
+    /**
+     * Suggestions that are loaded or being loaded.
+     */
+    private static class Entry {
+        private final CountDownLatch loaded = new CountDownLatch(1);
+        private volatile List<Suggestion> suggestions;
+        private volatile long loadTime;
+
+        private boolean isDone() {
+            return loaded.getCount() == 0;
+        }
+
+        private boolean isValid(long now, long timeToLive) {
+            return !isDone() || now < loadTime + timeToLive;
+        }
+
+        private void complete(List<Suggestion> suggestions) {
+            this.suggestions = suggestions;
+            this.loadTime = System.currentTimeMillis();
+            loaded.countDown();
+        }
+
+        private List<Suggestion> await() {
+            try {
+                loaded.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return suggestions;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import hudson.Util;
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache for the JSON shown in the tooltips of issues of a YouTrack server, so issues that are hovered often are not
+ * fetched and converted again for every request.
+ * <p></p>
+ * Entries are used until their time to live has passed, and the least recently used entries are removed when there
+ * are more than the maximum number of entries. Each entry has an ETag, so browsers can revalidate it cheaply.
+ */
+public class YouTrackIssueCache {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(YouTrackIssueCache.class.getName());
+    /**
+     * Default time to live of the entries in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = Long.getLong(YouTrackIssueCache.class.getName() + ".timeToLive", TimeUnit.MINUTES.toMillis(5));
+    /**
+     * Default maximum number of entries.
+     */
+    public static final int DEFAULT_MAX_ENTRIES = Integer.getInteger(YouTrackIssueCache.class.getName() + ".maxEntries", 1000);
+
+    /**
+     * The entries by key, least recently used first. Guarded by itself.
+     */
+    private final Map<String, Entry> entries;
+    private final long timeToLive;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public YouTrackIssueCache() {
+        this(DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param timeToLive time to live of the entries in milliseconds.
+     * @param maxEntries the maximum number of entries.
+     */
+    public YouTrackIssueCache(long timeToLive, final int maxEntries) {
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets an entry if it is cached and has not expired.
+     *
+     * @param key the key of the entry, it must include everything the JSON depends on, like the state field.
+     * @return the entry, or null if it has to be loaded.
+     */
+    public Entry get(String key) {
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.getExpires() > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return entry;
+            }
+            if (entry != null) {
+                entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Caches the JSON of an issue.
+     *
+     * @param key  the key of the entry.
+     * @param json the JSON.
+     * @return the new entry.
+     */
+    public Entry put(String key, String json) {
+        Entry entry = new Entry(json, System.currentTimeMillis() + timeToLive);
+        synchronized (entries) {
+            entries.put(key, entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Removes all entries.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        LOGGER.log(Level.FINE, "YouTrack issue cache invalidated");
+    }
+
+    /**
+     * @return the number of entries found in the cache and not expired.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of entries that had to be loaded.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries removed because the cache was full.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the fraction of lookups that were found in the cache, 0 if there were none.
+     */
+    public double getHitRatio() {
+        long hits = getHits();
+        long total = hits + getMisses();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * @return the number of cached entries.
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "issue cache: " + getSize() + " entries, " + getHits() + " hits, " + getMisses() + " misses ("
+                + Math.round(getHitRatio() * 100) + "% hit ratio), " + getEvictions() + " evicted";
+    }
+
+    /**
+     * The cached JSON of an issue.
+     */
+    public static class Entry {
+        @Getter private final String json;
+        /**
+         * Quoted, as sent in the ETag header.
+         */
+        @Getter private final String etag;
+        /**
+         * Time in milliseconds after which the entry is not used anymore.
+         */
+        @Getter private final long expires;
+
+        private Entry(String json, long expires) {
+            this.json = json;
+            this.etag = "\"" + Util.getDigestOf(json) + "\"";
+            this.expires = expires;
+        }
+
+        /**
+         * @return the number of seconds the entry may still be used, for the Cache-Control header.
+         */
+        public long getMaxAge() {
+            return Math.max(0, TimeUnit.MILLISECONDS.toSeconds(expires - System.currentTimeMillis()));
+        }
+    }
+}
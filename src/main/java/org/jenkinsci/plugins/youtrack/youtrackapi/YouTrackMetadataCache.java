@@ -0,0 +1,295 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache for metadata of a YouTrack server, like projects, fields, groups and bundles, that rarely changes.
+ * <p></p>
+ * Entries are reused until their time to live has passed. When an entry is used during the last quarter of its time
+ * to live, it is refreshed in the background, so builds do not wait for it. If an expired entry cannot be loaded
+ * because the server is not reachable, the expired value is used. Entries that have not been used for
+ * {@link #EVICTION_TIMES_TO_LIVE} times the time to live are removed, e.g. those of users that no longer use the server.
+ */
+public class YouTrackMetadataCache {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(YouTrackMetadataCache.class.getName());
+    /**
+     * Default time to live of the entries in milliseconds.
+     */
+    public static final long DEFAULT_TIME_TO_LIVE = TimeUnit.HOURS.toMillis(1);
+    /**
+     * Entries not used for this many times the time to live are removed.
+     */
+    static final int EVICTION_TIMES_TO_LIVE = 4;
+
+    /**
+     * Executor for the background refreshes of this cache. Each server has its own thread, so a slow server does not
+     * hold up the refreshes of the others, and the thread ends when there is nothing to refresh.
+     */
+    private final Executor refreshExecutor;
+    /**
+     * The entries by key.
+     */
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    /**
+     * Time to live of the entries in milliseconds.
+     */
+    private volatile long timeToLive = DEFAULT_TIME_TO_LIVE;
+    /**
+     * When to look for unused entries next. Guarded by entries.
+     */
+    private long nextEviction;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public YouTrackMetadataCache() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 1, TimeUnit.MINUTES, new LinkedBlockingQueue<Runnable>(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "YouTrack metadata refresh"));
+        executor.allowCoreThreadTimeOut(true);
+        this.refreshExecutor = executor;
+    }
+
+    /**
+     * @param refreshExecutor runs the background refreshes.
+     */
+    YouTrackMetadataCache(Executor refreshExecutor) {
+        this.refreshExecutor = refreshExecutor;
+    }
+
+    /**
+     * Loads a value from the server.
+     *
+     * @param <T> type of the value.
+     */
+    public interface Loader<T> {
+        /**
+         * @return the value, null is allowed.
+         * @throws IOException if the value could not be loaded.
+         */
+        T load() throws IOException;
+    }
+
+    /**
+     * Sets the time to live of the entries.
+     *
+     * @param timeToLive time to live in milliseconds, zero or negative for the default.
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive <= 0 ? DEFAULT_TIME_TO_LIVE : timeToLive;
+    }
+
+    /**
+     * @return the time to live of the entries in milliseconds.
+     */
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Gets a value, loading it if it is not cached or has expired.
+     *
+     * @param key    the key of the value, it must include everything the value depends on, like the user.
+     * @param loader loads the value.
+     * @param <T>    type of the value.
+     * @return the value.
+     * @throws IOException if the value is not cached and could not be loaded.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, final Loader<T> loader) throws IOException {
+        long now = currentTimeMillis();
+        final Entry entry = getEntry(key, now);
+        synchronized (entry) {
+            entry.lastUsed = now;
+            if (entry.loaded && now < entry.loadTime + timeToLive) {
+                hits.incrementAndGet();
+                if (!entry.refreshing && now >= entry.loadTime + timeToLive * 3 / 4) {
+                    entry.refreshing = true;
+                    refreshExecutor.execute(new Runnable() {
+                        public void run() {
+                            refresh(entry, loader);
+                        }
+                    });
+                }
+                return (T) entry.value;
+            }
+            misses.incrementAndGet();
+            try {
+                T value = loader.load();
+                entry.set(value, currentTimeMillis());
+                return value;
+            } catch (IOException e) {
+                if (entry.loaded) {
+                    staleHits.incrementAndGet();
+                    LOGGER.log(Level.INFO, "Could not load " + key + " from YouTrack, using cached value: " + e.getMessage());
+                    return (T) entry.value;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void refresh(Entry entry, Loader<?> loader) {
+        try {
+            Object value = loader.load();
+            synchronized (entry) {
+                entry.set(value, currentTimeMillis());
+            }
+            refreshes.incrementAndGet();
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not refresh YouTrack metadata", e);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not refresh YouTrack metadata", e);
+        } finally {
+            synchronized (entry) {
+                entry.refreshing = false;
+            }
+        }
+    }
+
+    private Entry getEntry(String key, long now) {
+        synchronized (entries) {
+            if (now >= nextEviction) {
+                evictUnused(now);
+            }
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry();
+                entry.lastUsed = now;
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    /**
+     * Removes the entries that have not been used for a while. Called at most once per time to live.
+     */
+    private void evictUnused(long now) {
+        long ttl = timeToLive;
+        nextEviction = now + ttl;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (iterator.hasNext()) {
+            // Not locking the entry, which is held while it is loaded.
+            if (now - iterator.next().lastUsed > ttl * EVICTION_TIMES_TO_LIVE) {
+                iterator.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Stops the background refreshes, when the plugin stops.
+     */
+    void shutdown() {
+        if (refreshExecutor instanceof ExecutorService) {
+            ((ExecutorService) refreshExecutor).shutdown();
+        }
+    }
+
+    /**
+     * @return the current time in milliseconds, replaced in tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Removes all entries, so the metadata is loaded again on next use.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+        LOGGER.log(Level.INFO, "YouTrack metadata cache invalidated");
+    }
+
+    /**
+     * @return the number of values found in the cache and not expired.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of values that had to be loaded.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of expired values used because they could not be loaded.
+     */
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    /**
+     * @return the number of values refreshed in the background.
+     */
+    public long getRefreshes() {
+        return refreshes.get();
+    }
+
+    /**
+     * @return the number of values removed because they were not used for a while.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of cached values.
+     */
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "metadata cache: " + getSize() + " entries, " + getHits() + " hits, " + getMisses() + " misses, "
+                + getStaleHits() + " stale, " + getRefreshes() + " refreshed, " + getEvictions() + " evicted";
+    }
+
+    /**
+     * A cached value. Guarded by its own monitor.
+     */
+    private static class Entry {
+        private Object value;
+        private boolean loaded;
+        private long loadTime;
+        private boolean refreshing;
+        /**
+         * Also read without holding the monitor, when evicting.
+         */
+        private volatile long lastUsed;
+
+        private void set(Object value, long now) {
+            this.value = value;
+            this.loaded = true;
+            this.loadTime = now;
+        }
+    }
+}
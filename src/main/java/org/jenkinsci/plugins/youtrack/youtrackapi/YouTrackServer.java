@@ -1,6 +1,8 @@
 package org.jenkinsci.plugins.youtrack.youtrackapi;
 
-import org.apache.commons.httpclient.HttpClient;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import lombok.Getter;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.multipart.FilePart;
 import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
@@ -10,23 +12,21 @@ import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.youtrack.Command;
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
 import java.io.*;
 import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
 import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,77 +38,129 @@ public class YouTrackServer {
      * Logger for this class.
      */
     private static final Logger LOGGER = Logger.getLogger(YouTrackServer.class.getName());
+    /**
+     * Maximum number of issues a command is applied to in one request.
+     */
+    public static final int COMMAND_BATCH_SIZE = 100;
+    /**
+     * Maximum number of issues fetched in one search request.
+     */
+    public static final int ISSUE_QUERY_BATCH_SIZE = 100;
+    /**
+     * Number of bytes of an error response that are kept, to show when it cannot be parsed.
+     */
+    static final int ERROR_CAPTURE_LIMIT = 4096;
+    /**
+     * First major version of YouTrack whose JSON API is used for the requests made most often.
+     */
+    static final int JSON_API_MIN_VERSION = 2019;
+    /**
+     * Forces the API used for the requests made most often, <code>xml</code> or <code>json</code>, instead of
+     * choosing it from the version of the server.
+     */
+    private static final String CLIENT = System.getProperty(YouTrackServer.class.getName() + ".client", "auto");
+    /**
+     * Number of issues fetched per request when searching.
+     */
+    public static final int SEARCH_PAGE_SIZE = 500;
     /**
      * The url of the YouTrack server.
      */
     private final String serverUrl;
+    /**
+     * The transport used for all requests to the server.
+     */
+    private final YouTrackTransport transport;
 
     /**
-     * Constructs a server.
+     * Constructs a server using the shared transport for the url.
      *
      * @param serverUrl the url of the server.
      */
     public YouTrackServer(String serverUrl) {
+        this(serverUrl, YouTrackTransport.forServer(serverUrl));
+    }
+
+    /**
+     * Constructs a server.
+     *
+     * @param serverUrl the url of the server.
+     * @param transport the transport to send requests with.
+     */
+    public YouTrackServer(String serverUrl, YouTrackTransport transport) {
         this.serverUrl = serverUrl;
+        this.transport = transport;
     }
 
-    private static String getErrorMessage(InputStream errorStream) throws IOException {
-        StringBuilder stringBuilder = new StringBuilder();
-        try(BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(errorStream, StandardCharsets.UTF_8))) {
-            String l;
-            while ((l = bufferedReader.readLine()) != null) {
-                stringBuilder.append(l).append("\n");
-            }
-        }
+    /**
+     * @return the transport used for requests to this server.
+     */
+    public YouTrackTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Gets the message of an error response. The body is parsed while it is read, and only its start is kept, to be
+     * returned when it is not a YouTrack error, like the HTML page of a proxy.
+     */
+    static String getErrorMessage(InputStream errorStream) throws IOException {
+        CapturingInputStream capturingStream = new CapturingInputStream(errorStream, ERROR_CAPTURE_LIMIT);
         try {
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            SAXParser saxParser = saxParserFactory.newSAXParser();
             ErrorHandler errorHandler = new ErrorHandler();
-            saxParser.parse(new InputSource(new StringReader(stringBuilder.toString())), errorHandler);
+            XmlParsers.parse(capturingStream, errorHandler);
             return errorHandler.errorMessage;
         } catch (ParserConfigurationException | SAXException e) {
             LOGGER.log(Level.WARNING, "Could not parse error response", e);
+        } finally {
+            capturingStream.close();
         }
 
-        // If we couldn't parse the body, return the raw response.
-        return stringBuilder.toString();
+        // If we couldn't parse the body, return the start of the raw response.
+        return capturingStream.getCaptured();
     }
 
-    public Command createIssue(String siteName, User user, String project, String title, String description, String command, File attachment) {
-        return createIssuePOST(siteName, user, project, title, description, command, attachment);
+    /**
+     * Throws an exception if the response is not a success, used by the metadata loaders so failures are not cached.
+     */
+    static void checkStatus(YouTrackTransport.Response response) throws IOException {
+        if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+            throw new IOException("YouTrack returned status " + response.getStatus() + ": " + getErrorMessage(response.getBody()));
+        }
     }
 
-    public List<Group> getGroups(User user) {
-        List<Group> groups = new ArrayList<Group>();
-        try {
-            URL url = new URL(serverUrl + "/rest/admin/group");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
+    private static String getUsername(User user) {
+        return user == null ? "" : user.getUsername();
+    }
 
-            for (String cookie : user.getCookies()) {
+    /**
+     * Copies a cached list, so callers cannot change the cached value.
+     */
+    private static <T> List<T> copy(List<T> list) {
+        return list == null ? null : new ArrayList<T>(list);
+    }
 
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
+    public Command createIssue(String siteName, User user, String project, String title, String description, String command, File attachment) {
+        return createIssuePOST(siteName, user, project, title, description, command, attachment);
+    }
 
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            try {
-                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
-                    Group.GroupListHandler dh = new Group.GroupListHandler();
-                    saxParser.parse(urlConnection.getInputStream(), dh);
-                    return dh.getGroups();
+    public List<Group> getGroups(final User user) {
+        try {
+            return copy(transport.getMetadataCache().get("groups|" + getUsername(user), new YouTrackMetadataCache.Loader<List<Group>>() {
+                public List<Group> load() throws IOException {
+                    try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/admin/group", user)) {
+                        checkStatus(response);
+                        Group.GroupListHandler dh = new Group.GroupListHandler();
+                        XmlParsers.parse(response.getBody(), dh);
+                        return dh.getGroups();
+                    } catch (ParserConfigurationException | SAXException e) {
+                        throw new IOException(e);
+                    }
                 }
-            } catch (ParserConfigurationException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            } catch (SAXException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            }
-        } catch (MalformedURLException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            }));
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            LOGGER.log(Level.WARNING, "Could not get YouTrack Groups", e);
         }
-        return groups;
+        return new ArrayList<Group>();
     }
 
     /**
@@ -120,152 +172,102 @@ public class YouTrackServer {
      */
     public StateBundle getStateBundleWithName(User user, String stateBundleName) {
         try {
-            String stateBundleUrl = serverUrl + "/rest/admin/customfield/stateBundle/" + stateBundleName;
-            URL url = new URL(stateBundleUrl);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-
-            for (String cookie : user.getCookies()) {
-
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            try {
-                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
+            String stateBundleUrl = serverUrl + "/rest/admin/customfield/stateBundle/" + encodePathSegment(stateBundleName);
+            try (YouTrackTransport.Response response = transport.get(stateBundleUrl, user)) {
+                if (response.getStatus() == HttpURLConnection.HTTP_OK) {
                     StateBundle stateBundle = new StateBundle(stateBundleName, stateBundleUrl);
                     StateBundle.StateBundleHandler dh = new StateBundle.StateBundleHandler(stateBundle);
-                    saxParser.parse(urlConnection.getInputStream(), dh);
+                    XmlParsers.parse(response.getBody(), dh);
                     return stateBundle;
-
                 }
-            } catch (ParserConfigurationException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            } catch (SAXException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
             }
-        } catch (MalformedURLException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+        } catch (ParserConfigurationException e) {
+            LOGGER.log(Level.WARNING, "Could not get YouTrack state bundle", e);
+        } catch (SAXException e) {
+            LOGGER.log(Level.WARNING, "Could not get YouTrack state bundle", e);
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            LOGGER.log(Level.WARNING, "Could not get YouTrack state bundle", e);
         }
         return null;
     }
 
-    public StateBundle getStateBundleForField(User user, String fieldName) {
+    public StateBundle getStateBundleForField(final User user, final String fieldName) {
         try {
-            String fieldUrl = serverUrl + "/rest/admin/customfield/field/" + fieldName;
-            URL url = new URL(fieldUrl);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-
-            for (String cookie : user.getCookies()) {
-
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            try {
-                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
-                    Field.FieldHandler dh = new Field.FieldHandler(fieldName, fieldUrl);
-                    saxParser.parse(urlConnection.getInputStream(), dh);
-                    Field field = dh.getField();
-
-                    if (field.getType().equals("state[1]")) {
-                        return getStateBundleWithName(user, field.getDefaultBundle());
-                    } else {
+            return transport.getMetadataCache().get("stateBundleForField|" + getUsername(user) + "|" + fieldName, new YouTrackMetadataCache.Loader<StateBundle>() {
+                public StateBundle load() throws IOException {
+                    Field field = getField(user, serverUrl + "/rest/admin/customfield/field/" + encodePathSegment(fieldName), fieldName);
+                    if (!"state[1]".equals(field.getType())) {
                         return null;
                     }
+                    StateBundle stateBundle = getStateBundleWithName(user, field.getDefaultBundle());
+                    if (stateBundle == null) {
+                        throw new IOException("Could not get state bundle " + field.getDefaultBundle());
+                    }
+                    return stateBundle;
                 }
-            } catch (ParserConfigurationException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            } catch (SAXException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            }
-        } catch (MalformedURLException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            });
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            LOGGER.log(Level.WARNING, "Could not get YouTrack field", e);
         }
         return null;
     }
 
-    public String getBuildBundleNameForField(User user, String projectId, String fieldName) {
+    public String getBuildBundleNameForField(final User user, final String projectId, final String fieldName) {
         try {
-
-            String encodedProjectId = URLEncoder.encode(projectId, "ISO-8859-1").replace("+", "%20");
-            String encodedFieldName = URLEncoder.encode(fieldName, "ISO-8859-1").replace("+", "%20");
-
-            String fieldUrl = serverUrl + "/rest/admin/project/" + encodedProjectId + "/customfield/" + encodedFieldName;
-            URL url = new URL(fieldUrl);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-
-            for (String cookie : user.getCookies()) {
-
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            try {
-                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
-                    Field.FieldHandler dh = new Field.FieldHandler(fieldName, fieldUrl);
-                    saxParser.parse(urlConnection.getInputStream(), dh);
-                    Field field = dh.getField();
-
-                    if (field.getType().equals("build[1]")) {
+            return transport.getMetadataCache().get("buildBundleNameForField|" + getUsername(user) + "|" + projectId + "|" + fieldName, new YouTrackMetadataCache.Loader<String>() {
+                public String load() throws IOException {
+                    Field field = getField(user, serverUrl + "/rest/admin/project/" + encodePathSegment(projectId) + "/customfield/" + encodePathSegment(fieldName), fieldName);
+                    if ("build[1]".equals(field.getType())) {
                         return field.getDefaultBundle();
                     } else {
                         return null;
                     }
                 }
-            } catch (ParserConfigurationException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            } catch (SAXException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            }
-        } catch (MalformedURLException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            });
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            LOGGER.log(Level.WARNING, "Could not get YouTrack field", e);
         }
         return null;
     }
 
-    public List<Field> getFields(User user) {
-        List<Field> fields = new ArrayList<Field>();
-        try {
-            URL url = new URL(serverUrl + "/rest/admin/customfield/field/");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-
-            for (String cookie : user.getCookies()) {
-
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
+    /**
+     * Gets the definition of a custom field.
+     *
+     * @param user      the user.
+     * @param fieldUrl  the url of the field.
+     * @param fieldName the name of the field.
+     * @return the field.
+     * @throws IOException if the field could not be fetched.
+     */
+    private Field getField(User user, String fieldUrl, String fieldName) throws IOException {
+        try (YouTrackTransport.Response response = transport.get(fieldUrl, user)) {
+            checkStatus(response);
+            Field.FieldHandler dh = new Field.FieldHandler(fieldName, fieldUrl);
+            XmlParsers.parse(response.getBody(), dh);
+            return dh.getField();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
+        }
+    }
 
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            try {
-                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
-                    Field.FieldListHandler dh = new Field.FieldListHandler();
-                    saxParser.parse(urlConnection.getInputStream(), dh);
-                    return dh.getFields();
+    public List<Field> getFields(final User user) {
+        try {
+            return copy(transport.getMetadataCache().get("fields|" + getUsername(user), new YouTrackMetadataCache.Loader<List<Field>>() {
+                public List<Field> load() throws IOException {
+                    try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/admin/customfield/field/", user)) {
+                        checkStatus(response);
+                        Field.FieldListHandler dh = new Field.FieldListHandler();
+                        XmlParsers.parse(response.getBody(), dh);
+                        return dh.getFields();
+                    } catch (ParserConfigurationException | SAXException e) {
+                        throw new IOException(e);
+                    }
                 }
-            } catch (ParserConfigurationException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            } catch (SAXException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            }
-        } catch (MalformedURLException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            }));
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            LOGGER.log(Level.WARNING, "Could not get YouTrack Fields", e);
         }
-        return fields;
+        return new ArrayList<Field>();
     }
 
     /**
@@ -275,35 +277,17 @@ public class YouTrackServer {
      * @param user the user to get projects for.
      * @return the list of projects the user can see.
      */
-    public List<Project> getProjects(User user) {
+    public List<Project> getProjects(final User user) {
         try {
-            URL url = new URL(serverUrl + "/rest/project/all");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-
-            for (String cookie : user.getCookies()) {
-
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-
-            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-            try {
-                SAXParser saxParser = saxParserFactory.newSAXParser();
-                Project.ProjectListHandler dh = new Project.ProjectListHandler();
-                saxParser.parse(urlConnection.getInputStream(), dh);
-                return dh.getProjects();
-            } catch (ParserConfigurationException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            } catch (SAXException e) {
-                LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
-            }
-        } catch (MalformedURLException e) {
-            LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
+            return copy(transport.getMetadataCache().get("projects|" + getUsername(user), new YouTrackMetadataCache.Loader<List<Project>>() {
+                public List<Project> load() throws IOException {
+                    return getClient().getProjects(user);
+                }
+            }));
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Could not get YouTrack Projects", e);
         }
         return null;
-
     }
 
     /**
@@ -336,38 +320,27 @@ public class YouTrackServer {
 
 
         try {
-            URL url = new URL(serverUrl + "/rest/issue/" + issue.getId() + "/execute");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setDoOutput(true);
-            urlConnection.setDoInput(true);
-
-            if (user != null) {
-                for (String cookie : user.getCookies()) {
-                    urlConnection.setRequestProperty("Cookie", cookie);
-                }
+            String form = "comment=" + URLEncoder.encode(comment, "UTF-8");
+            if (group != null && !group.equals("")) {
+                form += "&group=" + URLEncoder.encode(group, "UTF-8");
+            }
+            if (silent) {
+                form += "&disableNotifications=" + true;
             }
 
-            try (OutputStreamWriter outputStreamWriter = new OutputStreamWriter(urlConnection.getOutputStream(), StandardCharsets.UTF_8)) {
-                outputStreamWriter.write("comment=" + URLEncoder.encode(comment, "UTF-8"));
-                if (group != null && !group.equals("")) {
-                    outputStreamWriter.write("&group=" + group);
-                }
-                if (silent) {
-                    outputStreamWriter.write("&disableNotifications=" + true);
+            try (YouTrackTransport.Response response = transport.post(serverUrl + "/rest/issue/" + issue.getId() + "/execute", user, form)) {
+                if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                    command.setStatus(Command.Status.OK);
+                    return command;
+                } else {
+                    command.setStatus(Command.Status.FAILED);
+                    command.setRetryable(isServerError(response));
+                    command.setResponse(getErrorMessage(response.getBody()));
                 }
-                outputStreamWriter.flush();
-            };
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                command.setStatus(Command.Status.OK);
-                return command;
-            } else {
-                command.setStatus(Command.Status.FAILED);
-                command.setResponse(getErrorMessage(urlConnection.getErrorStream()));
             }
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Could not comment", e);
+            command.setRetryable(true);
             command.setResponse(e.getMessage());
         }
         return command;
@@ -387,63 +360,176 @@ public class YouTrackServer {
      * @return the command.
      */
     public Command applyCommand(String siteName, User user, Issue issue, String command, String comment, String group, User runAs, boolean notify) {
-        Command cmd = new Command();
-        cmd.setCommand(command);
-        cmd.setSilent(!notify);
-        cmd.setIssueId(issue.getId());
-        cmd.setSiteName(siteName);
-        cmd.setDate(new Date());
-        cmd.setStatus(Command.Status.FAILED);
-        cmd.setComment(comment);
-
-        if (user == null || !user.isLoggedIn()) {
-            cmd.setStatus(Command.Status.NOT_LOGGED_IN);
+        Command cmd = createCommand(siteName, user, issue, command, comment, notify);
+        if (cmd.getStatus() == Command.Status.NOT_LOGGED_IN) {
             return cmd;
         }
-        cmd.setUsername(user.getUsername());
         try {
+            String str = "command=" + URLEncoder.encode(command, "UTF-8");
+            if (comment != null) {
+                str += "&comment=" + URLEncoder.encode(comment, "UTF-8");
+            }
+            if (runAs != null) {
+                str += "&runAs=" + URLEncoder.encode(runAs.getUsername(), "UTF-8");
+            }
+            if (!notify) {
+                str += "&disableNotifications=true";
+            }
+            if (group != null) {
+                str += "&group=" + URLEncoder.encode(group, "UTF-8");
+            }
 
+            try (YouTrackTransport.Response response = transport.post(serverUrl + "/rest/issue/" + issue.getId() + "/execute", user, str)) {
+                if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                    cmd.setStatus(Command.Status.OK);
+                    return cmd;
+                }
 
-            URL url = new URL(serverUrl + "/rest/issue/" + issue.getId() + "/execute");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setDoOutput(true);
-            urlConnection.setDoInput(true);
-
-            for (String cookie : user.getCookies()) {
-                urlConnection.setRequestProperty("Cookie", cookie);
+                cmd.setStatus(Command.Status.FAILED);
+                cmd.setRetryable(isServerError(response));
+                cmd.setResponse(getErrorMessage(response.getBody()));
             }
+            LOGGER.log(Level.WARNING, "Could not apply command: " + cmd.getResponse());
+        } catch (IOException e) {
+            cmd.setRetryable(true);
+            cmd.setResponse(e.getMessage());
+            LOGGER.log(Level.WARNING, "Could not apply command", e);
+        }
+        return cmd;
+    }
 
-            try(OutputStreamWriter outputStreamWriter = new OutputStreamWriter(urlConnection.getOutputStream(), StandardCharsets.UTF_8)) {
-                String str = "command=" + URLEncoder.encode(command, "UTF-8");
-                if (comment != null) {
-                    str += "&comment=" + URLEncoder.encode(comment, "UTF-8");
-                }
-                if (runAs != null) {
-                    str += "&runAs=" + runAs.getUsername();
-                }
-                if (!notify) {
-                    str += "&disableNotifications=true";
+    /**
+     * Apply a command to several issues. The issues are sent in batches of {@link #COMMAND_BATCH_SIZE} to the commands
+     * API, which applies the command to all issues of a batch in one request. If a batch fails, the command is applied
+     * to the issues of the batch one by one, so each issue gets its own status. The command is also applied one by one
+     * when running as another user, when the visibility group is not found, or when the server does not have the
+     * commands API.
+     *
+     * @param siteName name of site.
+     * @param user     the user used to apply the command, shall be one with cookies set.
+     * @param issues   the issues to apply the command to.
+     * @param command  the command to apply.
+     * @param comment  comment with the command, null is allowed.
+     * @param group    the visibility group for the command.
+     * @param runAs    user to apply the command as, null is allowed.
+     * @param notify   notifies watchers.
+     * @return a command for each issue, in the order of the issues.
+     */
+    public List<Command> applyCommand(String siteName, User user, Collection<Issue> issues, String command, String comment, String group, User runAs, boolean notify) {
+        List<Issue> issueList = new ArrayList<Issue>(issues);
+        List<Command> commands = new ArrayList<Command>(issueList.size());
+        boolean bulk = issueList.size() > 1 && runAs == null && user != null && user.isLoggedIn() && transport.isBulkCommandsSupported();
+        for (int start = 0; start < issueList.size(); start += COMMAND_BATCH_SIZE) {
+            List<Issue> batch = issueList.subList(start, Math.min(start + COMMAND_BATCH_SIZE, issueList.size()));
+            if (bulk && applyCommandBatch(user, batch, command, comment, group, notify)) {
+                for (Issue issue : batch) {
+                    Command cmd = createCommand(siteName, user, issue, command, comment, notify);
+                    cmd.setStatus(Command.Status.OK);
+                    commands.add(cmd);
                 }
-                if (group != null) {
-                    str += "&group=" + URLEncoder.encode(group, "UTF-8");
+            } else {
+                for (Issue issue : batch) {
+                    commands.add(applyCommand(siteName, user, issue, command, comment, group, runAs, notify));
                 }
-                outputStreamWriter.write(str);
-                outputStreamWriter.flush();
             }
+        }
+        return commands;
+    }
 
-            int responseCode = urlConnection.getResponseCode();
+    /**
+     * Applies a command to issues in one request to the commands API.
+     *
+     * @return true if the command was applied to all the issues.
+     */
+    private boolean applyCommandBatch(User user, List<Issue> issues, String command, String comment, String group, boolean notify) {
+        JsonObject body = new JsonObject();
+        body.addProperty("query", command);
+        JsonArray issueArray = new JsonArray();
+        for (Issue issue : issues) {
+            JsonObject issueObject = new JsonObject();
+            issueObject.addProperty("idReadable", issue.getId());
+            issueArray.add(issueObject);
+        }
+        body.add("issues", issueArray);
+        if (comment != null) {
+            body.addProperty("comment", comment);
+        }
+        body.addProperty("silent", !notify);
 
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                cmd.setStatus(Command.Status.OK);
-                return cmd;
+        try {
+            if (StringUtils.isNotBlank(group)) {
+                // The commands API refers to groups by id.
+                String groupId = getGroupIds(user).get(group);
+                if (groupId == null) {
+                    LOGGER.log(Level.FINE, "Group " + group + " not found, applying command to one issue at a time");
+                    return false;
+                }
+                JsonObject groupObject = new JsonObject();
+                groupObject.addProperty("id", groupId);
+                JsonArray groups = new JsonArray();
+                groups.add(groupObject);
+                JsonObject visibility = new JsonObject();
+                visibility.addProperty("$type", "CommandLimitedVisibility");
+                visibility.add("permittedGroups", groups);
+                body.add("visibility", visibility);
             }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not get the groups, applying command to one issue at a time", e);
+            return false;
+        }
 
-            cmd.setStatus(Command.Status.FAILED);
-            cmd.setResponse(getErrorMessage(urlConnection.getErrorStream()));
-            LOGGER.log(Level.WARNING, "Could not apply command: " + cmd.getResponse());
+        try (YouTrackTransport.Response response = transport.post(serverUrl + "/api/commands", user, body.toString(), "application/json")) {
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                return true;
+            }
+            if (response.getStatus() == HttpURLConnection.HTTP_NOT_FOUND) {
+                LOGGER.log(Level.INFO, "The commands API is not available on " + serverUrl + ", applying commands to one issue at a time");
+                transport.setBulkCommandsSupported(false);
+            } else {
+                LOGGER.log(Level.FINE, "Could not apply command to " + issues.size() + " issues, status " + response.getStatus() + ", applying it to one issue at a time");
+            }
         } catch (IOException e) {
-            cmd.setResponse(e.getMessage());
-            LOGGER.log(Level.WARNING, "Could not apply command", e);
+            LOGGER.log(Level.FINE, "Could not apply command to " + issues.size() + " issues, applying it to one issue at a time", e);
+        }
+        return false;
+    }
+
+    /**
+     * Gets the ids of the groups for the JSON API, by group name.
+     */
+    private Map<String, String> getGroupIds(final User user) throws IOException {
+        return transport.getMetadataCache().get("groupIds|" + getUsername(user), new YouTrackMetadataCache.Loader<Map<String, String>>() {
+            public Map<String, String> load() throws IOException {
+                try (YouTrackTransport.Response response = transport.get(serverUrl + "/api/groups?fields=id,name&$top=-1", user)) {
+                    checkStatus(response);
+                    return JsonYouTrackClient.readGroupIds(response.getBody());
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if the server failed to handle the request, e.g. because it is down for maintenance, so the request
+     * may succeed later.
+     */
+    private static boolean isServerError(YouTrackTransport.Response response) {
+        return response.getStatus() >= HttpURLConnection.HTTP_INTERNAL_ERROR;
+    }
+
+    private static Command createCommand(String siteName, User user, Issue issue, String command, String comment, boolean notify) {
+        Command cmd = new Command();
+        cmd.setCommand(command);
+        cmd.setSilent(!notify);
+        cmd.setIssueId(issue.getId());
+        cmd.setSiteName(siteName);
+        cmd.setDate(new Date());
+        cmd.setStatus(Command.Status.FAILED);
+        cmd.setComment(comment);
+
+        if (user == null || !user.isLoggedIn()) {
+            cmd.setStatus(Command.Status.NOT_LOGGED_IN);
+        } else {
+            cmd.setUsername(user.getUsername());
         }
         return cmd;
     }
@@ -456,20 +542,10 @@ public class YouTrackServer {
      * @return the user, null if none found.
      */
     public User getUserByEmail(User user, String email) {
-        try {
-            URL url = new URL(serverUrl + "/rest/admin/user?q=" + email);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-            for (String cookie : user.getCookies()) {
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-                SAXParser saxParser = saxParserFactory.newSAXParser();
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/admin/user?q=" + URLEncoder.encode(email, "UTF-8"), user)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
                 User.UserRefHandler dh = new User.UserRefHandler();
-                saxParser.parse(urlConnection.getInputStream(), dh);
+                XmlParsers.parse(response.getBody(), dh);
                 return dh.getUser();
             }
         } catch (IOException e) {
@@ -485,41 +561,39 @@ public class YouTrackServer {
     /**
      * Logs in a user. The result is the user object with cookies set, which should
      * be used on all subsequent requests.
+     * <p></p>
+     * The session is shared with earlier logins of the same user on this server, and only logs in again when
+     * the session has expired.
      *
      * @param username the username of the user.
      * @param password the password of the user.
      * @return user, null if fails to login
      */
     public User login(String username, String password) {
+        return transport.getSessions().login(this, username, password);
+    }
 
+    /**
+     * Logs in a user without using the session cache.
+     *
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @return user, null if fails to login
+     */
+    User authenticate(String username, String password) {
         try {
             User user = new User();
             user.setUsername(username);
-            URL url = new URL(serverUrl + "/rest/user/login");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-
-            urlConnection.setDoOutput(true);
-            urlConnection.setDoInput(true);
-            try(OutputStreamWriter outputStreamWriter = new OutputStreamWriter(urlConnection.getOutputStream(), StandardCharsets.UTF_8)) {
-                outputStreamWriter.write("login=" + username + "&password=" + password);
-                outputStreamWriter.flush();
-            }
-
-            int responseCode = urlConnection.getResponseCode();
-
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                Map<String, List<String>> headerFields = urlConnection.getHeaderFields();
-                List<String> strings = headerFields.get("Set-Cookie");
-
-                for (String string : strings) {
-                    user.getCookies().add(string);
+            String form = "login=" + URLEncoder.encode(username, "UTF-8") + "&password=" + URLEncoder.encode(password, "UTF-8");
+            try (YouTrackTransport.Response response = transport.post(serverUrl + "/rest/user/login", null, form)) {
+                if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                    for (String string : response.getHeaders("Set-Cookie")) {
+                        user.getCookies().add(string);
+                    }
+                    user.setLoggedIn(true);
                 }
-                user.setLoggedIn(true);
-                return user;
-            } else {
-
-                return user;
             }
+            return user;
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "Could not login", e);
         }
@@ -548,31 +622,19 @@ public class YouTrackServer {
         }
         user.setUsername(user.getUsername());
         try {
+            String url = serverUrl + "/rest/admin/customfield/buildBundle/" + encodePathSegment(bundleName) + "/" + encodePathSegment(buildName);
+            try (YouTrackTransport.Response response = transport.put(url, user)) {
+                if (response.getStatus() == HttpURLConnection.HTTP_CREATED) {
+                    cmd.setStatus(Command.Status.OK);
+                    return cmd;
+                }
 
-            String encode = URLEncoder.encode(bundleName, "ISO-8859-1").replace("+", "%20");
-            String encode1 = URLEncoder.encode(buildName, "ISO-8859-1").replace("+", "%20");
-            URL url = new URL(serverUrl + "/rest/admin/customfield/buildBundle/" + encode + "/" + encode1);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("PUT");
-            for (String cookie : user.getCookies()) {
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-            urlConnection.setDoOutput(true);
-            urlConnection.setDoInput(true);
-            try(OutputStreamWriter outputStreamWriter = new OutputStreamWriter(urlConnection.getOutputStream(), StandardCharsets.UTF_8)) {
-                outputStreamWriter.flush();
-            };
-
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_CREATED) {
-                cmd.setStatus(Command.Status.OK);
-                return cmd;
+                cmd.setStatus(Command.Status.FAILED);
+                cmd.setRetryable(isServerError(response));
+                cmd.setResponse(getErrorMessage(response.getBody()));
             }
-
-            cmd.setStatus(Command.Status.FAILED);
-            cmd.setResponse(getErrorMessage(urlConnection.getErrorStream()));
         } catch (IOException e) {
+            cmd.setRetryable(true);
             cmd.setResponse(e.getMessage());
             LOGGER.log(Level.WARNING, "Could not add to bundle", e);
         }
@@ -580,9 +642,7 @@ public class YouTrackServer {
     }
 
     /**
-     * Gets an issue by issue id.
-     * <p></p>
-     * Currently the only value retrieved is the State field.
+     * Gets an issue by issue id, with its summary, description as HTML, resolved date and state.
      *
      * @param user       the user session.
      * @param issueId    the id of the issue.
@@ -590,102 +650,185 @@ public class YouTrackServer {
      * @return the issue if any.
      */
     public Issue getIssue(User user, String issueId, String stateField) {
-        try {
-            URL url = new URL(serverUrl + "/rest/issue/" + issueId + "?wikifyDescription=true");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            for (String cookie : user.getCookies()) {
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
+        return getClient().getIssue(user, issueId, stateField);
+    }
 
+    /**
+     * Gets several issues with one search request per {@link #ISSUE_QUERY_BATCH_SIZE} issues. Only the fields parsed by
+     * {@link Issue.IssueHandler} are filled in.
+     *
+     * @param user       the user to get the issues with.
+     * @param issueIds   the ids of the issues.
+     * @param stateField the name of the state field.
+     * @return the issues found, issues that do not exist are left out. Null if a request failed.
+     */
+    public List<Issue> getIssues(User user, Collection<String> issueIds, String stateField) {
+        return getClient().getIssues(user, issueIds, stateField, false);
+    }
 
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                try {
-                    SAXParserFactory factory = SAXParserFactory.newInstance();
-                    SAXParser saxParser = factory.newSAXParser();
-                    Issue.IssueHandler issueHandler = new Issue.IssueHandler(stateField);
-                    saxParser.parse(urlConnection.getInputStream(), issueHandler);
-                    return issueHandler.getIssue();
-                } catch (ParserConfigurationException | SAXException e) {
-                    LOGGER.log(Level.WARNING, "Could not get issue", e);
+    /**
+     * Gets several issues with their summary, description, resolved date and state, with one search request per
+     * {@link #ISSUE_QUERY_BATCH_SIZE} issues.
+     *
+     * @param user       the user to get the issues with.
+     * @param issueIds   the ids of the issues.
+     * @param stateField the name of the state field, null or empty for State.
+     * @return the issues found, issues that do not exist are left out. Null if a request failed.
+     */
+    public List<Issue> getIssueDetails(User user, Collection<String> issueIds, String stateField) {
+        String stateFieldName = stateField == null || stateField.isEmpty() ? "State" : stateField;
+        return getClient().getIssues(user, issueIds, stateFieldName, true);
+    }
+
+    /**
+     * Gets the client for the requests made most often, for the API the server supports best. The choice is made from
+     * the version of the server, and is cached with the metadata of the server, so it is made again after an upgrade
+     * once the cache expires or is cleared. When the version cannot be read, e.g. while the server is down, the XML
+     * client is used without caching the choice, so it is made again on the next call. It can be forced with the system property
+     * <code>org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServer.client</code> set to <code>xml</code> or
+     * <code>json</code>.
+     *
+     * @return the client.
+     */
+    public YouTrackClient getClient() {
+        try {
+            return transport.getMetadataCache().get("client", new YouTrackMetadataCache.Loader<YouTrackClient>() {
+                public YouTrackClient load() throws IOException {
+                    return selectClient();
                 }
+            });
+        } catch (IOException e) {
+            return new XmlYouTrackClient(serverUrl, transport);
+        }
+    }
+
+    /**
+     * @throws IOException if the version of the server could not be read, so no choice can be made.
+     */
+    private YouTrackClient selectClient() throws IOException {
+        if (CLIENT.equals("xml")) {
+            return new XmlYouTrackClient(serverUrl, transport);
+        }
+        if (!CLIENT.equals("json")) {
+            String[] version = getVersion();
+            if (version == null) {
+                throw new IOException("Could not get the version of " + serverUrl);
+            }
+            if (!isJsonApiSupported(version)) {
+                return new XmlYouTrackClient(serverUrl, transport);
             }
+        }
+        LOGGER.log(Level.FINE, "Using the JSON API of " + serverUrl);
+        return new JsonYouTrackClient(serverUrl, transport);
+    }
 
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get issue", e);
+    /**
+     * @param version the version of a server, as returned by {@link #getVersion()}.
+     * @return true if the server has the JSON API with all the fields the JSON client asks for.
+     */
+    static boolean isJsonApiSupported(String[] version) {
+        if (version == null || version.length == 0) {
+            return false;
+        }
+        try {
+            return Integer.parseInt(version[0].trim()) >= JSON_API_MIN_VERSION;
+        } catch (NumberFormatException e) {
+            return false;
         }
-        return null;
     }
 
+    /**
+     * Gets the version of the server, from the XML API, or from the JSON API on servers without the XML API.
+     *
+     * @return the parts of the version, null if it could not be fetched.
+     */
     public String[] getVersion() {
-        try {
-            URL url = new URL(serverUrl + "/rest/workflow/version");
-            try {
-                HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-                if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_OK) {
-                    SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
-                    VersionHandler versionHandler = new VersionHandler();
-                    saxParser.parse(urlConnection.getInputStream(), versionHandler);
-                    return versionHandler.version.split("\\.");
-                }
-            } catch (IOException | ParserConfigurationException | SAXException e) {
-                LOGGER.log(Level.WARNING, "Could not get version", e);
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/workflow/version", null)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                VersionHandler versionHandler = new VersionHandler();
+                XmlParsers.parse(response.getBody(), versionHandler);
+                return versionHandler.version.split("\\.");
             }
-        } catch (MalformedURLException e) {
-            LOGGER.log(Level.WARNING, "Wrong url", e);
+        } catch (IOException | ParserConfigurationException | SAXException e) {
+            LOGGER.log(Level.WARNING, "Could not get version", e);
+        }
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/api/config?fields=version", null)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+                String version = JsonYouTrackClient.readVersion(response.getBody());
+                return version != null ? version.split("\\.") : null;
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Could not get version from the JSON API", e);
         }
         return null;
     }
 
-    public List<BuildBundle> getBuildBundles(User user) {
+    public List<BuildBundle> getBuildBundles(final User user) {
         try {
-            URL url = new URL(serverUrl + "/rest/admin/customfield/buildBundle");
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            for (String cookie : user.getCookies()) {
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                try {
-                    SAXParserFactory factory = SAXParserFactory.newInstance();
-                    SAXParser saxParser = factory.newSAXParser();
-                    BuildBundle.Handler issueHandler = new BuildBundle.Handler();
-                    saxParser.parse(urlConnection.getInputStream(), issueHandler);
-                    return issueHandler.getBundles();
-                } catch (ParserConfigurationException | SAXException e) {
-                    LOGGER.log(Level.WARNING, "Could not get issue", e);
+            return copy(transport.getMetadataCache().get("buildBundles|" + getUsername(user), new YouTrackMetadataCache.Loader<List<BuildBundle>>() {
+                public List<BuildBundle> load() throws IOException {
+                    try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/admin/customfield/buildBundle", user)) {
+                        checkStatus(response);
+                        BuildBundle.Handler issueHandler = new BuildBundle.Handler();
+                        XmlParsers.parse(response.getBody(), issueHandler);
+                        return issueHandler.getBundles();
+                    } catch (ParserConfigurationException | SAXException e) {
+                        throw new IOException(e);
+                    }
                 }
-            }
-
+            }));
         } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not get issue", e);
+            LOGGER.log(Level.WARNING, "Could not get build bundles", e);
         }
         return null;
     }
 
+    /**
+     * Searches for issues, fetching all the results. Use {@link #searchPaged(User, String)} for searches that can
+     * have many results.
+     *
+     * @param user        the user to search with.
+     * @param searchQuery the query.
+     * @return the issues found, null if the search failed.
+     */
     public List<Issue> search(User user, String searchQuery) {
-        try {
-            URL url = new URL(serverUrl + "/rest/issue?filter=" + URLEncoder.encode(searchQuery, "UTF-8") + "&max=" + Integer.MAX_VALUE);
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            for (String cookie : user.getCookies()) {
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
+        PagedSearch pagedSearch = new PagedSearch(user, searchQuery);
+        List<Issue> issues = new ArrayList<Issue>();
+        for (Issue issue : pagedSearch) {
+            issues.add(issue);
+        }
+        return pagedSearch.isFailed() ? null : issues;
+    }
 
+    /**
+     * Searches for issues. The results are fetched in pages of {@link #SEARCH_PAGE_SIZE} issues while iterating, so
+     * only one page is held in memory.
+     *
+     * @param user        the user to search with.
+     * @param searchQuery the query.
+     * @return the issues found.
+     */
+    public PagedSearch searchPaged(User user, String searchQuery) {
+        return new PagedSearch(user, searchQuery);
+    }
 
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
+    /**
+     * Fetches a page of search results.
+     *
+     * @return the issues of the page, null if the request failed.
+     */
+    private List<Issue> searchPage(User user, String searchQuery, int after, int max) {
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/issue?filter=" + URLEncoder.encode(searchQuery, "UTF-8") + "&max=" + max + "&after=" + after, user)) {
+            if (response.getStatus() == HttpURLConnection.HTTP_OK) {
                 try {
-                    SAXParserFactory factory = SAXParserFactory.newInstance();
-                    SAXParser saxParser = factory.newSAXParser();
                     Issue.IssueSearchHandler issueSearchHandler = new Issue.IssueSearchHandler();
-                    saxParser.parse(urlConnection.getInputStream(), issueSearchHandler);
+                    XmlParsers.parse(response.getBody(), issueSearchHandler);
                     return issueSearchHandler.getIssueList();
                 } catch (ParserConfigurationException | SAXException e) {
                     LOGGER.log(Level.WARNING, "Could not find issues", e);
                 }
+            } else {
+                LOGGER.log(Level.WARNING, "Could not find issues: " + getErrorMessage(response.getBody()));
             }
 
         } catch (IOException e) {
@@ -694,32 +837,32 @@ public class YouTrackServer {
         return null;
     }
 
-    public List<Suggestion> searchSuggestions(User user, String current) {
-        try {
-            URL url = new URL(serverUrl + "/rest/issue/intellisense?filter=" + URLEncoder.encode(current, "UTF-8"));
-            HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
-            for (String cookie : user.getCookies()) {
-                urlConnection.setRequestProperty("Cookie", cookie);
-            }
-
-
-            int responseCode = urlConnection.getResponseCode();
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                try {
-                    SAXParserFactory factory = SAXParserFactory.newInstance();
-                    SAXParser saxParser = factory.newSAXParser();
-                    Issue.IssueSearchSuggestionHandler issueSearchHandler = new Issue.IssueSearchSuggestionHandler();
-                    saxParser.parse(urlConnection.getInputStream(), issueSearchHandler);
-                    return issueSearchHandler.getSuggestions();
-                } catch (ParserConfigurationException | SAXException e) {
-                    LOGGER.log(Level.WARNING, "Could not find issues", e);
-                }
+    /**
+     * Gets the search suggestions for a query. Suggestions are cached for a short time, and identical requests made
+     * while they are loaded wait for the same response, see {@link YouTrackIntellisenseCache}.
+     *
+     * @param user    the user to get the suggestions with.
+     * @param current the query typed so far.
+     * @return the suggestions, empty if they could not be loaded.
+     */
+    public List<Suggestion> searchSuggestions(final User user, final String current) {
+        List<Suggestion> suggestions = transport.getIntellisenseCache().get(getUsername(user) + "|" + current, new YouTrackMetadataCache.Loader<List<Suggestion>>() {
+            public List<Suggestion> load() throws IOException {
+                return loadSuggestions(user, current);
             }
+        });
+        return suggestions == null ? new ArrayList<Suggestion>() : new ArrayList<Suggestion>(suggestions);
+    }
 
-        } catch (IOException e) {
-            LOGGER.log(Level.WARNING, "Could not find issues", e);
+    private List<Suggestion> loadSuggestions(User user, String current) throws IOException {
+        try (YouTrackTransport.Response response = transport.get(serverUrl + "/rest/issue/intellisense?filter=" + URLEncoder.encode(current, "UTF-8"), user)) {
+            checkStatus(response);
+            Issue.IssueSearchSuggestionHandler issueSearchHandler = new Issue.IssueSearchSuggestionHandler();
+            XmlParsers.parse(response.getBody(), issueSearchHandler);
+            return issueSearchHandler.getSuggestions();
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
         }
-        return new ArrayList<>();
     }
 
     private Command createIssuePOST(String siteName, User user, String project, String title, String description, String command, File attachment) {
@@ -735,15 +878,9 @@ public class YouTrackServer {
 
         cmd.setStatus(Command.Status.FAILED);
         try {
-            String params = "project=" + URLEncoder.encode(project, "UTF-8") + "&summary=" + URLEncoder.encode(title, "UTF-8") + "&description=" + URLEncoder.encode(description, "UTF-8");
-
             // Against documentation. This call is supposed to be PUT, but only POST is working.
             PostMethod postMethod = new PostMethod(serverUrl + "/rest/issue");
 
-            for (String cookie : user.getCookies()) {
-                postMethod.addRequestHeader("Cookie", cookie);
-            }
-
             List<Part> parts = new ArrayList<>();
             parts.add(new StringPart("project", project, "UTF-8"));
             parts.add(new StringPart("summary", title, "UTF-8"));
@@ -755,48 +892,49 @@ public class YouTrackServer {
             Part[] array = parts.toArray(partsArray);
             postMethod.setRequestEntity(new MultipartRequestEntity(array, new HttpMethodParams()));
 
-            HttpClient httpClient = new HttpClient();
-            int responseCode = httpClient.executeMethod(postMethod);
-            // Because we're varying in the POST vs. PUT call, check for a couple possible
-            // success responses, though currently I'm only ever seeing 200 returned.
-            if (responseCode == HttpURLConnection.HTTP_CREATED || responseCode == HttpURLConnection.HTTP_OK) {
-                StringBuilder stringBuilder = new StringBuilder();
-                try(BufferedReader bufferedReader = new BufferedReader(new InputStreamReader(postMethod.getResponseBodyAsStream(), StandardCharsets.UTF_8))) {
-                    for (String l = null; (l = bufferedReader.readLine()) != null; ) {
-                        stringBuilder.append(l).append("\n");
+            try (YouTrackTransport.Response response = transport.execute(postMethod, user)) {
+                int responseCode = response.getStatus();
+                // Because we're varying in the POST vs. PUT call, check for a couple possible
+                // success responses, though currently I'm only ever seeing 200 returned.
+                if (responseCode == HttpURLConnection.HTTP_CREATED || responseCode == HttpURLConnection.HTTP_OK) {
+                    CreateIssueHandler handler = new CreateIssueHandler();
+                    try {
+                        XmlParsers.parse(response.getBody(), handler);
+                    } catch (ParserConfigurationException | SAXException e) {
+                        LOGGER.log(Level.WARNING, "Could not parse created issue", e);
+                        cmd.setCommand("[Unable to apply command]");
                     }
-                };
 
-                try {
-                    SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
-                    SAXParser saxParser = saxParserFactory.newSAXParser();
-                    CreateIssueHandler handler = new CreateIssueHandler();
-                    saxParser.parse(new InputSource(new StringReader(stringBuilder.toString())), handler);
-                    String issueId = handler.issueId;
+                    try {
+                        String issueId = handler.issueId;
 
-                    LOGGER.log(Level.INFO, "Created issue " + issueId);
+                        LOGGER.log(Level.INFO, "Created issue " + issueId);
 
-                    if (issueId != null) {
-                        Issue issue = new Issue(issueId);
-                        if (StringUtils.isNotBlank(command)) {
-                            applyCommand(siteName, user, issue, command, "", null, null, false);
-                            cmd.setCommand(command);
+                        if (issueId != null) {
+                            Issue issue = new Issue(issueId);
+                            if (StringUtils.isNotBlank(command)) {
+                                applyCommand(siteName, user, issue, command, "", null, null, false);
+                                cmd.setCommand(command);
+                            }
+                            cmd.setIssueId(issueId);
                         }
-                        cmd.setIssueId(issueId);
+                    } catch (RuntimeException e) {
+                        cmd.setCommand("[Unable to apply command]");
+                    } catch (Exception e) {
+                        cmd.setCommand("[Unable to apply command]");
                     }
-                } catch (RuntimeException e) {
-                    cmd.setCommand("[Unable to apply command]");
-                } catch (Exception e) {
-                    cmd.setCommand("[Unable to apply command]");
-                }
 
-                cmd.setStatus(Command.Status.OK);
+                    cmd.setStatus(Command.Status.OK);
 
-                return cmd;
-            }
+                    return cmd;
+                }
 
-            cmd.setResponse(getErrorMessage(postMethod.getResponseBodyAsStream()));
+                cmd.setResponse(getErrorMessage(response.getBody()));
+            }
             LOGGER.log(Level.WARNING, "Did not create issue: " + cmd.getResponse());
+        } catch (IllegalArgumentException e) {
+            cmd.setResponse(e.getMessage());
+            LOGGER.log(Level.WARNING, "Did not create issue", e);
         } catch (IOException e) {
             cmd.setResponse(e.getMessage());
             LOGGER.log(Level.WARNING, "Did not create issue", e);
@@ -804,6 +942,67 @@ public class YouTrackServer {
         return cmd;
     }
 
+    /**
+     * Encodes a value for use as a single path segment of a url.
+     */
+    private static String encodePathSegment(String value) throws UnsupportedEncodingException {
+        return URLEncoder.encode(value, "ISO-8859-1").replace("+", "%20");
+    }
+
+    /**
+     * Search results that are fetched page by page while iterating. If fetching a page fails, the iteration ends
+     * and {@link #isFailed()} returns true.
+     */
+    public class PagedSearch implements Iterable<Issue> {
+        private final User user;
+        private final String searchQuery;
+        /**
+         * True if fetching a page failed.
+         */
+        @Getter private boolean failed;
+
+        private PagedSearch(User user, String searchQuery) {
+            this.user = user;
+            this.searchQuery = searchQuery;
+        }
+
+        public Iterator<Issue> iterator() {
+            return new Iterator<Issue>() {
+                private List<Issue> page = Collections.emptyList();
+                private int index;
+                private int after;
+                private boolean lastPage;
+
+                public boolean hasNext() {
+                    while (index >= page.size() && !lastPage) {
+                        List<Issue> nextPage = searchPage(user, searchQuery, after, SEARCH_PAGE_SIZE);
+                        if (nextPage == null) {
+                            failed = true;
+                            lastPage = true;
+                        } else {
+                            page = nextPage;
+                            index = 0;
+                            after += nextPage.size();
+                            lastPage = nextPage.size() < SEARCH_PAGE_SIZE;
+                        }
+                    }
+                    return index < page.size();
+                }
+
+                public Issue next() {
+                    if (!hasNext()) {
+                        throw new NoSuchElementException();
+                    }
+                    return page.get(index++);
+                }
+
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
     private static class VersionHandler extends DefaultHandler {
         boolean inVersion = false;
         private StringBuilder stringBuilder = new StringBuilder();
@@ -0,0 +1,151 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the logged in users of a YouTrack server, so the session cookies are reused across builds and threads
+ * instead of logging in for every operation.
+ * <p></p>
+ * A session is logged in again when it expires, when the password changes, or when the server rejects its cookies.
+ * Logins for the same user are serialized, so threads hitting an expired session at the same time only cause one
+ * login.
+ */
+public class YouTrackSessionManager {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(YouTrackSessionManager.class.getName());
+    /**
+     * How long a session is reused before logging in again.
+     */
+    static final long SESSION_TIMEOUT = Long.getLong(YouTrackSessionManager.class.getName() + ".sessionTimeout", TimeUnit.MINUTES.toMillis(30));
+    /**
+     * A session younger than this is not renewed when a request is rejected, as the rejection is then most likely
+     * caused by missing permissions and not by the session.
+     */
+    static final long MIN_SESSION_AGE_FOR_RENEWAL = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Sessions by username.
+     */
+    private final Map<String, Session> sessions = new HashMap<String, Session>();
+
+    /**
+     * Gets the cached session for the user, logging in if there is none or it is no longer valid.
+     *
+     * @param server   the server to log in to.
+     * @param username the username of the user.
+     * @param password the password of the user.
+     * @return the logged in user, or the result of the failed login.
+     */
+    User login(YouTrackServer server, String username, String password) {
+        Session session = getSession(username);
+        synchronized (session) {
+            long now = currentTimeMillis();
+            if (session.user != null && password != null && password.equals(session.password) && now < session.loginTime + SESSION_TIMEOUT) {
+                return session.user;
+            }
+            User user = server.authenticate(username, password);
+            if (user != null && user.isLoggedIn()) {
+                session.user = user;
+                session.password = password;
+                session.loginTime = now;
+                session.server = server;
+            } else {
+                session.clear();
+            }
+            return user;
+        }
+    }
+
+    /**
+     * Renews the session of a user after the server rejected a request with the given cookies.
+     * If another thread already renewed the session, its cookies are used without logging in again.
+     *
+     * @param user        the user the request was sent for.
+     * @param sentCookies the cookies the rejected request was sent with.
+     * @return true if the user has new cookies and the request should be retried.
+     */
+    boolean renew(User user, List<String> sentCookies) {
+        if (user == null || user.getUsername() == null) {
+            return false;
+        }
+        Session session;
+        synchronized (sessions) {
+            session = sessions.get(user.getUsername());
+        }
+        if (session == null) {
+            return false;
+        }
+        synchronized (session) {
+            if (session.user != user) {
+                return false;
+            }
+            if (user.getCookies() != sentCookies) {
+                return true;
+            }
+            long now = currentTimeMillis();
+            if (now < session.loginTime + MIN_SESSION_AGE_FOR_RENEWAL) {
+                return false;
+            }
+            User renewed = session.server.authenticate(user.getUsername(), session.password);
+            if (renewed != null && renewed.isLoggedIn()) {
+                LOGGER.log(Level.FINE, "Renewed YouTrack session for " + user.getUsername());
+                user.replaceCookies(renewed.getCookies());
+                session.loginTime = now;
+                return true;
+            }
+            session.clear();
+            return false;
+        }
+    }
+
+    /**
+     * @return the current time in milliseconds, replaced in tests.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * Forgets all sessions. Called when the site configuration is saved and when the caches of the server are cleared.
+     */
+    public void invalidateAll() {
+        synchronized (sessions) {
+            sessions.clear();
+        }
+    }
+
+    private Session getSession(String username) {
+        synchronized (sessions) {
+            Session session = sessions.get(username);
+            if (session == null) {
+                session = new Session();
+                sessions.put(username, session);
+            }
+            return session;
+        }
+    }
+
+    /**
+     * A login session. Guarded by its own monitor.
+     */
+    private static class Session {
+        private User user;
+        private String password;
+        private long loginTime;
+        private YouTrackServer server;
+
+        private void clear() {
+            user = null;
+            password = null;
+            loginTime = 0;
+            server = null;
+        }
+    }
+}
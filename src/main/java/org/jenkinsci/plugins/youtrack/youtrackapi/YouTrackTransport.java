@@ -0,0 +1,566 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shared HTTP transport for a YouTrack server. All requests to the same server go through one bounded pool of
+ * keep-alive connections, so a build sending hundreds of requests only pays for connection setup a few times.
+ */
+public class YouTrackTransport {
+    /**
+     * Logger for this class.
+     */
+    private static final Logger LOGGER = Logger.getLogger(YouTrackTransport.class.getName());
+    /**
+     * Default timeout in milliseconds for establishing a connection.
+     */
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10 * 1000;
+    /**
+     * Default timeout in milliseconds for waiting on data from an established connection.
+     */
+    public static final int DEFAULT_READ_TIMEOUT = 60 * 1000;
+    /**
+     * Default number of connections kept in the pool for a server.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 10;
+
+    /**
+     * The transports, one per server url and settings.
+     */
+    private static final Map<String, YouTrackTransport> TRANSPORTS = new HashMap<String, YouTrackTransport>();
+
+    /**
+     * The url of the YouTrack server this transport talks to.
+     */
+    private final String serverUrl;
+    private final CountingConnectionManager connectionManager;
+    private final HttpClient httpClient;
+    /**
+     * The login sessions for this server.
+     */
+    private final YouTrackSessionManager sessions = new YouTrackSessionManager();
+    /**
+     * Cache of the projects, fields, groups and bundles of this server.
+     */
+    private final YouTrackMetadataCache metadataCache = new YouTrackMetadataCache();
+    /**
+     * Cache of the tooltips of the issues of this server.
+     */
+    private final YouTrackIssueCache issueCache = new YouTrackIssueCache();
+    /**
+     * Cache of the search suggestions of this server.
+     */
+    private final YouTrackIntellisenseCache intellisenseCache = new YouTrackIntellisenseCache();
+    /**
+     * False when the server turned out not to have the commands API for applying a command to many issues at once.
+     */
+    private volatile boolean bulkCommandsSupported = true;
+    /**
+     * Threads applying commands to issues, shared by all builds using this server.
+     */
+    private final ExecutorService commandExecutor = Executors.newCachedThreadPool(new NamingThreadFactory(new DaemonThreadFactory(), "YouTrack command dispatcher"));
+    /**
+     * Permits for applying commands to issues in parallel, shared by all builds using this server. Replaced when the
+     * maximum changes, commands already running give their permit back to the one they took it from.
+     */
+    private volatile Semaphore commandPermits = new Semaphore(1);
+    /**
+     * The number of permits of {@link #commandPermits}. Guarded by this.
+     */
+    private int maxParallelCommands = 1;
+
+    private YouTrackTransport(String serverUrl) {
+        this.serverUrl = serverUrl;
+        this.connectionManager = new CountingConnectionManager();
+        this.connectionManager.getParams().setStaleCheckingEnabled(true);
+        this.httpClient = new HttpClient(connectionManager);
+        // The cookies are per user, and are sent explicitly with each request.
+        this.httpClient.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+        configure(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Gets the shared transport with the default settings for the server with the given url, creating it if it does
+     * not exist.
+     *
+     * @param serverUrl the url of the server.
+     * @return the transport.
+     */
+    public static YouTrackTransport forServer(String serverUrl) {
+        return forServer(serverUrl, 0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Gets the shared transport for the server with the given url and settings, creating it if it does not exist.
+     * Sites with the same url and settings share the connection pool, sessions, caches and the limit of parallel
+     * commands; sites with different settings each have their own. Values that are zero or negative are replaced by
+     * the defaults.
+     *
+     * @param serverUrl           the url of the server.
+     * @param connectTimeout      timeout in milliseconds for establishing a connection.
+     * @param readTimeout         timeout in milliseconds for waiting on data.
+     * @param maxConnections      the maximum number of connections to the server.
+     * @param metadataTimeToLive  time to live of the cached metadata in milliseconds.
+     * @param maxParallelCommands the maximum number of issues commands are applied to at the same time.
+     * @return the transport.
+     */
+    public static YouTrackTransport forServer(String serverUrl, int connectTimeout, int readTimeout, int maxConnections,
+                                              long metadataTimeToLive, int maxParallelCommands) {
+        String url = normalizeUrl(serverUrl);
+        connectTimeout = connectTimeout <= 0 ? DEFAULT_CONNECT_TIMEOUT : connectTimeout;
+        readTimeout = readTimeout <= 0 ? DEFAULT_READ_TIMEOUT : readTimeout;
+        maxConnections = maxConnections <= 0 ? DEFAULT_MAX_CONNECTIONS : maxConnections;
+        metadataTimeToLive = metadataTimeToLive <= 0 ? YouTrackMetadataCache.DEFAULT_TIME_TO_LIVE : metadataTimeToLive;
+        maxParallelCommands = Math.max(1, maxParallelCommands);
+        String key = url + "|" + connectTimeout + "|" + readTimeout + "|" + maxConnections + "|" + metadataTimeToLive
+                + "|" + maxParallelCommands;
+        synchronized (TRANSPORTS) {
+            YouTrackTransport transport = TRANSPORTS.get(key);
+            if (transport == null) {
+                transport = new YouTrackTransport(url);
+                transport.configure(connectTimeout, readTimeout, maxConnections);
+                transport.getMetadataCache().setTimeToLive(metadataTimeToLive);
+                transport.setMaxParallelCommands(maxParallelCommands);
+                TRANSPORTS.put(key, transport);
+            }
+            return transport;
+        }
+    }
+
+    /**
+     * Gets the transports of the server with the given url, for all settings in use.
+     *
+     * @param serverUrl the url of the server.
+     * @return the transports, empty if there are none.
+     */
+    public static List<YouTrackTransport> getTransports(String serverUrl) {
+        String url = normalizeUrl(serverUrl);
+        List<YouTrackTransport> transports = new ArrayList<YouTrackTransport>();
+        synchronized (TRANSPORTS) {
+            for (YouTrackTransport transport : TRANSPORTS.values()) {
+                if (transport.serverUrl.equals(url)) {
+                    transports.add(transport);
+                }
+            }
+        }
+        return transports;
+    }
+
+    /**
+     * Forgets the transports not in the given ones, e.g. those of settings that were changed. Requests still using
+     * them can finish, and their connections and threads go away once they are no longer used.
+     *
+     * @param inUse the transports to keep.
+     */
+    public static void retainOnly(Collection<YouTrackTransport> inUse) {
+        synchronized (TRANSPORTS) {
+            TRANSPORTS.values().retainAll(inUse);
+        }
+    }
+
+    /**
+     * Closes the connections and stops the threads of all transports, when the plugin stops.
+     */
+    public static void shutdownAll() {
+        List<YouTrackTransport> transports;
+        synchronized (TRANSPORTS) {
+            transports = new ArrayList<YouTrackTransport>(TRANSPORTS.values());
+            TRANSPORTS.clear();
+        }
+        for (YouTrackTransport transport : transports) {
+            transport.commandExecutor.shutdown();
+            transport.metadataCache.shutdown();
+            transport.connectionManager.shutdown();
+        }
+    }
+
+    private static String normalizeUrl(String serverUrl) {
+        String url = serverUrl == null ? "" : serverUrl;
+        while (url.endsWith("/")) {
+            url = url.substring(0, url.length() - 1);
+        }
+        return url;
+    }
+
+    /**
+     * Sets the timeouts and the pool size. Values that are zero or negative are replaced by the defaults.
+     *
+     * @param connectTimeout timeout in milliseconds for establishing a connection.
+     * @param readTimeout    timeout in milliseconds for waiting on data.
+     * @param maxConnections the maximum number of connections to the server.
+     */
+    public void configure(int connectTimeout, int readTimeout, int maxConnections) {
+        if (connectTimeout <= 0) {
+            connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+        }
+        if (readTimeout <= 0) {
+            readTimeout = DEFAULT_READ_TIMEOUT;
+        }
+        if (maxConnections <= 0) {
+            maxConnections = DEFAULT_MAX_CONNECTIONS;
+        }
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setConnectionTimeout(connectTimeout);
+        params.setSoTimeout(readTimeout);
+        params.setDefaultMaxConnectionsPerHost(maxConnections);
+        params.setMaxTotalConnections(maxConnections);
+        httpClient.getParams().setSoTimeout(readTimeout);
+        httpClient.getParams().setConnectionManagerTimeout(connectTimeout);
+    }
+
+    /**
+     * Sets the maximum number of issues that commands are applied to at the same time, by all builds together.
+     *
+     * @param maxParallelCommands the maximum, 1 or less applies commands in the threads of the builds.
+     */
+    public synchronized void setMaxParallelCommands(int maxParallelCommands) {
+        maxParallelCommands = Math.max(1, maxParallelCommands);
+        if (maxParallelCommands != this.maxParallelCommands) {
+            this.maxParallelCommands = maxParallelCommands;
+            this.commandPermits = new Semaphore(maxParallelCommands);
+        }
+    }
+
+    /**
+     * @return the maximum number of issues that commands are applied to at the same time.
+     */
+    public synchronized int getMaxParallelCommands() {
+        return maxParallelCommands;
+    }
+
+    /**
+     * @return the permits for applying commands to issues in parallel, one for each issue being handled.
+     */
+    public Semaphore getCommandPermits() {
+        return commandPermits;
+    }
+
+    /**
+     * @return the threads applying commands to issues in parallel.
+     */
+    public ExecutorService getCommandExecutor() {
+        return commandExecutor;
+    }
+
+    /**
+     * Sends a GET request.
+     *
+     * @param url  the full url to get.
+     * @param user the user to send the session cookies for, null is allowed.
+     * @return the response, which must be closed.
+     * @throws IOException if the request could not be sent.
+     */
+    public Response get(String url, User user) throws IOException {
+        checkUrl(url);
+        try {
+            return execute(new GetMethod(url), user);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Not a valid YouTrack url: " + url, e);
+        }
+    }
+
+    /**
+     * Sends a POST request with a form encoded body.
+     *
+     * @param url  the full url to post to.
+     * @param user the user to send the session cookies for, null is allowed.
+     * @param form the already encoded form body.
+     * @return the response, which must be closed.
+     * @throws IOException if the request could not be sent.
+     */
+    public Response post(String url, User user, String form) throws IOException {
+        return post(url, user, form, "application/x-www-form-urlencoded");
+    }
+
+    /**
+     * Sends a POST request with a body of the given type.
+     *
+     * @param url         the full url to post to.
+     * @param user        the user to send the session cookies for, null is allowed.
+     * @param body        the body.
+     * @param contentType the content type of the body, it is sent as UTF-8.
+     * @return the response, which must be closed.
+     * @throws IOException if the request could not be sent.
+     */
+    public Response post(String url, User user, String body, String contentType) throws IOException {
+        checkUrl(url);
+        try {
+            PostMethod postMethod = new PostMethod(url);
+            postMethod.setRequestEntity(new StringRequestEntity(body, contentType, "UTF-8"));
+            return execute(postMethod, user);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Not a valid YouTrack url: " + url, e);
+        }
+    }
+
+    /**
+     * Sends a PUT request without a body.
+     *
+     * @param url  the full url to put to.
+     * @param user the user to send the session cookies for, null is allowed.
+     * @return the response, which must be closed.
+     * @throws IOException if the request could not be sent.
+     */
+    public Response put(String url, User user) throws IOException {
+        checkUrl(url);
+        try {
+            return execute(new PutMethod(url), user);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Not a valid YouTrack url: " + url, e);
+        }
+    }
+
+    /**
+     * Sends a prepared request. If the server rejects the session of the user, the session is renewed and the
+     * request is sent once more. Requests the user is not permitted to make are not retried.
+     *
+     * @param method the request.
+     * @param user   the user to send the session cookies for, null is allowed.
+     * @return the response, which must be closed.
+     * @throws IOException if the request could not be sent.
+     */
+    public Response execute(HttpMethodBase method, User user) throws IOException {
+        List<String> sentCookies = user == null ? null : user.getCookies();
+        Response response = send(method, sentCookies);
+        int status = response.getStatus();
+        if (user != null && isSessionRejected(method, status)) {
+            // Keep the body for the caller, and give the connection back before logging in again.
+            method.getResponseBody();
+            method.releaseConnection();
+            if (sessions.renew(user, sentCookies)) {
+                response = send(method, user.getCookies());
+            }
+        }
+        return response;
+    }
+
+    /**
+     * YouTrack also answers 403 when the user lacks a permission, e.g. for a run as user or a command the user may not
+     * apply. Only a 403 saying that the user is not logged in means the session is gone.
+     */
+    private static boolean isSessionRejected(HttpMethodBase method, int status) throws IOException {
+        if (status == HttpStatus.SC_UNAUTHORIZED) {
+            return true;
+        }
+        if (status != HttpStatus.SC_FORBIDDEN) {
+            return false;
+        }
+        byte[] body = method.getResponseBody();
+        if (body == null) {
+            return false;
+        }
+        String text = new String(body, StandardCharsets.UTF_8).toLowerCase(Locale.ENGLISH);
+        return text.contains("not logged in") || text.contains("login required") || text.contains("unauthenticated");
+    }
+
+    private Response send(HttpMethodBase method, List<String> cookies) throws IOException {
+        String cookieHeader = getCookieHeader(cookies);
+        if (cookieHeader != null) {
+            method.setRequestHeader("Cookie", cookieHeader);
+        }
+        try {
+            int status = httpClient.executeMethod(method);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.log(Level.FINE, method.getName() + " " + method.getPath() + " returned " + status + ", " + this);
+            }
+            return new Response(method, status);
+        } catch (IOException e) {
+            method.releaseConnection();
+            throw e;
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            method.releaseConnection();
+            throw new IOException("Could not send request to " + serverUrl, e);
+        }
+    }
+
+    private static void checkUrl(String url) throws IOException {
+        if (url == null || !(url.startsWith("http://") || url.startsWith("https://"))) {
+            throw new IOException("Not a valid YouTrack url: " + url);
+        }
+    }
+
+    /**
+     * Joins the name/value part of each Set-Cookie header into a single Cookie header.
+     */
+    private static String getCookieHeader(List<String> cookies) {
+        if (cookies == null || cookies.isEmpty()) {
+            return null;
+        }
+        StringBuilder stringBuilder = new StringBuilder();
+        for (String cookie : cookies) {
+            int attributesStart = cookie.indexOf(';');
+            String nameValue = attributesStart == -1 ? cookie : cookie.substring(0, attributesStart);
+            if (stringBuilder.length() > 0) {
+                stringBuilder.append("; ");
+            }
+            stringBuilder.append(nameValue.trim());
+        }
+        return stringBuilder.toString();
+    }
+
+    /**
+     * @return the login sessions for this server.
+     */
+    public YouTrackSessionManager getSessions() {
+        return sessions;
+    }
+
+    /**
+     * @return the cache of the projects, fields, groups and bundles of this server.
+     */
+    public YouTrackMetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+
+    /**
+     * @return the cache of the tooltips of the issues of this server.
+     */
+    public YouTrackIssueCache getIssueCache() {
+        return issueCache;
+    }
+
+    /**
+     * @return the cache of the search suggestions of this server.
+     */
+    public YouTrackIntellisenseCache getIntellisenseCache() {
+        return intellisenseCache;
+    }
+
+    /**
+     * @return false if the server is known not to support applying a command to many issues in one request.
+     */
+    boolean isBulkCommandsSupported() {
+        return bulkCommandsSupported;
+    }
+
+    void setBulkCommandsSupported(boolean bulkCommandsSupported) {
+        this.bulkCommandsSupported = bulkCommandsSupported;
+    }
+
+    /**
+     * @return the number of requests that reused an open connection from the pool.
+     */
+    public long getPoolHits() {
+        return connectionManager.hits.get();
+    }
+
+    /**
+     * @return the number of requests that had to open a new connection.
+     */
+    public long getPoolMisses() {
+        return connectionManager.misses.get();
+    }
+
+    /**
+     * @return the number of connections currently in the pool.
+     */
+    public int getConnectionsInPool() {
+        return connectionManager.getConnectionsInPool();
+    }
+
+    @Override
+    public String toString() {
+        return "connection pool for " + serverUrl + ": " + getPoolHits() + " hits, " + getPoolMisses() + " misses, "
+                + getConnectionsInPool() + " connections";
+    }
+
+    /**
+     * Response of a request. Closing it returns the connection to the pool.
+     */
+    public static class Response implements Closeable {
+        private final HttpMethodBase method;
+        private final int status;
+
+        private Response(HttpMethodBase method, int status) {
+            this.method = method;
+            this.status = status;
+        }
+
+        /**
+         * @return the HTTP status code.
+         */
+        public int getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the response body, never null.
+         * @throws IOException if the body could not be read.
+         */
+        public InputStream getBody() throws IOException {
+            InputStream inputStream = method.getResponseBodyAsStream();
+            if (inputStream == null) {
+                return new ByteArrayInputStream(new byte[0]);
+            }
+            return inputStream;
+        }
+
+        /**
+         * @param name name of the header.
+         * @return the values of all the response headers with the given name.
+         */
+        public List<String> getHeaders(String name) {
+            List<String> values = new ArrayList<String>();
+            for (Header header : method.getResponseHeaders(name)) {
+                values.add(header.getValue());
+            }
+            return values;
+        }
+
+        public void close() {
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * Connection manager counting whether the connections handed out were already open, i.e. reused from the pool.
+     */
+    private static class CountingConnectionManager extends MultiThreadedHttpConnectionManager {
+        private final AtomicLong hits = new AtomicLong();
+        private final AtomicLong misses = new AtomicLong();
+
+        @Override
+        public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout) throws ConnectionPoolTimeoutException {
+            HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+            if (connection.isOpen()) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+            return connection;
+        }
+    }
+}
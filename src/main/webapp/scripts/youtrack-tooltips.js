@@ -0,0 +1,185 @@
+/*
+ * Shows the summary and description of YouTrack issues when hovering links with a data-youtrack-issue attribute,
+ * as added to change logs by YouTrackChangeLogAnnotator. One listener on the document handles all links, and the
+ * data of all issues on the page is prefetched with one request per 100 issues to the issues endpoint of the
+ * data-youtrack-url of the links, and an issue missing from that is fetched on its own when hovered.
+ */
+(function () {
+    var issues = {};
+    var tooltip = null;
+    var current = null;
+
+    function findLink(element) {
+        while (element && element.nodeType === 1) {
+            if (element.tagName === "A" && element.getAttribute("data-youtrack-issue")) {
+                return element;
+            }
+            element = element.parentNode;
+        }
+        return null;
+    }
+
+    function escapeHtml(text) {
+        return String(text).replace(/&/g, "&amp;").replace(/</g, "&lt;").replace(/>/g, "&gt;").replace(/"/g, "&quot;");
+    }
+
+    function render(data) {
+        var title = escapeHtml(data.id) + ": " + escapeHtml(data.summary);
+        if (data.resolved != null) {
+            title = "<del>" + title + "</del>";
+        }
+        return "<h2>" + title + "</h2><p>" + (data.description ? data.description : "") + "</p>";
+    }
+
+    function getTooltip() {
+        if (tooltip == null) {
+            tooltip = document.createElement("div");
+            tooltip.className = "youtrack-tooltip";
+            tooltip.style.cssText = "position:absolute;z-index:1000;display:none;max-width:600px;padding:4px 8px;" +
+                "background:#ffffe1;border:1px solid #767676;box-shadow:2px 2px 4px rgba(0,0,0,0.3);";
+            document.body.appendChild(tooltip);
+        }
+        return tooltip;
+    }
+
+    function show(link, html) {
+        var element = getTooltip();
+        var rect = link.getBoundingClientRect();
+        var scrollX = window.pageXOffset || document.documentElement.scrollLeft;
+        var scrollY = window.pageYOffset || document.documentElement.scrollTop;
+        element.innerHTML = html;
+        element.style.left = (rect.left + scrollX) + "px";
+        element.style.top = (rect.bottom + scrollY + 4) + "px";
+        element.style.display = "block";
+    }
+
+    function hide() {
+        current = null;
+        if (tooltip != null) {
+            tooltip.style.display = "none";
+        }
+    }
+
+    var BATCH_SIZE = 100;
+
+    function key(link) {
+        return link.getAttribute("data-youtrack-url") + "|" + link.getAttribute("data-youtrack-issue");
+    }
+
+    function update(issue, html) {
+        issue.html = html;
+        issue.loading = false;
+        if (current === issue) {
+            show(issue.link, issue.html);
+        }
+    }
+
+    function get(url, callback) {
+        var request = new XMLHttpRequest();
+        request.open("GET", url, true);
+        request.onreadystatechange = function () {
+            if (request.readyState === 4) {
+                callback(request);
+            }
+        };
+        request.send(null);
+    }
+
+    function fetchOne(issue, actionUrl, id) {
+        issue.loading = true;
+        get(actionUrl + "/issue?id=" + encodeURIComponent(id), function (request) {
+            try {
+                update(issue, request.status === 200 ? render(JSON.parse(request.responseText)) : escapeHtml(request.responseText));
+            } catch (e) {
+                update(issue, escapeHtml(request.responseText));
+            }
+        });
+    }
+
+    function fetchBatch(actionUrl, ids) {
+        for (var i = 0; i < ids.length; i++) {
+            issues[actionUrl + "|" + ids[i]] = {html: null, link: null, loading: true};
+        }
+        get(actionUrl + "/issues?ids=" + ids.map(encodeURIComponent).join(","), function (request) {
+            var found = {};
+            if (request.status === 200) {
+                try {
+                    var list = JSON.parse(request.responseText);
+                    for (var j = 0; j < list.length; j++) {
+                        found[list[j].id] = list[j];
+                    }
+                } catch (e) {
+                    found = {};
+                }
+            }
+            for (var k = 0; k < ids.length; k++) {
+                var issue = issues[actionUrl + "|" + ids[k]];
+                if (found.hasOwnProperty(ids[k])) {
+                    update(issue, render(found[ids[k]]));
+                } else if (current === issue) {
+                    fetchOne(issue, actionUrl, ids[k]);
+                } else {
+                    delete issues[actionUrl + "|" + ids[k]];
+                }
+            }
+        });
+    }
+
+    function prefetch() {
+        var links = document.querySelectorAll("a[data-youtrack-issue]");
+        var pending = {};
+        var seen = {};
+        for (var i = 0; i < links.length; i++) {
+            var actionUrl = links[i].getAttribute("data-youtrack-url");
+            var id = links[i].getAttribute("data-youtrack-issue");
+            var linkKey = key(links[i]);
+            if (!actionUrl || seen.hasOwnProperty(linkKey) || issues.hasOwnProperty(linkKey)) {
+                continue;
+            }
+            seen[linkKey] = true;
+            var ids = pending.hasOwnProperty(actionUrl) ? pending[actionUrl] : (pending[actionUrl] = []);
+            ids.push(id);
+            if (ids.length === BATCH_SIZE) {
+                fetchBatch(actionUrl, ids);
+                pending[actionUrl] = [];
+            }
+        }
+        for (var url in pending) {
+            if (pending.hasOwnProperty(url) && pending[url].length > 0) {
+                fetchBatch(url, pending[url]);
+            }
+        }
+    }
+
+    function load(link) {
+        var linkKey = key(link);
+        var issue = issues.hasOwnProperty(linkKey) ? issues[linkKey] : null;
+        if (issue == null) {
+            issue = issues[linkKey] = {html: null, link: null, loading: false};
+            fetchOne(issue, link.getAttribute("data-youtrack-url"), link.getAttribute("data-youtrack-issue"));
+        }
+        issue.link = link;
+        current = issue;
+        show(link, issue.html != null ? issue.html : "Loading data...");
+    }
+
+    document.addEventListener("mouseover", function (event) {
+        var link = findLink(event.target);
+        if (link != null) {
+            load(link);
+        }
+    }, false);
+
+    document.addEventListener("mouseout", function (event) {
+        var link = findLink(event.target);
+        if (link != null && findLink(event.relatedTarget) !== link) {
+            hide();
+        }
+    }, false);
+
+    if (document.readyState === "loading") {
+        document.addEventListener("DOMContentLoaded", prefetch, false);
+    } else {
+        prefetch();
+    }
+})();
@@ -173,12 +173,12 @@ public class ExecuteCommandActionTest {
         User user = new User();
         user.setLoggedIn(true);
         doReturn(user).when(server).login("test", "test");
-        doReturn(toBeReturned).when(server).applyCommand("test", user, new Issue("YT-1"), "Fixed", "This is fixed", "", null, true);
+        doReturn(Lists.newArrayList(toBeReturned)).when(server).applyCommand("test", user, Lists.newArrayList(new Issue("YT-1")), "Fixed", "This is fixed", "", null, true);
 
         boolean perform = commandAction.perform(build, launcher, listener);
 
         assertThat(perform, is(true));
-        verify(server, times(1)).applyCommand("test", user, new Issue("YT-1"), "Fixed", "This is fixed", "", null, true);
+        verify(server, times(1)).applyCommand("test", user, Lists.newArrayList(new Issue("YT-1")), "Fixed", "This is fixed", "", null, true);
     }
 
     @Test
@@ -214,12 +214,12 @@ public class ExecuteCommandActionTest {
         User user = new User();
         user.setLoggedIn(true);
         doReturn(user).when(server).login("test", "test");
-        doReturn(new Command()).when(server).applyCommand("test", user, new Issue("XYZ-123"), "Fixed", "This is fixed", "", null, true);
+        doReturn(Lists.newArrayList(new Command())).when(server).applyCommand("test", user, Lists.newArrayList(new Issue("XYZ-123")), "Fixed", "This is fixed", "", null, true);
 
         boolean perform = commandAction.perform(build, launcher, listener);
 
         assertThat(perform, is(true));
-        verify(server, times(1)).applyCommand("test", user, new Issue("XYZ-123"), "Fixed", "This is fixed", "", null, true);
+        verify(server, times(1)).applyCommand("test", user, Lists.newArrayList(new Issue("XYZ-123")), "Fixed", "This is fixed", "", null, true);
     }
 
     @Test
@@ -251,20 +251,21 @@ public class ExecuteCommandActionTest {
         doReturn(loggerStream).when(listener).getLogger();
         doReturn(site).when(commandAction).getYouTrackSite(build);
         doReturn(server).when(commandAction).getYouTrackServer(site);
-        doReturn(foundIssues).when(server).search(user, "Version: 1");
+        YouTrackServer.PagedSearch searchResult = mock(YouTrackServer.PagedSearch.class);
+        doReturn(foundIssues.iterator()).when(searchResult).iterator();
+        doReturn(false).when(searchResult).isFailed();
+        doReturn(searchResult).when(server).searchPaged(user, "Version: 1");
         doReturn(envVars).when(build).getEnvironment(listener);
         doReturn(projectShortNamesAction).when(build).getAction(YouTrackSaveProjectShortNamesAction.class);
 
         doReturn(user).when(server).login("test", "test");
         Command toBeReturned = new Command();
-        doReturn(toBeReturned).when(server).applyCommand("test", user, new Issue("YT-2"), "Version: 2", "Upgrade versions", "", null, true);
-        doReturn(toBeReturned).when(server).applyCommand("test", user, new Issue("YT-3"), "Version: 2", "Upgrade versions", "", null, true);
+        doReturn(Lists.newArrayList(toBeReturned, toBeReturned)).when(server).applyCommand("test", user, foundIssues, "Version: 2", "Upgrade versions", "", null, true);
 
         boolean perform = commandAction.perform(build, launcher, listener);
 
         assertThat(perform, is(true));
-        verify(server, times(1)).applyCommand("test", user, new Issue("YT-2"), "Version: 2", "Upgrade versions", "", null, true);
-        verify(server, times(1)).applyCommand("test", user, new Issue("YT-3"), "Version: 2", "Upgrade versions", "", null, true);
+        verify(server, times(1)).applyCommand("test", user, foundIssues, "Version: 2", "Upgrade versions", "", null, true);
 
         verify(build, times(1)).addAction(any(Action.class));
 
@@ -0,0 +1,54 @@
+package org.jenkinsci.plugins.youtrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class IssueReferenceScannerTest {
+
+    private static List<String> scan(String text, boolean wholeWord, String... shortNames) {
+        List<String> result = new ArrayList<String>();
+        for (IssueReferenceScanner.IssueReference reference : IssueReferenceScanner.forShortNames(Arrays.asList(shortNames)).scan(text, wholeWord)) {
+            result.add(reference.getIssueId() + "@" + reference.getStart() + "-" + reference.getEnd());
+        }
+        return result;
+    }
+
+    @Test
+    public void testFindsReferencesOfAllProjects() {
+        List<String> references = scan("TP-1 fixed, see also #OTHER-22 and TP-333.", true, "TP", "OTHER");
+        assertThat(references, is(Arrays.asList("TP-1@0-4", "OTHER-22@22-30", "TP-333@35-41")));
+    }
+
+    @Test
+    public void testWholeWordRequiresBoundary() {
+        assertThat(scan("XTP-1 _TP-2 1TP-3", true, "TP"), is(new ArrayList<String>()));
+        assertThat(scan("XTP-1 _TP-2 1TP-3", false, "TP"), is(Arrays.asList("TP-1@1-5", "TP-2@7-11", "TP-3@13-17")));
+    }
+
+    @Test
+    public void testRequiresDigitsAfterDash() {
+        assertThat(scan("TP- TP-x TP TP-7b", true, "TP"), is(Arrays.asList("TP-7@12-16")));
+    }
+
+    @Test
+    public void testShortNamePrefixOfAnother() {
+        assertThat(scan("A-1 AB-2 B-3", true, "A", "AB"), is(Arrays.asList("A-1@0-3", "AB-2@4-8")));
+    }
+
+    @Test
+    public void testAdjacentReferences() {
+        assertThat(scan("A-1,A-2-A-3", true, "A"), is(Arrays.asList("A-1@0-3", "A-2@4-7", "A-3@8-11")));
+    }
+
+    @Test
+    public void testScannerIsCachedPerShortNames() {
+        assertTrue(IssueReferenceScanner.forShortNames(Arrays.asList("A", "B")) == IssueReferenceScanner.forShortNames(Arrays.asList("B", "A")));
+    }
+}
@@ -0,0 +1,179 @@
+package org.jenkinsci.plugins.youtrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.jenkinsci.plugins.youtrack.RevisionIds.sha;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessedRevisionJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReplayDropsTornRecord() throws Exception {
+        File file = folder.newFile("processed.journal");
+        ProcessedRevisionJournal journal = new ProcessedRevisionJournal(file, false);
+        journal.append(ProcessedRevisionTable.toKey(sha(1)), 1, 0);
+        journal.append(ProcessedRevisionTable.toKey(sha(2)), 2, 0);
+        journal.close();
+
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+            randomAccessFile.setLength(file.length() - 3);
+        }
+
+        final List<byte[]> keys = new ArrayList<byte[]>();
+        journal = new ProcessedRevisionJournal(file, false);
+        assertThat(journal.replay(new ProcessedRevisionTable.EntryVisitor() {
+            public void visit(byte[] key, int buildNumber, int minute) {
+                keys.add(key.clone());
+            }
+        }), is(1L));
+        journal.close();
+        assertThat(keys.size(), is(1));
+        assertArrayEquals(ProcessedRevisionTable.toKey(sha(1)), keys.get(0));
+        assertThat(file.length(), is(32L));
+    }
+
+    @Test
+    public void testConcurrentAppendsAreAllReplayed() throws Exception {
+        File file = folder.newFile("processed.journal");
+        final AtomicInteger writes = new AtomicInteger();
+        final ProcessedRevisionJournal journal = new ProcessedRevisionJournal(file, true) {
+            @Override
+            void write(ByteBuffer buffer) throws IOException {
+                writes.incrementAndGet();
+                super.write(buffer);
+            }
+        };
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 250; i++) {
+                            journal.append(ProcessedRevisionTable.toKey(sha(thread * 1000 + i)), thread, i);
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertThat(journal.getRecords(), is(2000L));
+        assertTrue(writes.get() <= 2000);
+        journal.close();
+
+        final Set<Integer> replayed = new HashSet<Integer>();
+        ProcessedRevisionJournal reopened = new ProcessedRevisionJournal(file, true);
+        assertThat(reopened.replay(new ProcessedRevisionTable.EntryVisitor() {
+            public void visit(byte[] key, int buildNumber, int minute) {
+                assertArrayEquals(ProcessedRevisionTable.toKey(sha(buildNumber * 1000 + minute)), key);
+                replayed.add(buildNumber * 1000 + minute);
+            }
+        }), is(2000L));
+        assertThat(reopened.getRecords(), is(2000L));
+        reopened.close();
+        assertThat(replayed.size(), is(2000));
+    }
+
+    @Test
+    public void testFailedBatchOnlyFailsItsOwnRecords() throws Exception {
+        File file = folder.newFile("processed.journal");
+        final CountDownLatch firstBatchStarted = new CountDownLatch(1);
+        final CountDownLatch failFirstBatch = new CountDownLatch(1);
+        final AtomicBoolean first = new AtomicBoolean(true);
+        final ProcessedRevisionJournal journal = new ProcessedRevisionJournal(file, false) {
+            @Override
+            void write(ByteBuffer buffer) throws IOException {
+                if (first.getAndSet(false)) {
+                    firstBatchStarted.countDown();
+                    try {
+                        failFirstBatch.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    throw new IOException("Disk full");
+                }
+                super.write(buffer);
+            }
+        };
+        final List<String> outcomes = Collections.synchronizedList(new ArrayList<String>());
+        Thread failing = appendInThread(journal, 1, outcomes);
+        firstBatchStarted.await();
+        List<Thread> waiting = new ArrayList<Thread>();
+        waiting.add(appendInThread(journal, 2, outcomes));
+        waiting.add(appendInThread(journal, 3, outcomes));
+        // Both wait for the failing batch to be written, so they go into the next batch.
+        for (Thread thread : waiting) {
+            while (thread.getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+        }
+        failFirstBatch.countDown();
+        failing.join();
+        for (Thread thread : waiting) {
+            thread.join();
+        }
+
+        assertTrue(outcomes.toString(), outcomes.contains("1 failed"));
+        assertTrue(outcomes.toString(), outcomes.contains("2 written"));
+        assertTrue(outcomes.toString(), outcomes.contains("3 written"));
+        assertThat(journal.getRecords(), is(2L));
+        journal.close();
+
+        final List<Integer> replayed = new ArrayList<Integer>();
+        ProcessedRevisionJournal reopened = new ProcessedRevisionJournal(file, false);
+        reopened.replay(new ProcessedRevisionTable.EntryVisitor() {
+            public void visit(byte[] key, int buildNumber, int minute) {
+                replayed.add(buildNumber);
+            }
+        });
+        reopened.close();
+        Collections.sort(replayed);
+        assertThat(replayed.toString(), is("[2, 3]"));
+    }
+
+    private static Thread appendInThread(final ProcessedRevisionJournal journal, final int buildNumber, final List<String> outcomes) {
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    journal.append(ProcessedRevisionTable.toKey(sha(buildNumber)), buildNumber, 0);
+                    outcomes.add(buildNumber + " written");
+                } catch (IOException e) {
+                    outcomes.add(buildNumber + " failed");
+                }
+            }
+        };
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.youtrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.core.Is.is;
+import static org.jenkinsci.plugins.youtrack.RevisionIds.sha;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ProcessedRevisionTableTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAddAndContains() throws Exception {
+        ProcessedRevisionTable table = new ProcessedRevisionTable(folder.newFolder());
+        assertTrue(table.add(ProcessedRevisionTable.toKey("8b0a3e1f2c0d9e8f7a6b5c4d3e2f1a0b9c8d7e6f"), 1, 0));
+        assertFalse(table.add(ProcessedRevisionTable.toKey("8B0A3E1F2C0D9E8F7A6B5C4D3E2F1A0B9C8D7E6F"), 1, 0));
+        assertTrue(table.add(ProcessedRevisionTable.toKey("1234"), 1, 0));
+        assertTrue(table.add(ProcessedRevisionTable.toKey(sha(0)), 1, 0));
+
+        assertTrue(table.contains(ProcessedRevisionTable.toKey("8b0a3e1f2c0d9e8f7a6b5c4d3e2f1a0b9c8d7e6f")));
+        assertTrue(table.contains(ProcessedRevisionTable.toKey("1234")));
+        assertTrue(table.contains(ProcessedRevisionTable.toKey(sha(0))));
+        assertFalse(table.contains(ProcessedRevisionTable.toKey("12345")));
+        assertThat(table.size(), is(3));
+    }
+
+    @Test
+    public void testGrowsAndReopens() throws Exception {
+        File directory = folder.newFolder();
+        ProcessedRevisionTable table = new ProcessedRevisionTable(directory);
+        for (int i = 1; i <= 5000; i++) {
+            table.add(ProcessedRevisionTable.toKey(sha(i)), i, 0);
+        }
+        assertThat(table.size(), is(5000));
+        assertTrue(table.getCapacity() > 5000);
+        table.close();
+
+        table = new ProcessedRevisionTable(directory);
+        assertThat(table.size(), is(5000));
+        for (int i = 1; i <= 5000; i++) {
+            assertTrue(table.contains(ProcessedRevisionTable.toKey(sha(i))));
+        }
+        assertFalse(table.contains(ProcessedRevisionTable.toKey(sha(5001))));
+        assertThat(directory.list().length, is(1));
+    }
+
+    @Test
+    public void testRetainRemovesEntries() throws Exception {
+        File directory = folder.newFolder();
+        ProcessedRevisionTable table = new ProcessedRevisionTable(directory);
+        for (int i = 1; i <= 5000; i++) {
+            table.add(ProcessedRevisionTable.toKey(sha(i)), i, i);
+        }
+        int removed = table.retain(new ProcessedRevisionTable.EntryFilter() {
+            public boolean retain(int buildNumber, int minute) {
+                return buildNumber > 4900;
+            }
+        });
+        assertThat(removed, is(4900));
+        assertThat(table.size(), is(100));
+        assertThat(table.getCapacity(), is(1024));
+        assertFalse(table.contains(ProcessedRevisionTable.toKey(sha(4900))));
+        assertTrue(table.contains(ProcessedRevisionTable.toKey(sha(4901))));
+        table.close();
+
+        table = new ProcessedRevisionTable(directory);
+        assertThat(table.size(), is(100));
+        assertTrue(table.contains(ProcessedRevisionTable.toKey(sha(5000))));
+        assertThat(directory.list().length, is(1));
+    }
+}
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.youtrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.hamcrest.core.Is.is;
+import static org.jenkinsci.plugins.youtrack.RevisionIds.sha;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class RevisionBloomFilterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] key(int i) {
+        return ProcessedRevisionTable.toKey(sha(i));
+    }
+
+    @Test
+    public void testNoFalseNegativesAndFewFalsePositives() {
+        RevisionBloomFilter filter = RevisionBloomFilter.create(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.put(key(i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(key(i)));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (filter.mightContain(key(i))) {
+                falsePositives++;
+            }
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 2000);
+        assertTrue(filter.getFalsePositiveRate() > 0.005 && filter.getFalsePositiveRate() < 0.02);
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        RevisionBloomFilter filter = RevisionBloomFilter.create(1000, 0.01);
+        filter.put(key(1));
+        File file = new File(folder.getRoot(), "processed.bloom");
+        filter.writeTo(file);
+
+        RevisionBloomFilter read = RevisionBloomFilter.readFrom(file);
+        assertTrue(read.mightContain(key(1)));
+        assertFalse(read.mightContain(key(2)));
+        assertThat(read.getInsertions(), is(1L));
+        assertThat(read.getMemorySize(), is(filter.getMemorySize()));
+    }
+}
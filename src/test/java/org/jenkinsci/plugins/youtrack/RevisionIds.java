@@ -0,0 +1,17 @@
+package org.jenkinsci.plugins.youtrack;
+
+/**
+ * Revision ids for the tests of the processed revisions.
+ */
+public class RevisionIds {
+    private RevisionIds() {
+    }
+
+    /**
+     * @param i the number of the revision.
+     * @return a 40 character hex id, different for each number.
+     */
+    public static String sha(int i) {
+        return String.format("%040x", (long) i * 2654435761L);
+    }
+}
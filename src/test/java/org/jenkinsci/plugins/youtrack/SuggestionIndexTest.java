@@ -0,0 +1,33 @@
+package org.jenkinsci.plugins.youtrack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+public class SuggestionIndexTest {
+    private final SuggestionIndex index = new SuggestionIndex(Arrays.asList("Fix versions", "Affected versions", "State", "Subsystem", "Fixed in build", null, "State", "Priority"));
+
+    @Test
+    public void testPrefixMatchesComeFirst() {
+        assertThat(index.find("st"), is(Arrays.asList("State", "Subsystem")));
+        assertThat(index.find("t"), is(Arrays.asList("Affected versions", "State", "Subsystem", "Priority")));
+    }
+
+    @Test
+    public void testFindsSubstringsIgnoringCase() {
+        assertThat(index.find("VERS"), is(Arrays.asList("Fix versions", "Affected versions")));
+        assertThat(index.find("ed in b"), is(Arrays.asList("Fixed in build")));
+        assertThat(index.find("zzz"), is(new ArrayList<String>()));
+    }
+
+    @Test
+    public void testEmptyValueFindsAll() {
+        assertThat(index.find(""), is(Arrays.asList("Fix versions", "Affected versions", "State", "Subsystem", "Fixed in build", "Priority")));
+        assertThat(index.find(null).size(), is(6));
+        assertThat(index.getSize(), is(6));
+    }
+}
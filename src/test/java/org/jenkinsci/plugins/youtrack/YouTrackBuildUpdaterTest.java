@@ -20,6 +20,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Collections;
 
 import static org.hamcrest.core.IsEqual.equalTo;
 import static org.junit.Assert.assertThat;
@@ -128,7 +129,7 @@ public class YouTrackBuildUpdaterTest {
         when(youTrackServer.addBuildToBundle("site", user, "Build Bundle", "${BUILD_NUMBER}")).thenReturn(command);
         Command command1 = new Command();
         command1.setStatus(Command.Status.OK);
-        when(youTrackServer.applyCommand("site", user, e, "Fixed in build: ${BUILD_NUMBER}", null, null, null, true)).thenReturn(command1);
+        when(youTrackServer.applyCommand("site", user, issues, "Fixed in build: ${BUILD_NUMBER}", null, null, null, true)).thenReturn(Collections.singletonList(command1));
         user.setUsername("user");
         user.setLoggedIn(true);
         doReturn(user).when(youTrackServer).login("user","password");
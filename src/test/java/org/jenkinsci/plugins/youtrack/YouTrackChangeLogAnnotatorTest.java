@@ -152,8 +152,7 @@ public class YouTrackChangeLogAnnotatorTest {
 
         youTrackChangeLogAnnotator.annotate(build, entry, markupText);
 
-        assertFalse(markupText.toString(false).equals("ISSUE-1"));
-        //TODO: Should probably also check the generated js
+        assertEquals("<a href=\"http://example.com/issue/ISSUE-1\" data-youtrack-issue=\"ISSUE-1\" data-youtrack-url=\"http://jenkins.example.com/1/youtrack\">ISSUE-1</a>", markupText.toString(false));
     }
 
     /**
@@ -277,4 +276,27 @@ public class YouTrackChangeLogAnnotatorTest {
         assertFalse(markupText.toString(false).equals("ISSUE-1"));
         //TODO: Should probably also check the generated js
     }
-}
\ No newline at end of file
+
+    /**
+     * Tests that the scanner of a project is reused, and replaced when the last successful build has other short names.
+     */
+    @Test
+    public void testScannerCachedPerProject() {
+        Project project = mock(Project.class);
+        ArrayList<org.jenkinsci.plugins.youtrack.youtrackapi.Project> projects = new ArrayList<org.jenkinsci.plugins.youtrack.youtrackapi.Project>();
+        org.jenkinsci.plugins.youtrack.youtrackapi.Project youtrackProject = new org.jenkinsci.plugins.youtrack.youtrackapi.Project();
+        youtrackProject.setShortName("ISSUE");
+        projects.add(youtrackProject);
+
+        IssueReferenceScanner scanner = YouTrackChangeLogAnnotator.getScanner(project, new YouTrackSaveProjectShortNamesAction(projects));
+        assertSame(scanner, YouTrackChangeLogAnnotator.getScanner(project, new YouTrackSaveProjectShortNamesAction(projects)));
+        assertEquals(1, scanner.scan("ISSUE-1 OTHER-2", true).size());
+
+        org.jenkinsci.plugins.youtrack.youtrackapi.Project otherProject = new org.jenkinsci.plugins.youtrack.youtrackapi.Project();
+        otherProject.setShortName("OTHER");
+        projects.add(otherProject);
+        IssueReferenceScanner newScanner = YouTrackChangeLogAnnotator.getScanner(project, new YouTrackSaveProjectShortNamesAction(projects));
+        assertNotSame(scanner, newScanner);
+        assertEquals(2, newScanner.scan("ISSUE-1 OTHER-2", true).size());
+    }
+}
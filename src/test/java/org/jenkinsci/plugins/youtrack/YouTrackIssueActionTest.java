@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.youtrack;
 
 import org.jenkinsci.plugins.youtrack.youtrackapi.Issue;
 import org.jenkinsci.plugins.youtrack.youtrackapi.User;
+import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackIssueCache;
 import org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServer;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -15,17 +16,25 @@ import org.powermock.modules.junit4.PowerMockRunner;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 
 import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
 
 import hudson.model.FreeStyleProject;
 import hudson.util.Secret;
 
 import static org.hamcrest.core.IsEqual.equalTo;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 @RunWith(PowerMockRunner.class)
@@ -102,6 +111,7 @@ public class YouTrackIssueActionTest {
 
         doReturn(youTrackSite).when(youTrackIssueAction).getYouTrackSite();
         doReturn(youTrackServer).when(youTrackIssueAction).getYouTrackServer(youTrackSite);
+        doReturn(new YouTrackIssueCache()).when(youTrackIssueAction).getIssueCache(youTrackSite);
         doReturn("ISSUE-1").when(request).getParameter("id");
 
         User user = new User();
@@ -143,4 +153,105 @@ public class YouTrackIssueActionTest {
 
         assertThat(actual, equalTo(expected));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testIssuesInOneRequest() throws IOException, ServletException {
+        FreeStyleProject project = mock(FreeStyleProject.class);
+        StaplerRequest request = mock(StaplerRequest.class);
+        StaplerResponse response = mock(StaplerResponse.class);
+        YouTrackServer youTrackServer = mock(YouTrackServer.class);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintWriter printWriter = new PrintWriter(out);
+        when(response.getWriter()).thenReturn(printWriter);
+
+        YouTrackIssueAction youTrackIssueAction = spy(new YouTrackIssueAction(project));
+        Secret secret = PowerMockito.mock(Secret.class);
+        when(secret.getPlainText()).thenReturn("password");
+        YouTrackSite youTrackSite = new YouTrackSite("site", "user", secret, "http://www.example.com");
+        youTrackSite.setPluginEnabled(true);
+        youTrackSite.setStateFieldName("State");
+
+        doReturn(youTrackSite).when(youTrackIssueAction).getYouTrackSite();
+        doReturn(youTrackServer).when(youTrackIssueAction).getYouTrackServer(youTrackSite);
+        YouTrackIssueCache issueCache = new YouTrackIssueCache();
+        issueCache.put("site|user|ISSUE-3|State", "{\"id\":\"ISSUE-3\"}");
+        doReturn(issueCache).when(youTrackIssueAction).getIssueCache(youTrackSite);
+        doReturn("ISSUE-1, ISSUE-3,ISSUE-2,ISSUE-1").when(request).getParameter("ids");
+
+        User user = new User();
+        user.setLoggedIn(true);
+        user.setUsername("user");
+        when(youTrackServer.login("user", "password")).thenReturn(user);
+        Issue issue = new Issue("ISSUE-1");
+        issue.setSummary("Summary of issue");
+        issue.setState("Fixed");
+        when(youTrackServer.getIssueDetails(user, new LinkedHashSet<String>(Arrays.asList("ISSUE-1", "ISSUE-2")), "State")).thenReturn(Collections.singletonList(issue));
+
+        HttpResponse httpResponse = youTrackIssueAction.doIssues();
+        httpResponse.generateResponse(request, response, null);
+        printWriter.flush();
+        assertThat(out.toString().trim(), equalTo("[{\"id\":\"ISSUE-1\",\"state\":\"Fixed\",\"summary\":\"Summary of issue\"},{\"id\":\"ISSUE-3\"}]"));
+        assertNotNull(issueCache.get("site|user|ISSUE-1|State"));
+    }
+
+    @Test
+    public void testCachedIssueNotModified() throws IOException, ServletException {
+        FreeStyleProject project = mock(FreeStyleProject.class);
+        StaplerRequest request = mock(StaplerRequest.class);
+        StaplerResponse response = mock(StaplerResponse.class);
+        YouTrackServer youTrackServer = mock(YouTrackServer.class);
+
+        YouTrackIssueAction youTrackIssueAction = spy(new YouTrackIssueAction(project));
+        Secret secret = PowerMockito.mock(Secret.class);
+        YouTrackSite youTrackSite = new YouTrackSite("site", "user", secret, "http://www.example.com");
+        youTrackSite.setPluginEnabled(true);
+        youTrackSite.setStateFieldName("State");
+
+        YouTrackIssueCache issueCache = new YouTrackIssueCache();
+        YouTrackIssueCache.Entry entry = issueCache.put("site|user|ISSUE-1|State", "{\"id\":\"ISSUE-1\"}");
+        doReturn(youTrackSite).when(youTrackIssueAction).getYouTrackSite();
+        doReturn(youTrackServer).when(youTrackIssueAction).getYouTrackServer(youTrackSite);
+        doReturn(issueCache).when(youTrackIssueAction).getIssueCache(youTrackSite);
+        doReturn("ISSUE-1").when(request).getParameter("id");
+        doReturn(entry.getEtag()).when(request).getHeader("If-None-Match");
+
+        HttpResponse httpResponse = youTrackIssueAction.doIssue();
+        httpResponse.generateResponse(request, response, null);
+        verify(response).setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+        verify(response, never()).getWriter();
+        verifyZeroInteractions(youTrackServer);
+        assertThat(issueCache.getHits(), equalTo(1L));
+    }
+
+    @Test
+    public void testCachedIssueNotSharedBetweenUsers() throws IOException, ServletException {
+        FreeStyleProject project = mock(FreeStyleProject.class);
+        StaplerRequest request = mock(StaplerRequest.class);
+        StaplerResponse response = mock(StaplerResponse.class);
+        YouTrackServer youTrackServer = mock(YouTrackServer.class);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintWriter printWriter = new PrintWriter(out);
+        when(response.getWriter()).thenReturn(printWriter);
+
+        YouTrackIssueAction youTrackIssueAction = spy(new YouTrackIssueAction(project));
+        Secret secret = PowerMockito.mock(Secret.class);
+        when(secret.getPlainText()).thenReturn("password");
+        YouTrackSite youTrackSite = new YouTrackSite("other", "other", secret, "http://www.example.com");
+        youTrackSite.setPluginEnabled(true);
+        youTrackSite.setStateFieldName("State");
+
+        YouTrackIssueCache issueCache = new YouTrackIssueCache();
+        issueCache.put("site|user|ISSUE-1|State", "{\"id\":\"ISSUE-1\"}");
+        doReturn(youTrackSite).when(youTrackIssueAction).getYouTrackSite();
+        doReturn(youTrackServer).when(youTrackIssueAction).getYouTrackServer(youTrackSite);
+        doReturn(issueCache).when(youTrackIssueAction).getIssueCache(youTrackSite);
+        doReturn("ISSUE-1").when(request).getParameter("id");
+
+        HttpResponse httpResponse = youTrackIssueAction.doIssue();
+        httpResponse.generateResponse(request, response, null);
+        verify(youTrackServer).login("other", "password");
+        assertThat(issueCache.getHits(), equalTo(0L));
+    }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.youtrack;
+
+import hudson.model.AbstractBuild;
+import hudson.model.FreeStyleBuild;
+import hudson.util.Secret;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.util.Arrays;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Secret.class})
+public class YouTrackOutboxTest {
+    private static Command command(Command.Status status, boolean retryable) {
+        Command command = new Command();
+        command.setStatus(status);
+        command.setRetryable(retryable);
+        return command;
+    }
+
+    @Test
+    public void testDeferOnlyRetryableFailures() {
+        Secret secret = PowerMockito.mock(Secret.class);
+        YouTrackSite site = new YouTrackSite("site", "user", secret, "http://example.com");
+        site.setRetryFailedCommands(true);
+
+        assertTrue(YouTrackOutbox.isDeferrable(site, command(Command.Status.FAILED, true)));
+        assertTrue(YouTrackOutbox.isDeferrable(site, command(Command.Status.NOT_LOGGED_IN, false)));
+        assertFalse(YouTrackOutbox.isDeferrable(site, command(Command.Status.FAILED, false)));
+        assertFalse(YouTrackOutbox.isDeferrable(site, command(Command.Status.OK, true)));
+
+        site.setRetryFailedCommands(false);
+        assertFalse(YouTrackOutbox.isDeferrable(site, command(Command.Status.FAILED, true)));
+    }
+
+    @Test
+    public void testBackoffDoublesUpToMaximum() {
+        assertThat(YouTrackOutbox.getRetryDelay(1), is(Math.min(YouTrackOutbox.MAX_DELAY, YouTrackOutbox.INITIAL_DELAY)));
+        assertThat(YouTrackOutbox.getRetryDelay(2), is(Math.min(YouTrackOutbox.MAX_DELAY, YouTrackOutbox.INITIAL_DELAY * 2)));
+        assertThat(YouTrackOutbox.getRetryDelay(3), is(Math.min(YouTrackOutbox.MAX_DELAY, YouTrackOutbox.INITIAL_DELAY * 4)));
+        assertThat(YouTrackOutbox.getRetryDelay(30), is(YouTrackOutbox.MAX_DELAY));
+        assertThat(YouTrackOutbox.getRetryDelay(1000), is(YouTrackOutbox.MAX_DELAY));
+    }
+
+    @Test
+    public void testExpiry() {
+        YouTrackOutbox.Entry entry = YouTrackOutbox.Entry.comment("TP-1", "Built", null, false);
+
+        assertFalse(entry.isExpired(YouTrackOutbox.MAX_AGE));
+        assertTrue(entry.isExpired(YouTrackOutbox.MAX_AGE + 1));
+    }
+
+    @Test
+    public void testFindCommandInAnyCommandAction() {
+        AbstractBuild build = mock(FreeStyleBuild.class);
+        YouTrackCommandAction stepAction = new YouTrackCommandAction(build);
+        stepAction.addCommand(new Command());
+        YouTrackCommandAction updaterAction = new YouTrackCommandAction(build);
+        Command queued = command(Command.Status.QUEUED, true);
+        queued.setOutboxId(7);
+        updaterAction.addCommand(queued);
+        doReturn(Arrays.asList(stepAction, updaterAction)).when(build).getActions(YouTrackCommandAction.class);
+
+        assertThat(YouTrackOutbox.findCommand(build, 7), sameInstance(queued));
+        assertNull(YouTrackOutbox.findCommand(build, 8));
+    }
+}
@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.youtrack;
 
 import com.gargoylesoftware.htmlunit.html.*;
 import hudson.model.FreeStyleProject;
+import hudson.util.Secret;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.JenkinsRule;
@@ -42,6 +43,64 @@ public class YouTrackProjectPropertyTest {
         button.click();
     }
 
+    @Test
+    public void testSiteSettingsSurviveConfigRoundtrip() throws Exception {
+        YouTrackSite first = new YouTrackSite("first", "user1", Secret.fromString("secret1"), "http://localhost:1/youtrack");
+        first.setConnectTimeout(5);
+        first.setReadTimeout(30);
+        first.setMaxConnections(8);
+        first.setMaxParallelCommands(4);
+        first.setMetadataCacheTtl(15);
+        first.setAsyncUpdates(true);
+        first.setRetryFailedCommands(false);
+        first.setRevisionHistoryPerJob(true);
+        first.setRevisionRetentionDays(90);
+        first.setRevisionRetentionBuilds(20);
+        YouTrackSite second = new YouTrackSite("second", "user2", Secret.fromString("secret2"), "http://localhost:2/youtrack");
+        second.setRetryFailedCommands(true);
+        second.setRevisionRetentionDays(7);
+        YouTrackProjectProperty.DESCRIPTOR.setSites(first);
+        YouTrackProjectProperty.DESCRIPTOR.setSites(second);
+
+        j.submit(j.createWebClient().goTo("configure").getFormByName("config"));
+
+        YouTrackSite site = site("first");
+        assertEquals("first", site.getName());
+        assertEquals("user1", site.getUsername());
+        assertEquals("secret1", site.getPassword().getPlainText());
+        assertEquals("http://localhost:1/youtrack", site.getUrl());
+        assertEquals(5, site.getConnectTimeout());
+        assertEquals(30, site.getReadTimeout());
+        assertEquals(8, site.getMaxConnections());
+        assertEquals(4, site.getMaxParallelCommands());
+        assertEquals(15, site.getMetadataCacheTtl());
+        assertTrue(site.isAsyncUpdates());
+        assertFalse(site.isRetryFailedCommands());
+        assertTrue(site.isRevisionHistoryPerJob());
+        assertEquals(90, site.getRevisionRetentionDays());
+        assertEquals(20, site.getRevisionRetentionBuilds());
+
+        site = site("second");
+        assertEquals("second", site.getName());
+        assertEquals("user2", site.getUsername());
+        assertEquals("secret2", site.getPassword().getPlainText());
+        assertFalse(site.isAsyncUpdates());
+        assertTrue(site.isRetryFailedCommands());
+        assertFalse(site.isRevisionHistoryPerJob());
+        assertEquals(7, site.getRevisionRetentionDays());
+        assertEquals(0, site.getRevisionRetentionBuilds());
+    }
+
+    private YouTrackSite site(String name) {
+        for (YouTrackSite site : YouTrackProjectProperty.DESCRIPTOR.getSites()) {
+            if (name.equals(site.getName())) {
+                return site;
+            }
+        }
+        fail("No site " + name);
+        return null;
+    }
+
     private HtmlElement youtrackSitesSection(HtmlPage globalConfiguration) {
         HtmlElement mainPanel = globalConfiguration.getHtmlElementById("main-panel");
         List<HtmlElement> settings = mainPanel.getElementsByAttribute("td", "class", "setting-name");
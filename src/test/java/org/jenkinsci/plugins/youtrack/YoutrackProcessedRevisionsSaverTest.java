@@ -0,0 +1,132 @@
+package org.jenkinsci.plugins.youtrack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.jenkinsci.plugins.youtrack.RevisionIds.sha;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class YoutrackProcessedRevisionsSaverTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testBloomFilterNotReusedAfterCrash() throws Exception {
+        File directory = folder.newFolder();
+        File legacyFile = new File(directory, "youtrack-processed");
+        YoutrackProcessedRevisionsSaver saver = new YoutrackProcessedRevisionsSaver(directory, legacyFile);
+        for (int i = 1; i <= 10; i++) {
+            saver.addProcessed(sha(i), i);
+        }
+        saver.close();
+        assertTrue(new File(directory, "processed.bloom").exists());
+
+        saver = new YoutrackProcessedRevisionsSaver(directory, legacyFile);
+        assertFalse(new File(directory, "processed.bloom").exists());
+        assertThat(saver.compact(0, 5, 10), is(5));
+        saver.addProcessed(sha(11), 11);
+
+        // Opened again without closing, as after a crash.
+        saver = new YoutrackProcessedRevisionsSaver(directory, legacyFile);
+        assertThat(saver.getSize(), is(6));
+        assertTrue(saver.isProcessed(sha(11)));
+        assertTrue(saver.isProcessed(sha(10)));
+        assertFalse(saver.isProcessed(sha(5)));
+        saver.close();
+    }
+
+    @Test
+    public void testOnlyOneBuildClaimsRevision() throws Exception {
+        final YoutrackProcessedRevisionsSaver saver = new YoutrackProcessedRevisionsSaver(folder.newFolder(), new File(folder.getRoot(), "youtrack-processed"));
+        final AtomicInteger claimed = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        if (saver.tryClaim(sha(i))) {
+                            claimed.incrementAndGet();
+                            saver.releaseClaim(sha(i), true, 1);
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(claimed.get(), is(1000));
+        assertThat(saver.getSize(), is(1000));
+        assertThat(saver.getClaims(), is(0));
+
+        assertTrue(saver.tryClaim(sha(1000)));
+        assertFalse(saver.tryClaim(sha(1000)));
+        saver.releaseClaim(sha(1000), false, 1);
+        assertTrue(saver.tryClaim(sha(1000)));
+    }
+
+    @Test
+    public void testPartitionsSharingClaimsSeeEachOthersClaims() throws Exception {
+        ConcurrentMap<String, Boolean> claims = new ConcurrentHashMap<String, Boolean>();
+        YoutrackProcessedRevisionsSaver job1 = new YoutrackProcessedRevisionsSaver(folder.newFolder(), new File(folder.getRoot(), "youtrack-processed"), claims);
+        YoutrackProcessedRevisionsSaver job2 = new YoutrackProcessedRevisionsSaver(folder.newFolder(), new File(folder.getRoot(), "youtrack-processed"), claims);
+
+        assertTrue(job1.tryClaim(sha(1)));
+        assertFalse(job2.tryClaim(sha(1)));
+        assertThat(job2.getClaims(), is(1));
+        job1.releaseClaim(sha(1), true, 1);
+        assertThat(job2.getClaims(), is(0));
+        assertTrue(job1.isProcessed(sha(1)));
+        assertFalse(job2.isProcessed(sha(1)));
+    }
+
+    @Test
+    public void testMigratesTextFile() throws Exception {
+        File legacyFile = folder.newFile("youtrack-processed");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(legacyFile), StandardCharsets.UTF_8)) {
+            writer.write(sha(1) + "\n" + "r42\n");
+        }
+        YoutrackProcessedRevisionsSaver saver = new YoutrackProcessedRevisionsSaver(new File(folder.getRoot(), "youtrack-revisions"), legacyFile);
+        assertTrue(saver.isProcessed(sha(1)));
+        assertTrue(saver.isProcessed("r42"));
+        assertFalse(saver.isProcessed(sha(2)));
+        assertFalse(legacyFile.exists());
+    }
+
+    @Test
+    public void testSaverReplaysJournal() throws Exception {
+        File directory = folder.newFolder();
+        ProcessedRevisionJournal journal = new ProcessedRevisionJournal(new File(directory, "processed.journal"), false);
+        journal.append(ProcessedRevisionTable.toKey(sha(1)), 1, 0);
+        journal.close();
+
+        YoutrackProcessedRevisionsSaver saver = new YoutrackProcessedRevisionsSaver(directory, new File(directory, "youtrack-processed"));
+        assertTrue(saver.isProcessed(sha(1)));
+        assertFalse(saver.isProcessed(sha(2)));
+        saver.addProcessed(sha(2), 2);
+        saver.close();
+
+        saver = new YoutrackProcessedRevisionsSaver(directory, new File(directory, "youtrack-processed"));
+        assertTrue(saver.isProcessed(sha(2)));
+        assertThat(saver.getSize(), is(2));
+        assertThat(new File(directory, "processed.journal").length(), is(0L));
+    }
+}
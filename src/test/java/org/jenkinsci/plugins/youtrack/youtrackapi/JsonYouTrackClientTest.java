@@ -0,0 +1,145 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.startsWith;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.jenkinsci.plugins.youtrack.youtrackapi.YouTrackServerTest.response;
+
+public class JsonYouTrackClientTest {
+    private static final String URL = "http://youtrack.example.com";
+
+    private static final String ISSUES = "["
+            + "{\"idReadable\":\"TP-1\",\"customFields\":["
+            + "{\"name\":\"Priority\",\"value\":{\"name\":\"Major\",\"$type\":\"EnumBundleElement\"},\"$type\":\"SingleEnumIssueCustomField\"},"
+            + "{\"name\":\"State\",\"value\":{\"name\":\"Fixed\",\"isResolved\":true,\"$type\":\"StateBundleElement\"},\"$type\":\"StateIssueCustomField\"}"
+            + "],\"$type\":\"Issue\"},"
+            + "{\"idReadable\":\"TP-2\",\"customFields\":[{\"name\":\"State\",\"value\":null,\"$type\":\"StateIssueCustomField\"}],\"$type\":\"Issue\"},"
+            + "{\"idReadable\":\"TP-3\",\"customFields\":[{\"name\":\"State\",\"value\":[{\"name\":\"Open\"},{\"name\":\"Blocked\"}],\"$type\":\"MultiEnumIssueCustomField\"}],\"$type\":\"Issue\"},"
+            + "{\"idReadable\":\"TP-4\",\"customFields\":[{\"name\":\"State\",\"value\":3,\"$type\":\"SimpleIssueCustomField\"}],\"$type\":\"Issue\"},"
+            + "{\"idReadable\":\"TP-5\",\"customFields\":null,\"$type\":\"Issue\"}"
+            + "]";
+
+    @Test
+    public void testGetIssuesReadsStateValues() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        YouTrackTransport.Response issues = response(200, ISSUES);
+        when(transport.get(startsWith(URL + "/api/issues?"), any(User.class))).thenReturn(issues);
+
+        List<Issue> result = new JsonYouTrackClient(URL, transport).getIssues(new User(), Arrays.asList("TP-1", "TP-2", "TP-3", "TP-4", "TP-5"), "State", false);
+
+        assertThat(result.size(), is(5));
+        assertThat(result.get(0).getId(), is("TP-1"));
+        assertThat(result.get(0).getState(), is("Fixed"));
+        assertThat(result.get(1).getState(), nullValue());
+        assertThat(result.get(2).getState(), is("Open, Blocked"));
+        assertThat(result.get(3).getState(), is("3"));
+        assertThat(result.get(4).getState(), nullValue());
+    }
+
+    @Test
+    public void testGetIssueReadsDetails() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        YouTrackTransport.Response issue = response(200, "{\"idReadable\":\"TP-1\",\"summary\":\"Crash on start\","
+                + "\"wikifiedDescription\":\"<p>Steps</p>\",\"resolved\":1589000000000,\"unknown\":{\"nested\":[1,2]},"
+                + "\"customFields\":[{\"name\":\"Status\",\"value\":{\"name\":\"Verified\"}}],\"$type\":\"Issue\"}");
+        when(transport.get(startsWith(URL + "/api/issues/TP-1?"), any(User.class))).thenReturn(issue);
+
+        Issue result = new JsonYouTrackClient(URL, transport).getIssue(new User(), "TP-1", "Status");
+
+        assertThat(result.getId(), is("TP-1"));
+        assertThat(result.getSummary(), is("Crash on start"));
+        assertThat(result.getDescription(), is("<p>Steps</p>"));
+        assertThat(result.getResolved(), is("1589000000000"));
+        assertThat(result.getState(), is("Verified"));
+    }
+
+    @Test
+    public void testGetIssueNotFound() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        YouTrackTransport.Response notFound = response(404, "{\"error\":\"Not Found\",\"error_description\":\"Entity with id TP-9 not found\"}");
+        when(transport.get(startsWith(URL + "/api/issues/TP-9?"), any(User.class))).thenReturn(notFound);
+
+        assertNull(new JsonYouTrackClient(URL, transport).getIssue(new User(), "TP-9", "State"));
+    }
+
+    @Test
+    public void testGetProjectsFetchesAllPages() throws IOException {
+        StringBuilder firstPage = new StringBuilder("[");
+        for (int i = 0; i < 500; i++) {
+            firstPage.append(i > 0 ? "," : "").append("{\"shortName\":\"P").append(i).append("\",\"$type\":\"Project\"}");
+        }
+        firstPage.append("]");
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        YouTrackTransport.Response first = response(200, firstPage.toString());
+        YouTrackTransport.Response second = response(200, "[{\"shortName\":\"LAST\",\"$type\":\"Project\"}]");
+        when(transport.get(eq(URL + "/api/admin/projects?fields=shortName&$skip=0&$top=500"), any(User.class))).thenReturn(first);
+        when(transport.get(eq(URL + "/api/admin/projects?fields=shortName&$skip=500&$top=500"), any(User.class))).thenReturn(second);
+
+        List<Project> projects = new JsonYouTrackClient(URL, transport).getProjects(new User());
+
+        assertThat(projects.size(), is(501));
+        assertThat(projects.get(0).getShortName(), is("P0"));
+        assertThat(projects.get(499).getShortName(), is("P499"));
+        assertThat(projects.get(500).getShortName(), is("LAST"));
+    }
+
+    @Test
+    public void testGetProjectsReportsYouTrackError() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        YouTrackTransport.Response forbidden = response(403, "{\"error\":\"Forbidden\",\"error_description\":\"You have no permissions to read projects\"}");
+        when(transport.get(startsWith(URL + "/api/admin/projects?"), any(User.class))).thenReturn(forbidden);
+
+        try {
+            new JsonYouTrackClient(URL, transport).getProjects(new User());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().endsWith("You have no permissions to read projects"));
+        }
+    }
+
+    @Test
+    public void testGetProjectsReportsStartOfOtherErrors() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        YouTrackTransport.Response badGateway = response(502, "<html><body>Bad Gateway</body></html>");
+        when(transport.get(startsWith(URL + "/api/admin/projects?"), any(User.class))).thenReturn(badGateway);
+
+        try {
+            new JsonYouTrackClient(URL, transport).getProjects(new User());
+            fail("Expected an IOException");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("<html><body>Bad Gateway</body></html>"));
+        }
+    }
+
+    @Test
+    public void testGetIssuesFailsOnError() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        YouTrackTransport.Response error = response(400, "{\"error\":\"Bad Request\",\"error_description\":\"Invalid query\"}");
+        when(transport.get(startsWith(URL + "/api/issues?"), any(User.class))).thenReturn(error);
+
+        assertNull(new JsonYouTrackClient(URL, transport).getIssues(new User(), Arrays.asList("TP-1"), "State", true));
+    }
+
+    @Test
+    public void testReadVersion() throws IOException {
+        String body = "{\"version\":\"2020.2\",\"build\":\"4382\",\"$type\":\"ApplicationConfig\"}";
+
+        assertThat(JsonYouTrackClient.readVersion(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8))), is("2020.2"));
+    }
+}
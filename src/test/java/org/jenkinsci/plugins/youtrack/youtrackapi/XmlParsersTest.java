@@ -0,0 +1,92 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.junit.Test;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class XmlParsersTest {
+    private static InputStream xml(String text) {
+        return new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Collects the names of the elements it sees.
+     */
+    private static class ElementHandler extends DefaultHandler {
+        private final List<String> elements = new ArrayList<String>();
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+            elements.add(qName);
+        }
+    }
+
+    @Test
+    public void testNestedParse() throws Exception {
+        final ElementHandler inner = new ElementHandler();
+        ElementHandler outer = new ElementHandler() {
+            @Override
+            public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                super.startElement(uri, localName, qName, attributes);
+                if (qName.equals("nested")) {
+                    try {
+                        XmlParsers.parse(xml("<inner><value/></inner>"), inner);
+                    } catch (IOException | ParserConfigurationException e) {
+                        throw new SAXException(e);
+                    }
+                }
+            }
+        };
+
+        XmlParsers.parse(xml("<outer><nested/><after/></outer>"), outer);
+
+        assertThat(outer.elements, is(Arrays.asList("outer", "nested", "after")));
+        assertThat(inner.elements, is(Arrays.asList("inner", "value")));
+    }
+
+    @Test
+    public void testReuseAfterParseError() throws Exception {
+        try {
+            XmlParsers.parse(xml("<issue><field>"), new ElementHandler());
+            fail("Expected a parse error");
+        } catch (SAXException expected) {
+        }
+
+        ElementHandler handler = new ElementHandler();
+        XmlParsers.parse(xml("<issue><field/></issue>"), handler);
+        assertThat(handler.elements, is(Arrays.asList("issue", "field")));
+    }
+
+    @Test
+    public void testReuseAfterHandlerError() throws Exception {
+        try {
+            XmlParsers.parse(xml("<issue><field/></issue>"), new DefaultHandler() {
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+                    throw new SAXException("Rejected " + qName);
+                }
+            });
+            fail("Expected the handler error");
+        } catch (SAXException expected) {
+        }
+
+        ElementHandler handler = new ElementHandler();
+        XmlParsers.parse(xml("<projects><project/></projects>"), handler);
+        assertThat(handler.elements, is(Arrays.asList("projects", "project")));
+    }
+}
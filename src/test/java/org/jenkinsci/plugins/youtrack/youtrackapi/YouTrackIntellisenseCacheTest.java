@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class YouTrackIntellisenseCacheTest {
+    private final YouTrackIntellisenseCache cache = new YouTrackIntellisenseCache(60000, 10);
+
+    /**
+     * Loads a new list of suggestions once released, or fails while failing is set.
+     */
+    private static class BlockingLoader implements YouTrackMetadataCache.Loader<List<Suggestion>> {
+        private final CountDownLatch release = new CountDownLatch(1);
+        private final AtomicInteger loads = new AtomicInteger();
+        private volatile boolean failing;
+
+        public List<Suggestion> load() throws IOException {
+            loads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            if (failing) {
+                throw new IOException("Connection refused");
+            }
+            return new ArrayList<Suggestion>();
+        }
+    }
+
+    private Future<List<Suggestion>> getInThread(ExecutorService executor, final String key, final BlockingLoader loader) {
+        return executor.submit(new Callable<List<Suggestion>>() {
+            public List<Suggestion> call() {
+                return cache.get(key, loader);
+            }
+        });
+    }
+
+    /**
+     * Waits until the second caller waits for the load of the first.
+     */
+    private void awaitMerged(long merged) throws InterruptedException {
+        while (cache.getMerged() < merged) {
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testConcurrentRequestsShareOneLoad() throws Exception {
+        BlockingLoader loader = new BlockingLoader();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Suggestion>> first = getInThread(executor, "builder|project: ", loader);
+            Future<List<Suggestion>> second = getInThread(executor, "builder|project: ", loader);
+            awaitMerged(1);
+            loader.release.countDown();
+
+            List<Suggestion> suggestions = first.get();
+            assertThat(second.get(), sameInstance(suggestions));
+            assertThat(loader.loads.get(), is(1));
+            assertThat(cache.getMisses(), is(1L));
+
+            assertThat(cache.get("builder|project: ", loader), sameInstance(suggestions));
+            assertThat(cache.getHits(), is(1L));
+            assertThat(loader.loads.get(), is(1));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedLoadIsNotServedToNextCaller() throws Exception {
+        BlockingLoader failingLoader = new BlockingLoader();
+        failingLoader.failing = true;
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Suggestion>> first = getInThread(executor, "builder|project: ", failingLoader);
+            Future<List<Suggestion>> second = getInThread(executor, "builder|project: ", failingLoader);
+            awaitMerged(1);
+            failingLoader.release.countDown();
+
+            assertThat(first.get(), nullValue());
+            assertThat(second.get(), nullValue());
+            assertThat(failingLoader.loads.get(), is(1));
+            assertThat(cache.getSize(), is(0));
+        } finally {
+            executor.shutdownNow();
+        }
+
+        BlockingLoader loader = new BlockingLoader();
+        loader.release.countDown();
+        List<Suggestion> suggestions = cache.get("builder|project: ", loader);
+        assertThat(suggestions.size(), is(0));
+        assertThat(loader.loads.get(), is(1));
+        assertThat(cache.getMisses(), is(2L));
+    }
+}
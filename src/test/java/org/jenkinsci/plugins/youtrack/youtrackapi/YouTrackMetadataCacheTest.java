@@ -0,0 +1,135 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class YouTrackMetadataCacheTest {
+    private long now = 1000000;
+    private final List<Runnable> refreshes = new ArrayList<Runnable>();
+    private YouTrackMetadataCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new YouTrackMetadataCache(new Executor() {
+            public void execute(Runnable command) {
+                refreshes.add(command);
+            }
+        }) {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        cache.setTimeToLive(1000);
+    }
+
+    /**
+     * Loads "value" followed by the number of the load, or fails while failing is set.
+     */
+    private static class CountingLoader implements YouTrackMetadataCache.Loader<String> {
+        private int loads;
+        private boolean failing;
+
+        public String load() throws IOException {
+            loads++;
+            if (failing) {
+                throw new IOException("Connection refused");
+            }
+            return "value" + loads;
+        }
+    }
+
+    @Test
+    public void testReusesValueUntilExpired() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        assertThat(cache.get("projects|builder", loader), is("value1"));
+        now += 500;
+        assertThat(cache.get("projects|builder", loader), is("value1"));
+        now += 500;
+        assertThat(cache.get("projects|builder", loader), is("value2"));
+        assertThat(loader.loads, is(2));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(refreshes.size(), is(0));
+    }
+
+    @Test
+    public void testRefreshesAheadInLastQuarter() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        cache.get("projects|builder", loader);
+        now += 749;
+        cache.get("projects|builder", loader);
+        assertThat(refreshes.size(), is(0));
+
+        now += 1;
+        assertThat(cache.get("projects|builder", loader), is("value1"));
+        assertThat(cache.get("projects|builder", loader), is("value1"));
+        assertThat(refreshes.size(), is(1));
+        refreshes.get(0).run();
+        assertThat(cache.getRefreshes(), is(1L));
+
+        // The refreshed value lives for a full time to live from now.
+        now += 999;
+        assertThat(cache.get("projects|builder", loader), is("value2"));
+        assertThat(loader.loads, is(2));
+    }
+
+    @Test
+    public void testServesStaleValueWhenLoadFails() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        cache.get("projects|builder", loader);
+        now += 1000;
+        loader.failing = true;
+        assertThat(cache.get("projects|builder", loader), is("value1"));
+        assertThat(cache.getStaleHits(), is(1L));
+
+        loader.failing = false;
+        assertThat(cache.get("projects|builder", loader), is("value3"));
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        loader.failing = true;
+        try {
+            cache.get("projects|builder", loader);
+            fail("Expected the failure of the loader");
+        } catch (IOException expected) {
+        }
+        loader.failing = false;
+        assertThat(cache.get("projects|builder", loader), is("value2"));
+        assertThat(loader.loads, is(2));
+    }
+
+    @Test
+    public void testZeroTimeToLiveUsesDefault() {
+        cache.setTimeToLive(0);
+        assertThat(cache.getTimeToLive(), is(YouTrackMetadataCache.DEFAULT_TIME_TO_LIVE));
+        cache.setTimeToLive(-1);
+        assertThat(cache.getTimeToLive(), is(YouTrackMetadataCache.DEFAULT_TIME_TO_LIVE));
+    }
+
+    @Test
+    public void testEvictsUnusedEntries() throws Exception {
+        CountingLoader loader = new CountingLoader();
+        cache.get("projects|removed", loader);
+        cache.get("projects|builder", loader);
+        now += 3000;
+        cache.get("projects|builder", loader);
+        assertThat(cache.getSize(), is(2));
+
+        now += 1001;
+        cache.get("projects|builder", loader);
+        assertThat(cache.getSize(), is(1));
+        assertThat(cache.getEvictions(), is(1L));
+    }
+}
@@ -0,0 +1,98 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.jenkinsci.plugins.youtrack.Command;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class YouTrackServerTest {
+    private static final String URL = "http://youtrack.example.com";
+
+    static YouTrackTransport.Response response(int status, String body) throws IOException {
+        YouTrackTransport.Response response = mock(YouTrackTransport.Response.class);
+        when(response.getStatus()).thenReturn(status);
+        when(response.getBody()).thenReturn(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        return response;
+    }
+
+    private static User loggedInUser() {
+        User user = new User();
+        user.setUsername("builder");
+        user.setLoggedIn(true);
+        return user;
+    }
+
+    @Test
+    public void testBulkCommandWithBlankGroup() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        when(transport.isBulkCommandsSupported()).thenReturn(true);
+        YouTrackTransport.Response ok = response(200, "{}");
+        when(transport.post(eq(URL + "/api/commands"), any(User.class), anyString(), eq("application/json"))).thenReturn(ok);
+        User user = loggedInUser();
+
+        List<Command> commands = new YouTrackServer(URL, transport).applyCommand("site", user, Arrays.asList(new Issue("TP-1"), new Issue("TP-2")), "Fixed", null, "", null, true);
+
+        assertThat(commands.size(), is(2));
+        assertThat(commands.get(0).getStatus(), is(Command.Status.OK));
+        assertThat(commands.get(1).getStatus(), is(Command.Status.OK));
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(transport).post(eq(URL + "/api/commands"), eq(user), body.capture(), eq("application/json"));
+        assertFalse(body.getValue().contains("visibility"));
+        verify(transport, never()).post(anyString(), any(User.class), anyString());
+    }
+
+    @Test
+    public void testBulkCommandWithGroup() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        when(transport.isBulkCommandsSupported()).thenReturn(true);
+        when(transport.getMetadataCache()).thenReturn(new YouTrackMetadataCache());
+        YouTrackTransport.Response groups = response(200, "[{\"id\":\"3-0\",\"name\":\"All Users\",\"$type\":\"UserGroup\"},{\"id\":\"3-4\",\"name\":\"Developers\",\"$type\":\"UserGroup\"}]");
+        when(transport.get(eq(URL + "/api/groups?fields=id,name&$top=-1"), any(User.class))).thenReturn(groups);
+        YouTrackTransport.Response ok = response(200, "{}");
+        when(transport.post(eq(URL + "/api/commands"), any(User.class), anyString(), eq("application/json"))).thenReturn(ok);
+        User user = loggedInUser();
+
+        List<Command> commands = new YouTrackServer(URL, transport).applyCommand("site", user, Arrays.asList(new Issue("TP-1"), new Issue("TP-2")), "Fixed", "Built", "Developers", null, true);
+
+        assertThat(commands.get(1).getStatus(), is(Command.Status.OK));
+        ArgumentCaptor<String> body = ArgumentCaptor.forClass(String.class);
+        verify(transport).post(eq(URL + "/api/commands"), eq(user), body.capture(), eq("application/json"));
+        assertTrue(body.getValue().contains("\"visibility\":{\"$type\":\"CommandLimitedVisibility\",\"permittedGroups\":[{\"id\":\"3-4\"}]}"));
+        verify(transport, never()).post(anyString(), any(User.class), anyString());
+    }
+
+    @Test
+    public void testClientChoiceNotCachedWithoutVersion() throws IOException {
+        YouTrackTransport transport = mock(YouTrackTransport.class);
+        when(transport.getMetadataCache()).thenReturn(new YouTrackMetadataCache());
+        YouTrackTransport.Response unavailable = response(503, "<html><body>Service Unavailable</body></html>");
+        YouTrackTransport.Response version = response(200, "<version>2020.2</version>");
+        YouTrackTransport.Response configUnavailable = response(503, "<html><body>Service Unavailable</body></html>");
+        when(transport.get(URL + "/rest/workflow/version", null)).thenReturn(unavailable, version);
+        when(transport.get(URL + "/api/config?fields=version", null)).thenReturn(configUnavailable);
+        YouTrackServer server = new YouTrackServer(URL, transport);
+
+        assertTrue(server.getClient() instanceof XmlYouTrackClient);
+        YouTrackClient client = server.getClient();
+        assertTrue(client instanceof JsonYouTrackClient);
+        assertThat(server.getClient(), sameInstance(client));
+    }
+}
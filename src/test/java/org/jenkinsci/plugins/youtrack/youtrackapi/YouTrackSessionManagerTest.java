@@ -0,0 +1,121 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class YouTrackSessionManagerTest {
+    private long now = 1000000;
+    private YouTrackSessionManager sessions;
+    private YouTrackServer server;
+
+    @Before
+    public void setUp() {
+        sessions = new YouTrackSessionManager() {
+            @Override
+            long currentTimeMillis() {
+                return now;
+            }
+        };
+        server = mock(YouTrackServer.class);
+    }
+
+    private static User loggedIn(String cookie) {
+        User user = new User();
+        user.setUsername("builder");
+        user.setLoggedIn(true);
+        user.replaceCookies(Arrays.asList(cookie));
+        return user;
+    }
+
+    @Test
+    public void testReusesSession() {
+        User user = loggedIn("session=1");
+        when(server.authenticate("builder", "secret")).thenReturn(user);
+
+        assertThat(sessions.login(server, "builder", "secret"), sameInstance(user));
+        now += YouTrackSessionManager.SESSION_TIMEOUT - 1;
+        assertThat(sessions.login(server, "builder", "secret"), sameInstance(user));
+        verify(server, times(1)).authenticate("builder", "secret");
+    }
+
+    @Test
+    public void testLogsInAgainWhenExpiredOrPasswordChanged() {
+        User first = loggedIn("session=1");
+        User second = loggedIn("session=2");
+        User third = loggedIn("session=3");
+        when(server.authenticate("builder", "secret")).thenReturn(first, second);
+        when(server.authenticate("builder", "changed")).thenReturn(third);
+
+        assertThat(sessions.login(server, "builder", "secret"), sameInstance(first));
+        now += YouTrackSessionManager.SESSION_TIMEOUT;
+        assertThat(sessions.login(server, "builder", "secret"), sameInstance(second));
+        assertThat(sessions.login(server, "builder", "changed"), sameInstance(third));
+    }
+
+    @Test
+    public void testYoungSessionIsNotRenewed() {
+        User user = loggedIn("session=1");
+        when(server.authenticate("builder", "secret")).thenReturn(user);
+        sessions.login(server, "builder", "secret");
+
+        now += YouTrackSessionManager.MIN_SESSION_AGE_FOR_RENEWAL - 1;
+        assertFalse(sessions.renew(user, user.getCookies()));
+        verify(server, times(1)).authenticate("builder", "secret");
+    }
+
+    @Test
+    public void testConcurrentRejectionsRenewOnce() throws InterruptedException {
+        final User user = loggedIn("session=1");
+        when(server.authenticate("builder", "secret")).thenReturn(user, loggedIn("session=2"));
+        sessions.login(server, "builder", "secret");
+        now += YouTrackSessionManager.MIN_SESSION_AGE_FOR_RENEWAL;
+
+        final List<String> rejectedCookies = user.getCookies();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicInteger retries = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (sessions.renew(user, rejectedCookies)) {
+                        retries.incrementAndGet();
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(retries.get(), is(8));
+        assertThat(user.getCookies(), is(Arrays.asList("session=2")));
+        verify(server, times(2)).authenticate("builder", "secret");
+        assertTrue(sessions.renew(user, rejectedCookies));
+        verify(server, times(2)).authenticate("builder", "secret");
+    }
+}
@@ -0,0 +1,52 @@
+package org.jenkinsci.plugins.youtrack.youtrackapi;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class YouTrackTransportTest {
+    @Test
+    public void testSitesWithSameSettingsShareTransport() {
+        YouTrackTransport transport = YouTrackTransport.forServer("http://shared.example.com/youtrack/", 5000, 30000, 4, 60000, 3);
+        assertThat(YouTrackTransport.forServer("http://shared.example.com/youtrack", 5000, 30000, 4, 60000, 3), sameInstance(transport));
+        assertThat(transport.getMaxParallelCommands(), is(3));
+        assertThat(transport.getMetadataCache().getTimeToLive(), is(60000L));
+
+        // Zero means the default, so a site without settings shares the transport of the url.
+        assertThat(YouTrackTransport.forServer("http://shared.example.com/youtrack", 0, 0, 0, 0, 0),
+                sameInstance(YouTrackTransport.forServer("http://shared.example.com/youtrack")));
+    }
+
+    @Test
+    public void testSitesWithOtherSettingsKeepTheirOwn() {
+        YouTrackTransport fast = YouTrackTransport.forServer("http://other.example.com", 0, 0, 0, 0, 8);
+        YouTrackTransport slow = YouTrackTransport.forServer("http://other.example.com", 0, 0, 0, 0, 1);
+        assertThat(fast, not(sameInstance(slow)));
+        assertThat(YouTrackTransport.forServer("http://other.example.com", 0, 0, 0, 0, 1), sameInstance(slow));
+        assertThat(fast.getMaxParallelCommands(), is(8));
+        assertThat(slow.getMaxParallelCommands(), is(1));
+
+        List<YouTrackTransport> transports = YouTrackTransport.getTransports("http://other.example.com/");
+        assertThat(transports.size(), is(2));
+        assertTrue(transports.contains(fast));
+        assertTrue(transports.contains(slow));
+    }
+
+    @Test
+    public void testRetainOnlyForgetsUnusedTransports() {
+        YouTrackTransport used = YouTrackTransport.forServer("http://retained.example.com", 0, 0, 0, 0, 2);
+        YouTrackTransport unused = YouTrackTransport.forServer("http://retained.example.com", 0, 0, 0, 0, 4);
+        YouTrackTransport.retainOnly(Arrays.asList(used));
+
+        assertThat(YouTrackTransport.getTransports("http://retained.example.com"), is(Arrays.asList(used)));
+        assertThat(YouTrackTransport.forServer("http://retained.example.com", 0, 0, 0, 0, 2), sameInstance(used));
+        assertThat(YouTrackTransport.forServer("http://retained.example.com", 0, 0, 0, 0, 4), not(sameInstance(unused)));
+    }
+}